@@ -0,0 +1,54 @@
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Delivery throughput with and without per-recipient batching, against a
+ * transport that costs a fixed time per call (StubGateway's latency) however
+ * many messages the call carries. Messages come in bursts to a small pool of
+ * recipients, and every configuration sends the same sequence.
+ *
+ * Usage: java BatchingBenchmark [messages] [call millis] [workers] [recipients]
+ */
+public class BatchingBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        long callMillis = args.length > 1 ? Long.parseLong(args[1]) : 2;
+        int workers = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int recipients = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        // batch size, window millis
+        long[][] configs = { { 1, 0 }, { 16, 0 }, { 64, 0 }, { 16, 5 }, { 64, 20 } };
+
+        System.out.printf(Locale.ROOT, "%,d messages to %d recipients, %d ms per call, %d workers%n",
+                messages, recipients, callMillis, workers);
+        System.out.printf(Locale.ROOT, "%-8s %-8s %10s %10s %12s %14s%n",
+                "batch", "window", "calls", "msgs/call", "elapsed ms", "messages/s");
+        for (long[] config : configs) {
+            StubGateway gateway = new StubGateway(callMillis, false);
+            MessageDelivery delivery = new MessageDelivery(gateway, workers, messages, MessageDelivery.Overflow.BLOCK,
+                    1, MessageDelivery.daemonThreads(), (int) config[0], config[1]);
+            Message.clearAllMemoryData();
+            Message.setDelivery(delivery);
+
+            Random random = new Random(25);
+            long start = System.nanoTime();
+            int i = 0;
+            while (i < messages) {
+                // A burst of a few messages to one recipient
+                String cell = "+2771" + (1_000_000 + random.nextInt(recipients));
+                for (int burst = 1 + random.nextInt(8); burst > 0 && i < messages; burst--, i++) {
+                    Message.fromStored(String.valueOf(1000000000L + i), cell, "Message " + i, null).sendMessage("send");
+                }
+            }
+            delivery.awaitIdle(600_000);
+            long nanos = System.nanoTime() - start;
+
+            System.out.printf(Locale.ROOT, "%-8d %-8s %10d %10.1f %12.0f %14.0f%n",
+                    config[0], config[1] + " ms", gateway.calls(), (double) gateway.count() / gateway.calls(),
+                    nanos / 1e6, gateway.count() / (nanos / 1e9));
+            Message.setDelivery(null);
+        }
+        Message.clearAllMemoryData();
+    }
+}
@@ -0,0 +1,541 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compact binary format for stored messages.
+ *
+ * Segment file (stored_messages.seg): an 8-byte header ("QCSG" + version)
+ * followed by records of
+ *
+ *   int     payload length
+ *   byte    flags (which fields follow and how they are encoded)
+ *   long    message ID, when it is the usual 10 digits   | or a string
+ *   string  recipient
+ *   string  message text
+ *   packed  hash "NN:number:XY" as byte NN, varint number, 2 chars | or a string
+ *   long    send/store time in epoch milliseconds
+ *
+ * where a string is a varint byte length followed by UTF-8. Absent (null)
+ * fields take no space at all, and neither does an unknown (0) time, so
+ * records written before times were kept still read the same.
+ *
+ * Index file (stored_messages.idx): an 8-byte header ("QCIX" + version)
+ * followed by one long offset per record, so record n can be read with two
+ * positional reads. If the index falls behind the segment after a crash it
+ * is rebuilt from the last good entry when the store is next opened for
+ * writing.
+ */
+public class BinaryMessageStore implements MessageStore {
+
+    public static final String DEFAULT_SEGMENT = "stored_messages.seg";
+    public static final String DEFAULT_INDEX = "stored_messages.idx";
+
+    private static final int SEGMENT_MAGIC = 0x51435347; // "QCSG"
+    private static final int INDEX_MAGIC = 0x51434958;   // "QCIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+    private static final long MAP_REGION_BYTES = 64L * 1024 * 1024;
+
+    private static final int ID_NUMERIC = 1;
+    private static final int ID_STRING = 2;
+    private static final int RECIPIENT = 4;
+    private static final int TEXT = 8;
+    private static final int HASH_PACKED = 16;
+    private static final int HASH_STRING = 32;
+    private static final int TIMESTAMP = 64;
+
+    private final Path segment;
+    private final Path index;
+    private final GroupCommitWriter.Durability durability;
+    private final int batchRecords;
+    private final long flushIntervalMillis;
+
+    // Opened on the first append so that loading never creates the files
+    private GroupCommitWriter segmentWriter;
+    private GroupCommitWriter indexWriter;
+    private long segmentSize;
+    private byte[] encodeBuffer = new byte[512];
+
+    public BinaryMessageStore(Path segment, Path index, GroupCommitWriter.Durability durability,
+                              int batchRecords, long flushIntervalMillis) {
+        this.segment = segment;
+        this.index = index;
+        this.durability = durability;
+        this.batchRecords = batchRecords;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    // Open the binary store, first converting the JSON file if there is no segment yet
+    public static BinaryMessageStore openConverting(Path segment, Path index, Path json,
+                                                    GroupCommitWriter.Durability durability,
+                                                    int batchRecords, long flushIntervalMillis) throws IOException {
+        if (!Files.exists(segment) && Files.exists(json)) convertFromJson(json, segment, index);
+        return new BinaryMessageStore(segment, index, durability, batchRecords, flushIntervalMillis);
+    }
+
+    // Rewrite a stored_messages.json file as a segment + index; returns the record count
+    public static long convertFromJson(Path json, Path segment, Path index) throws IOException {
+        Path tmpSegment = segment.resolveSibling(segment.getFileName() + ".tmp");
+        Path tmpIndex = index.resolveSibling(index.getFileName() + ".tmp");
+        Files.deleteIfExists(tmpSegment);
+        Files.deleteIfExists(tmpIndex);
+
+        long[] count = { 0 };
+        IOException[] failure = { null };
+        try (BinaryMessageStore out = new BinaryMessageStore(tmpSegment, tmpIndex,
+                GroupCommitWriter.Durability.NONE, GroupCommitWriter.DEFAULT_BATCH_RECORDS, 0)) {
+            StoredMessageLoader.load(json, JsonRecordCodec::decode, m -> {
+                if (failure[0] != null) return;
+                try {
+                    out.append(m);
+                    count[0]++;
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }, StoredMessageLoader.DEFAULT_CHUNK_BYTES, ForkJoinPool.commonPool());
+            if (failure[0] != null) throw failure[0];
+            out.sync();
+        }
+
+        // Index first: a segment without its index is rebuilt, not the other way round
+        Files.move(tmpIndex, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tmpSegment, segment, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count[0];
+    }
+
+    public Path getSegment() { return segment; }
+    public Path getIndex() { return index; }
+
+    // --- Writing ---
+
+    @Override
+    public synchronized void append(Message m) throws IOException {
+        if (segmentWriter == null) openForAppend();
+
+        int length = encode(m);
+        segmentWriter.append(Arrays.copyOf(encodeBuffer, length));
+        indexWriter.append(longBytes(segmentSize));
+        segmentSize += length;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (segmentWriter == null) return;
+        // Segment before index, so the index never points past written data
+        segmentWriter.flush();
+        indexWriter.flush();
+    }
+
+    // Flush and fsync both files (creating them if nothing was appended yet)
+    private synchronized void sync() throws IOException {
+        if (segmentWriter == null) openForAppend();
+        flush();
+        try (FileChannel s = FileChannel.open(segment, StandardOpenOption.WRITE);
+             FileChannel i = FileChannel.open(index, StandardOpenOption.WRITE)) {
+            s.force(true);
+            i.force(true);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (segmentWriter == null) return;
+        try {
+            segmentWriter.close();
+        } finally {
+            indexWriter.close();
+            segmentWriter = null;
+            indexWriter = null;
+        }
+    }
+
+    private void openForAppend() throws IOException {
+        try (FileChannel seg = FileChannel.open(segment, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel idx = FileChannel.open(index, StandardOpenOption.CREATE,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (seg.size() < HEADER_BYTES) {
+                seg.truncate(0);
+                writeFully(seg, header(SEGMENT_MAGIC), 0);
+            } else {
+                checkHeader(seg, SEGMENT_MAGIC, segment);
+            }
+            if (idx.size() < HEADER_BYTES) {
+                idx.truncate(0);
+                writeFully(idx, header(INDEX_MAGIC), 0);
+            } else {
+                checkHeader(idx, INDEX_MAGIC, index);
+            }
+            segmentSize = recover(seg, idx, segment);
+        }
+
+        segmentWriter = new GroupCommitWriter(segment, durability,
+                GroupCommitWriter.DEFAULT_BUFFER_BYTES, batchRecords, flushIntervalMillis);
+        // No timer on the index: it is flushed with or after the segment
+        indexWriter = new GroupCommitWriter(index, durability,
+                GroupCommitWriter.DEFAULT_BUFFER_BYTES, batchRecords, 0);
+    }
+
+    // Bring the index in line with the segment and cut off any torn record; returns the segment size.
+    // Only a record running past the end of the file is torn: a bad length before that is damage,
+    // and is reported rather than cut off with everything after it
+    private static long recover(FileChannel seg, FileChannel idx, Path segment) throws IOException {
+        long size = seg.size();
+        long entries = (idx.size() - HEADER_BYTES) / 8;
+        long pos = HEADER_BYTES;
+
+        if (entries > 0) {
+            long last = readLong(idx, HEADER_BYTES + (entries - 1) * 8);
+            long end = recordEnd(seg, last, size);
+            if (last >= HEADER_BYTES && end > 0) {
+                pos = end;
+            } else {
+                entries = 0;
+            }
+        }
+        idx.truncate(HEADER_BYTES + entries * 8);
+
+        long indexPos = idx.size();
+        ByteBuffer entry = ByteBuffer.allocate(8);
+        long end;
+        while ((end = recordEnd(seg, pos, size)) > 0) {
+            entry.clear();
+            entry.putLong(pos).flip();
+            writeFully(idx, entry, indexPos);
+            indexPos += 8;
+            pos = end;
+        }
+        if (pos + 4 <= size && !validLength(readInt(seg, pos))) throw corruptAt(pos, segment);
+        seg.truncate(pos);
+        return pos;
+    }
+
+    // End offset of the record at pos, or -1 if there is no complete record there
+    private static long recordEnd(FileChannel seg, long pos, long size) throws IOException {
+        if (pos + 4 > size) return -1;
+        ByteBuffer len = ByteBuffer.allocate(4);
+        readFully(seg, len, pos);
+        int length = len.getInt(0);
+        if (!validLength(length) || pos + 4 + length > size) return -1;
+        return pos + 4 + length;
+    }
+
+    private static boolean validLength(int length) {
+        return length >= 1 && length <= MAX_RECORD_BYTES;
+    }
+
+    private static IOException corruptAt(long offset, Path segment) {
+        return new IOException("Corrupt record at offset " + offset + " in " + segment);
+    }
+
+    // Encode m as [length][payload] into encodeBuffer; returns the total byte count
+    private int encode(Message m) {
+        String id = m.getMessageID();
+        String hash = m.getMessageHash();
+        long numericID = numericID(id);
+        boolean packedHash = isPackableHash(hash);
+
+        int flags = 0;
+        if (numericID >= 0) flags |= ID_NUMERIC;
+        else if (id != null) flags |= ID_STRING;
+        if (m.getRecipient() != null) flags |= RECIPIENT;
+        if (m.getMessageText() != null) flags |= TEXT;
+        if (packedHash) flags |= HASH_PACKED;
+        else if (hash != null) flags |= HASH_STRING;
+        if (m.getTimestamp() != 0) flags |= TIMESTAMP;
+
+        int n = 4;
+        n = put(n, (byte) flags);
+        if (numericID >= 0) n = putLong(n, numericID);
+        else if (id != null) n = putString(n, id);
+        if (m.getRecipient() != null) n = putString(n, m.getRecipient());
+        if (m.getMessageText() != null) n = putString(n, m.getMessageText());
+        if (packedHash) {
+            int first = hash.indexOf(':');
+            int second = hash.indexOf(':', first + 1);
+            n = put(n, (byte) Integer.parseInt(hash.substring(0, 2)));
+            n = putVarint(n, Integer.parseInt(hash.substring(first + 1, second)));
+            n = putChar(n, hash.charAt(second + 1));
+            n = putChar(n, hash.charAt(second + 2));
+        } else if (hash != null) {
+            n = putString(n, hash);
+        }
+        if (m.getTimestamp() != 0) n = putLong(n, m.getTimestamp());
+
+        int payload = n - 4;
+        encodeBuffer[0] = (byte) (payload >>> 24);
+        encodeBuffer[1] = (byte) (payload >>> 16);
+        encodeBuffer[2] = (byte) (payload >>> 8);
+        encodeBuffer[3] = (byte) payload;
+        return n;
+    }
+
+    private void ensure(int n, int extra) {
+        if (n + extra > encodeBuffer.length) {
+            encodeBuffer = Arrays.copyOf(encodeBuffer, Math.max(n + extra, encodeBuffer.length * 2));
+        }
+    }
+
+    private int put(int n, byte b) {
+        ensure(n, 1);
+        encodeBuffer[n] = b;
+        return n + 1;
+    }
+
+    private int putChar(int n, char c) {
+        n = put(n, (byte) (c >>> 8));
+        return put(n, (byte) c);
+    }
+
+    private int putLong(int n, long v) {
+        ensure(n, 8);
+        for (int shift = 56; shift >= 0; shift -= 8) encodeBuffer[n++] = (byte) (v >>> shift);
+        return n;
+    }
+
+    private int putVarint(int n, int v) {
+        while ((v & ~0x7F) != 0) {
+            n = put(n, (byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        return put(n, (byte) v);
+    }
+
+    private int putString(int n, String s) {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        n = putVarint(n, utf8.length);
+        ensure(n, utf8.length);
+        System.arraycopy(utf8, 0, encodeBuffer, n, utf8.length);
+        return n + utf8.length;
+    }
+
+    // The usual 10-digit ID as a number (leading zeros come back from the fixed width); -1 otherwise
+    private static long numericID(String id) {
+        if (id == null || id.length() != 10) return -1;
+        long v = 0;
+        for (int i = 0; i < 10; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    // Hashes made by createMessageHash: two digits, ':', a plain number, ':', two chars
+    private static boolean isPackableHash(String hash) {
+        if (hash == null || hash.length() < 6) return false;
+        if (!isDigit(hash.charAt(0)) || !isDigit(hash.charAt(1)) || hash.charAt(2) != ':') return false;
+        int second = hash.indexOf(':', 3);
+        if (second < 0 || second + 3 != hash.length()) return false;
+        int digits = second - 3;
+        if (digits < 1 || digits > 9 || (digits > 1 && hash.charAt(3) == '0')) return false;
+        for (int i = 3; i < second; i++) {
+            if (!isDigit(hash.charAt(i))) return false;
+        }
+        return !Character.isSurrogate(hash.charAt(second + 1)) && !Character.isSurrogate(hash.charAt(second + 2));
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // --- Reading ---
+
+    // Number of records in the index
+    public synchronized long recordCount() throws IOException {
+        flush();
+        if (!Files.exists(index)) return 0;
+        return Math.max(0, (Files.size(index) - HEADER_BYTES) / 8);
+    }
+
+    // Read record n without scanning the segment
+    public synchronized Message readRecord(long n) throws IOException {
+        flush();
+        try (FileChannel idx = FileChannel.open(index, StandardOpenOption.READ);
+             FileChannel seg = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long entryPos = HEADER_BYTES + n * 8;
+            if (n < 0 || entryPos + 8 > idx.size()) {
+                throw new IndexOutOfBoundsException("No stored record " + n);
+            }
+            long offset = readLong(idx, entryPos);
+            long end = recordEnd(seg, offset, seg.size());
+            if (end < 0) throw new IOException("Corrupt record " + n + " in " + segment);
+
+            ByteBuffer payload = ByteBuffer.allocate((int) (end - offset - 4));
+            readFully(seg, payload, offset + 4);
+            payload.flip();
+            return decode(payload, new byte[payload.remaining()], offset);
+        }
+    }
+
+    @Override
+    public List<Message> loadAll() throws IOException {
+        List<Message> messages = new ArrayList<>();
+        synchronized (this) {
+            flush();
+        }
+        if (!Files.exists(segment)) return messages;
+
+        try (FileChannel seg = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long size = seg.size();
+            if (size < HEADER_BYTES) return messages;
+            checkHeader(seg, SEGMENT_MAGIC, segment);
+
+            byte[] scratch = new byte[512];
+            long pos = HEADER_BYTES;
+            while (pos + 4 <= size) {
+                // Map a window of whole records; a record larger than the window gets its own mapping
+                int length = readInt(seg, pos);
+                if (!validLength(length)) throw corruptAt(pos, segment);
+                // A record running past the end is a torn append, not damage
+                if (pos + 4 + length > size) break;
+                long window = Math.min(size - pos, Math.max(MAP_REGION_BYTES, 4L + length));
+                MappedByteBuffer map = seg.map(FileChannel.MapMode.READ_ONLY, pos, window);
+
+                while (map.remaining() >= 4) {
+                    int start = map.position();
+                    length = map.getInt(start);
+                    if (!validLength(length)) throw corruptAt(pos + start, segment);
+                    if (map.remaining() < 4 + length) break;
+                    if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+
+                    map.position(start + 4).limit(start + 4 + length);
+                    messages.add(decode(map, scratch, pos + start));
+                    map.limit(map.capacity()).position(start + 4 + length);
+                }
+                if (map.position() == 0) break;
+                pos += map.position();
+            }
+        }
+        return messages;
+    }
+
+    // A payload that passed the length check but does not decode (bad flags, a string
+    // running past the record) is reported against the record's offset in the segment
+    private Message decode(ByteBuffer in, byte[] scratch, long offset) throws IOException {
+        try {
+            return decode(in, scratch);
+        } catch (RuntimeException e) {
+            IOException corrupt = corruptAt(offset, segment);
+            corrupt.initCause(e);
+            throw corrupt;
+        }
+    }
+
+    private static Message decode(ByteBuffer in, byte[] scratch) {
+        int flags = in.get();
+        String id = null, recipient = null, text = null, hash = null;
+
+        if ((flags & ID_NUMERIC) != 0) {
+            id = pad10(in.getLong());
+        } else if ((flags & ID_STRING) != 0) {
+            id = getString(in, scratch);
+        }
+        if ((flags & RECIPIENT) != 0) recipient = getString(in, scratch);
+        if ((flags & TEXT) != 0) text = getString(in, scratch);
+        if ((flags & HASH_PACKED) != 0) {
+            int prefix = in.get();
+            int number = getVarint(in);
+            char first = in.getChar();
+            char last = in.getChar();
+            hash = unpackHash(prefix, number, first, last);
+        } else if ((flags & HASH_STRING) != 0) {
+            hash = getString(in, scratch);
+        }
+        long timestamp = (flags & TIMESTAMP) != 0 ? in.getLong() : 0;
+        return Message.fromStored(id, recipient, text, hash, timestamp);
+    }
+
+    private static String pad10(long id) {
+        char[] digits = new char[10];
+        for (int i = 9; i >= 0; i--) {
+            digits[i] = (char) ('0' + id % 10);
+            id /= 10;
+        }
+        return new String(digits);
+    }
+
+    private static String unpackHash(int prefix, int number, char first, char last) {
+        char[] chars = new char[16];
+        chars[0] = (char) ('0' + prefix / 10);
+        chars[1] = (char) ('0' + prefix % 10);
+        chars[2] = ':';
+        int n = 4;
+        for (int v = number / 10; v > 0; v /= 10) n++;
+        for (int i = n - 1, v = number; i >= 3; i--, v /= 10) chars[i] = (char) ('0' + v % 10);
+        chars[n++] = ':';
+        chars[n++] = first;
+        chars[n++] = last;
+        return new String(chars, 0, n);
+    }
+
+    private static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private static String getString(ByteBuffer in, byte[] scratch) {
+        int length = getVarint(in);
+        in.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // --- File helpers ---
+
+    private static ByteBuffer header(int magic) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(magic).putInt(VERSION).flip();
+        return header;
+    }
+
+    private static void checkHeader(FileChannel channel, int magic, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != magic || header.getInt(4) != VERSION) {
+            throw new IOException(path + " is not a version " + VERSION + " message store file.");
+        }
+    }
+
+    private static byte[] longBytes(long v) {
+        return ByteBuffer.allocate(8).putLong(v).array();
+    }
+
+    private static long readLong(FileChannel channel, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        readFully(channel, buf, pos);
+        return buf.getLong(0);
+    }
+
+    private static int readInt(FileChannel channel, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        readFully(channel, buf, pos);
+        return buf.getInt(0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, pos + buf.position());
+            if (read < 0) throw new IOException("Unexpected end of file");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) channel.write(buf, pos + buf.position());
+    }
+}
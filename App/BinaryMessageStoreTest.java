@@ -0,0 +1,242 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryMessageStoreTest {
+
+    private static BinaryMessageStore open(Path dir) {
+        return new BinaryMessageStore(dir.resolve("s.seg"), dir.resolve("s.idx"),
+                GroupCommitWriter.Durability.NONE, 16, 0);
+    }
+
+    private static List<Message> sample() {
+        List<Message> messages = new ArrayList<>();
+        messages.add(Message.fromStored("0838884567", "+27838884567", "It is dinner time!", "08:4:I!"));
+        messages.add(Message.fromStored("9611845214", "+27609151472", "You good", "96:1:YD"));
+        messages.add(Message.fromStored("1137109961", "null", "Hi Mike", "null"));
+        messages.add(Message.fromStored("custom", null, "Ok, I’m leaving without you. 😀", "cu:12:??"));
+        messages.add(Message.fromStored(null, null, null, null));
+        messages.add(Message.fromStored("1234567890", "+27830000001", "", "12:123456:\"\\"));
+        return messages;
+    }
+
+    private static void assertSameFields(Message expected, Message actual) {
+        assertEquals(expected.getMessageID(), actual.getMessageID());
+        assertEquals(expected.getRecipient(), actual.getRecipient());
+        assertEquals(expected.getMessageText(), actual.getMessageText());
+        assertEquals(expected.getMessageHash(), actual.getMessageHash());
+    }
+
+    private static void deleteAll(Path dir) throws Exception {
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) Files.deleteIfExists(p);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void roundTripsAndReadsSingleRecords() throws Exception {
+        Path dir = Files.createTempDirectory("binary-store");
+        try {
+            List<Message> messages = sample();
+            try (BinaryMessageStore store = open(dir)) {
+                for (Message m : messages) store.append(m);
+
+                assertEquals(messages.size(), store.recordCount());
+                assertSameFields(messages.get(3), store.readRecord(3));
+                assertSameFields(messages.get(0), store.readRecord(0));
+                assertThrows(IndexOutOfBoundsException.class, () -> store.readRecord(messages.size()));
+            }
+
+            List<Message> loaded = open(dir).loadAll();
+            assertEquals(messages.size(), loaded.size());
+            for (int i = 0; i < messages.size(); i++) assertSameFields(messages.get(i), loaded.get(i));
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void reopeningAppendsAfterExistingRecords() throws Exception {
+        Path dir = Files.createTempDirectory("binary-store");
+        try {
+            List<Message> messages = sample();
+            try (BinaryMessageStore store = open(dir)) {
+                store.append(messages.get(0));
+            }
+            try (BinaryMessageStore store = open(dir)) {
+                store.append(messages.get(1));
+                assertEquals(2, store.recordCount());
+                assertSameFields(messages.get(1), store.readRecord(1));
+            }
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void rebuildsLaggingIndexAndDropsTornRecord() throws Exception {
+        Path dir = Files.createTempDirectory("binary-store");
+        try {
+            List<Message> messages = sample();
+            try (BinaryMessageStore store = open(dir)) {
+                for (Message m : messages) store.append(m);
+            }
+            // Lose the last three index entries and half of the last record
+            Path idx = dir.resolve("s.idx");
+            Path seg = dir.resolve("s.seg");
+            try (var ch = java.nio.channels.FileChannel.open(idx, StandardOpenOption.WRITE)) {
+                ch.truncate(ch.size() - 3 * 8);
+            }
+            try (var ch = java.nio.channels.FileChannel.open(seg, StandardOpenOption.WRITE)) {
+                ch.truncate(ch.size() - 3);
+            }
+
+            try (BinaryMessageStore store = open(dir)) {
+                store.append(messages.get(0));
+                assertEquals(messages.size(), store.recordCount());
+                assertSameFields(messages.get(4), store.readRecord(4));
+                assertSameFields(messages.get(0), store.readRecord(messages.size() - 1));
+            }
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void convertsJsonFileAndIsSmaller() throws Exception {
+        Path dir = Files.createTempDirectory("binary-store");
+        try {
+            Path json = dir.resolve("stored.json");
+            List<Message> messages = new ArrayList<>();
+            try (JsonMessageStore jsonStore = new JsonMessageStore(json, GroupCommitWriter.Durability.NONE, 64, 0)) {
+                for (int i = 0; i < 1000; i++) {
+                    Message m = Message.fromStored(String.valueOf(1000000000L + i), "+27838884567",
+                            "Message number " + i, "10:" + i + ":MI");
+                    messages.add(m);
+                    jsonStore.append(m);
+                }
+            }
+
+            long count = BinaryMessageStore.convertFromJson(json, dir.resolve("s.seg"), dir.resolve("s.idx"));
+            assertEquals(1000, count);
+            assertTrue(Files.size(dir.resolve("s.seg")) < Files.size(json) / 2,
+                    "Binary segment should be well under half the JSON size.");
+
+            List<Message> loaded = open(dir).loadAll();
+            assertEquals(1000, loaded.size());
+            for (int i = 0; i < 1000; i++) assertSameFields(messages.get(i), loaded.get(i));
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void corruptPayloadIsReportedWithItsOffset() throws Exception {
+        Path dir = Files.createTempDirectory("binary-store");
+        try {
+            List<Message> messages = sample();
+            try (BinaryMessageStore store = open(dir)) {
+                for (Message m : messages) store.append(m);
+            }
+            // Keep the first record's length but scribble over its payload
+            Path seg = dir.resolve("s.seg");
+            try (var ch = java.nio.channels.FileChannel.open(seg, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                java.nio.ByteBuffer len = java.nio.ByteBuffer.allocate(4);
+                ch.read(len, 8);
+                byte[] junk = new byte[len.flip().getInt()];
+                java.util.Arrays.fill(junk, (byte) 0xFF);
+                ch.write(java.nio.ByteBuffer.wrap(junk), 12);
+            }
+
+            try (BinaryMessageStore store = open(dir)) {
+                IOException e = assertThrows(IOException.class, store::loadAll);
+                assertTrue(e.getMessage().contains("offset 8"), e.getMessage());
+                assertThrows(IOException.class, () -> store.readRecord(0));
+                assertSameFields(messages.get(1), store.readRecord(1));
+            }
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void badLengthBeforeTheEndIsReportedNotCutOff() throws Exception {
+        Path dir = Files.createTempDirectory("binary-store");
+        try {
+            List<Message> messages = sample();
+            try (BinaryMessageStore store = open(dir)) {
+                for (Message m : messages) store.append(m);
+            }
+            // Zero the length of the third record, which has whole records after it
+            Path seg = dir.resolve("s.seg");
+            long offset;
+            try (var idx = java.nio.channels.FileChannel.open(dir.resolve("s.idx"), StandardOpenOption.READ);
+                 var ch = java.nio.channels.FileChannel.open(seg, StandardOpenOption.WRITE)) {
+                java.nio.ByteBuffer entry = java.nio.ByteBuffer.allocate(8);
+                idx.read(entry, 8 + 2 * 8);
+                offset = entry.flip().getLong();
+                ch.write(java.nio.ByteBuffer.allocate(4), offset);
+            }
+            long size = Files.size(seg);
+
+            try (BinaryMessageStore store = open(dir)) {
+                IOException e = assertThrows(IOException.class, store::loadAll);
+                assertTrue(e.getMessage().contains("offset " + offset), e.getMessage());
+            }
+
+            // With the index lagging behind the damage, recovery must not cut off the records after it
+            try (var idx = java.nio.channels.FileChannel.open(dir.resolve("s.idx"), StandardOpenOption.WRITE)) {
+                idx.truncate(8 + 2 * 8);
+            }
+            try (BinaryMessageStore store = open(dir)) {
+                assertThrows(IOException.class, () -> store.append(messages.get(0)));
+            }
+            assertEquals(size, Files.size(seg));
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void messageSwitchesToBinaryAndConvertsExistingJson() throws Exception {
+        Path json = Path.of(JsonMessageStore.DEFAULT_FILE);
+        Path seg = Path.of(BinaryMessageStore.DEFAULT_SEGMENT);
+        Path idx = Path.of(BinaryMessageStore.DEFAULT_INDEX);
+        Message.clearAllMemoryData();
+        Files.deleteIfExists(json);
+        Files.deleteIfExists(seg);
+        Files.deleteIfExists(idx);
+        try {
+            Message first = new Message(1);
+            first.checkRecipientCell("+27838884567");
+            first.checkMessageLength("Stored as JSON");
+            first.createMessageHash();
+            first.sendMessage("store");
+
+            Message.setStorageFormat(MessageStore.Format.BINARY);
+            Message second = new Message(2);
+            second.checkRecipientCell("+27838884567");
+            second.checkMessageLength("Stored as binary");
+            second.createMessageHash();
+            second.sendMessage("store");
+
+            Message.loadStoredMessages();
+            assertEquals(List.of("Stored as JSON", "Stored as binary"), Message.getStoredMessagesArray());
+            assertTrue(Files.exists(seg));
+        } finally {
+            Message.setStorageFormat(MessageStore.Format.JSON);
+            Message.clearAllMemoryData();
+            Files.deleteIfExists(json);
+            Files.deleteIfExists(seg);
+            Files.deleteIfExists(idx);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.Locale;
+
+/**
+ * Latency of sendMessage("send") with the delivery pipeline in front of
+ * transports of different speeds, to show that a send costs the same
+ * however long the gateway takes. Each run sends a burst of messages,
+ * records how long each send took, then waits for the pipeline to drain
+ * and reports the delivery throughput.
+ *
+ * Usage: java DeliveryBenchmark [messages] [workers] [transport millis,...]
+ */
+public class DeliveryBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        String[] latencies = (args.length > 2 ? args[2] : "0,1,5").split(",");
+
+        System.out.printf(Locale.ROOT, "%-14s %10s %10s %10s %10s %14s%n",
+                "transport", "send p50", "send p99", "send max", "rejected", "delivered/s");
+        for (String latency : latencies) {
+            long millis = Long.parseLong(latency.trim());
+            MessageDelivery delivery = new MessageDelivery(new StubGateway(millis, false), workers, messages,
+                    MessageDelivery.Overflow.REJECT, 1, MessageDelivery.daemonThreads());
+            Message.clearAllMemoryData();
+            Message.setDelivery(delivery);
+
+            LatencyHistogram sends = new LatencyHistogram();
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                Message m = Message.fromStored(String.valueOf(1000000000L + i), "+2771" + (1_000_000 + i % 1000),
+                        "Message " + i, null);
+                long t = System.nanoTime();
+                m.sendMessage("send");
+                sends.record(System.nanoTime() - t);
+            }
+            delivery.awaitIdle(600_000);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf(Locale.ROOT, "%-14s %8.1fus %8.1fus %8.1fus %10d %14.0f%n",
+                    millis + " ms/call", sends.percentile(50) / 1e3, sends.percentile(99) / 1e3, sends.max() / 1e3,
+                    delivery.rejected(), delivery.delivered() / seconds);
+            Message.setDelivery(null);
+        }
+        Message.clearAllMemoryData();
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived append channel with group commit.
+ *
+ * Records are collected in one buffer and written to the file together when
+ * the batch is full (by record count or by bytes), when the flush interval
+ * has passed, or when flush()/close() is called. The durability policy
+ * decides whether the file is fsynced after each batch, after each record,
+ * or left to the operating system.
+ */
+public class GroupCommitWriter implements Closeable {
+
+    public enum Durability {
+        NONE,           // write batches, never force them to disk
+        FSYNC_BATCH,    // force the file once per written batch
+        FSYNC_RECORD    // write and force every record before append returns
+    }
+
+    public static final int DEFAULT_BUFFER_BYTES = 64 * 1024;
+    public static final int DEFAULT_BATCH_RECORDS = 256;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 50;
+
+    private final Path path;
+    private final Durability durability;
+    private final int maxBatchRecords;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final ScheduledExecutorService flusher;
+
+    private int pendingRecords = 0;
+    private boolean closed = false;
+
+    public GroupCommitWriter(Path path, Durability durability) throws IOException {
+        this(path, durability, DEFAULT_BUFFER_BYTES, DEFAULT_BATCH_RECORDS, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    public GroupCommitWriter(Path path, Durability durability, int bufferBytes,
+                             int maxBatchRecords, long flushIntervalMillis) throws IOException {
+        if (bufferBytes <= 0 || maxBatchRecords <= 0) {
+            throw new IllegalArgumentException("Buffer size and batch size must be positive.");
+        }
+        this.path = path;
+        this.durability = durability == null ? Durability.NONE : durability;
+        this.maxBatchRecords = maxBatchRecords;
+        this.buffer = ByteBuffer.allocate(bufferBytes);
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        if (flushIntervalMillis > 0 && this.durability != Durability.FSYNC_RECORD) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "group-commit-" + path.getFileName());
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::timedFlush,
+                    flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    public Path getPath() { return path; }
+    public Durability getDurability() { return durability; }
+
+    // Append one record; a line separator is added after it
+    public void appendLine(String record) throws IOException {
+        append((record + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Append one record exactly as given
+    public synchronized void append(byte[] record) throws IOException {
+        if (closed) throw new IOException("Writer for " + path + " is closed.");
+
+        if (record.length > buffer.remaining()) writeBuffer();
+
+        if (record.length > buffer.capacity()) {
+            // Too big to batch: write it straight through
+            writeFully(ByteBuffer.wrap(record));
+            if (durability != Durability.NONE) channel.force(false);
+            return;
+        }
+
+        buffer.put(record);
+        pendingRecords++;
+
+        if (durability == Durability.FSYNC_RECORD || pendingRecords >= maxBatchRecords) {
+            commit();
+        }
+    }
+
+    // Write out everything buffered so far and apply the durability policy
+    public synchronized void flush() throws IOException {
+        if (closed) return;
+        commit();
+    }
+
+    // Flush and force the file to disk whatever the durability policy
+    public synchronized void sync() throws IOException {
+        if (closed) return;
+        if (buffer.position() > 0) writeBuffer();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) flusher.shutdownNow();
+        synchronized (this) {
+            if (closed) return;
+            try {
+                commit();
+            } finally {
+                closed = true;
+                channel.close();
+            }
+        }
+    }
+
+    private void commit() throws IOException {
+        if (buffer.position() == 0) return;
+        writeBuffer();
+        if (durability != Durability.NONE) channel.force(false);
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+        pendingRecords = 0;
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) channel.write(src);
+    }
+
+    private void timedFlush() {
+        try {
+            flush();
+        } catch (IOException ignored) {
+            // The next append or explicit flush reports the failure
+        }
+    }
+}
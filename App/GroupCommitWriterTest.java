@@ -0,0 +1,62 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GroupCommitWriterTest {
+
+    @Test
+    public void recordsStayBufferedUntilBatchIsFullOrFlushed() throws Exception {
+        Path file = Files.createTempFile("group-commit", ".json");
+        try (GroupCommitWriter writer = new GroupCommitWriter(file, GroupCommitWriter.Durability.NONE,
+                1024, 3, 0)) {
+            writer.appendLine("one");
+            writer.appendLine("two");
+            assertEquals(0, Files.size(file), "Nothing should be written before the batch fills.");
+
+            writer.appendLine("three");
+            assertEquals(List.of("one", "two", "three"), Files.readAllLines(file));
+
+            writer.appendLine("four");
+            writer.flush();
+            assertEquals(4, Files.readAllLines(file).size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void closeWritesPendingAndOversizedRecords() throws Exception {
+        Path file = Files.createTempFile("group-commit", ".json");
+        try {
+            String big = "x".repeat(100);
+            GroupCommitWriter writer = new GroupCommitWriter(file, GroupCommitWriter.Durability.FSYNC_BATCH,
+                    64, 100, 0);
+            writer.appendLine("small");
+            writer.appendLine(big);
+            writer.close();
+
+            assertEquals(List.of("small", big), Files.readAllLines(file));
+            assertThrows(java.io.IOException.class, () -> writer.appendLine("late"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void timedFlushWritesWithoutExplicitFlush() throws Exception {
+        Path file = Files.createTempFile("group-commit", ".json");
+        try (GroupCommitWriter writer = new GroupCommitWriter(file, GroupCommitWriter.Durability.NONE,
+                1024, 100, 10)) {
+            writer.appendLine("later");
+            long deadline = System.currentTimeMillis() + 2000;
+            while (Files.size(file) == 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+            assertEquals(List.of("later"), Files.readAllLines(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Headless bulk ingestion: reads messages from a file or stdin instead of
+ * JOptionPane dialogs, validates them with checkRecipientCell and
+ * checkMessageLength, hashes them and applies send/store/disregard in
+ * batches. Bad lines are reported on stderr with their line number and the
+ * run carries on. Sends whose delivery the queue turned away are counted
+ * as rejected rather than sent. The run waits for queued deliveries to
+ * finish, then prints a throughput and latency summary.
+ *
+ * Usage: java HeadlessIngest [--format jsonl|csv] [--batch N] [file | -]
+ *
+ * JSONL lines: {"recipient":"+27...","messageText":"...","option":"send"}
+ * CSV lines:   recipient,messageText,option   (an optional header row is skipped)
+ */
+public class HeadlessIngest {
+
+    public enum Format { JSONL, CSV }
+
+    private static final byte[][] JSON_KEYS = JsonRecordCodec.keys("recipient", "messageText", "option");
+    private static final int DEFAULT_BATCH = 1000;
+    private static final long DELIVERY_DRAIN_MILLIS = 60_000;
+
+    // One parsed input line
+    private static final class Row {
+        final long line;
+        final String recipient;
+        final String text;
+        final String option;
+
+        Row(long line, String recipient, String text, String option) {
+            this.line = line;
+            this.recipient = recipient;
+            this.text = text;
+            this.option = option;
+        }
+    }
+
+    // Totals and per-message latencies for a run
+    public static final class Summary {
+        long lines, sent, stored, disregarded, rejected, failed;
+        long elapsedNanos;
+        private long[] latencies = new long[1024];
+        private int latencyCount = 0;
+
+        void recordLatency(long nanos) {
+            if (latencyCount == latencies.length) latencies = Arrays.copyOf(latencies, latencyCount * 2);
+            latencies[latencyCount++] = nanos;
+        }
+
+        public long getLines() { return lines; }
+        public long getSent() { return sent; }
+        public long getStored() { return stored; }
+        public long getDisregarded() { return disregarded; }
+        public long getRejected() { return rejected; }
+        public long getFailed() { return failed; }
+        public long getProcessed() { return sent + stored + disregarded + rejected; }
+
+        public double messagesPerSecond() {
+            return elapsedNanos == 0 ? 0 : getProcessed() / (elapsedNanos / 1e9);
+        }
+
+        // Latency at the given percentile (0-100) in nanoseconds
+        public long percentile(double p) {
+            if (latencyCount == 0) return 0;
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(p / 100.0 * latencyCount) - 1;
+            return sorted[Math.max(0, Math.min(latencyCount - 1, rank))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "Lines: %d | sent: %d, stored: %d, disregarded: %d, rejected: %d, failed: %d%n"
+                    + "Elapsed: %.3f s | throughput: %.0f messages/s%n"
+                    + "Latency (us): p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f",
+                    lines, sent, stored, disregarded, rejected, failed,
+                    elapsedNanos / 1e9, messagesPerSecond(),
+                    percentile(50) / 1e3, percentile(90) / 1e3, percentile(99) / 1e3,
+                    percentile(99.9) / 1e3, percentile(100) / 1e3);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Format format = null;
+        int batch = DEFAULT_BATCH;
+        String source = "-";
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--format" -> format = Format.valueOf(args[++i].toUpperCase());
+                case "--batch" -> batch = Integer.parseInt(args[++i]);
+                default -> source = args[i];
+            }
+        }
+        if (format == null) format = source.toLowerCase().endsWith(".csv") ? Format.CSV : Format.JSONL;
+
+        Reader in = source.equals("-")
+                ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                : Files.newBufferedReader(Paths.get(source), StandardCharsets.UTF_8);
+        Summary summary;
+        try (in) {
+            summary = run(in, format, batch, System.err);
+        } finally {
+            // Stop the delivery workers once they have finished, rather than losing them at exit
+            Message.setDelivery(null);
+        }
+        System.out.println(summary);
+    }
+
+    public static Summary run(Reader input, Format format, int batchSize, PrintStream errors) throws IOException {
+        if (batchSize <= 0) throw new IllegalArgumentException("Batch size must be positive.");
+
+        Summary summary = new Summary();
+        BufferedReader reader = input instanceof BufferedReader b ? b : new BufferedReader(input);
+        List<Row> batch = new ArrayList<>(batchSize);
+        long start = System.nanoTime();
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            summary.lines++;
+            if (line.isBlank()) continue;
+            if (format == Format.CSV && summary.lines == 1 && isCsvHeader(line)) continue;
+
+            Row row = format == Format.CSV ? parseCsv(summary.lines, line) : parseJson(summary.lines, line);
+            if (row == null) {
+                fail(summary, errors, summary.lines, "Could not parse " + format + " record.");
+                continue;
+            }
+            batch.add(row);
+            if (batch.size() == batchSize) {
+                apply(batch, summary, errors);
+                batch.clear();
+            }
+        }
+        apply(batch, summary, errors);
+        drainDeliveries(errors);
+
+        summary.elapsedNanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    // Wait for the sends of this run to reach the transport, so the summary covers them
+    private static void drainDeliveries(PrintStream errors) {
+        if (Message.pendingDeliveries() == 0) return;
+        try {
+            if (!Message.delivery().awaitIdle(DELIVERY_DRAIN_MILLIS) && errors != null) {
+                errors.println(Message.pendingDeliveries() + " deliveries still pending.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void apply(List<Row> batch, Summary summary, PrintStream errors) {
+        if (batch.isEmpty()) return;
+
+        for (Row row : batch) {
+            long t0 = System.nanoTime();
+            Message m = new Message((int) (summary.getProcessed() + 1));
+
+            String cellCheck = m.checkRecipientCell(row.recipient);
+            if (cellCheck.startsWith("Failure")) {
+                fail(summary, errors, row.line, cellCheck);
+                continue;
+            }
+            String lengthCheck = m.checkMessageLength(row.text);
+            if (lengthCheck.startsWith("Failure")) {
+                fail(summary, errors, row.line, lengthCheck);
+                continue;
+            }
+            m.createMessageHash();
+
+            String option = row.option == null ? "send" : row.option.trim().toLowerCase();
+            String result = m.sendMessage(option);
+            if (result.equals("Invalid option.")) {
+                fail(summary, errors, row.line, "Invalid option \"" + row.option + "\".");
+                continue;
+            }
+            if (result.equals(Message.DELIVERY_REJECTED)) {
+                summary.rejected++;
+                if (errors != null) errors.println("line " + row.line + ": " + result);
+                summary.recordLatency(System.nanoTime() - t0);
+                continue;
+            }
+            switch (option) {
+                case "send" -> summary.sent++;
+                case "store" -> summary.stored++;
+                default -> summary.disregarded++;
+            }
+            summary.recordLatency(System.nanoTime() - t0);
+        }
+        // Stored messages of the batch reach the file together
+        Message.flushStoredMessages();
+    }
+
+    private static void fail(Summary summary, PrintStream errors, long line, String reason) {
+        summary.failed++;
+        if (errors != null) errors.println("line " + line + ": " + reason);
+    }
+
+    private static Row parseJson(long line, String json) {
+        String[] fields = new String[JSON_KEYS.length];
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        if (!JsonRecordCodec.decodeFields(bytes, 0, bytes.length, JSON_KEYS, fields)) return null;
+        return new Row(line, fields[0], fields[1], fields[2]);
+    }
+
+    private static boolean isCsvHeader(String line) {
+        List<String> fields = splitCsv(line);
+        return fields != null && !fields.isEmpty() && fields.get(0).trim().equalsIgnoreCase("recipient");
+    }
+
+    private static Row parseCsv(long line, String csv) {
+        List<String> fields = splitCsv(csv);
+        if (fields == null || fields.size() < 2 || fields.size() > 3) return null;
+        return new Row(line, fields.get(0).trim(), fields.get(1), fields.size() == 3 ? fields.get(2) : null);
+    }
+
+    // RFC 4180 style: commas split fields, double quotes wrap fields, "" is a literal quote
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) return null;
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,113 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HeadlessIngestTest {
+
+    @BeforeEach
+    public void setup() {
+        Message.clearAllMemoryData();
+        try {
+            Files.deleteIfExists(Paths.get("stored_messages.json"));
+        } catch (Exception ignored) {}
+    }
+
+    @AfterEach
+    public void cleanup() {
+        Message.setDelivery(null);
+        Message.clearAllMemoryData();
+    }
+
+    @Test
+    public void jsonlLinesAreAppliedAndBadLinesReported() throws Exception {
+        String input = String.join("\n",
+                "{\"recipient\":\"+27831234567\",\"messageText\":\"Hi \\\"there\\\"\",\"option\":\"send\"}",
+                "{\"recipient\":\"0831234567\",\"messageText\":\"No code\",\"option\":\"send\"}",
+                "not json",
+                "",
+                "{\"recipient\":\"+27831234567\",\"messageText\":\"Keep me\",\"option\":\"store\"}",
+                "{\"recipient\":\"+27831234567\",\"messageText\":\"Drop me\",\"option\":\"disregard\"}",
+                "{\"recipient\":\"+27831234567\",\"messageText\":\"" + "x".repeat(260) + "\",\"option\":\"send\"}",
+                "{\"recipient\":\"+27831234567\",\"messageText\":\"Odd\",\"option\":\"shout\"}");
+
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        HeadlessIngest.Summary summary;
+        try (PrintStream err = new PrintStream(errBytes, true, StandardCharsets.UTF_8)) {
+            summary = HeadlessIngest.run(new StringReader(input), HeadlessIngest.Format.JSONL, 2, err);
+        }
+
+        assertEquals(8, summary.getLines());
+        assertEquals(1, summary.getSent());
+        assertEquals(1, summary.getStored());
+        assertEquals(1, summary.getDisregarded());
+        assertEquals(4, summary.getFailed());
+        assertEquals(List.of("Hi \"there\""), Message.getSentMessageTexts());
+        assertEquals(List.of("Drop me"), Message.getDisregardedMessages());
+        assertEquals(1, Message.returnTotalMessages());
+
+        String errors = errBytes.toString(StandardCharsets.UTF_8);
+        assertTrue(errors.contains("line 2: Failure: Cell phone number"));
+        assertTrue(errors.contains("line 3: Could not parse JSONL record."));
+        assertTrue(errors.contains("line 7: Failure: Message exceeds 250 characters by 10"));
+        assertTrue(errors.contains("line 8: Invalid option \"shout\"."));
+    }
+
+    @Test
+    public void csvWithHeaderAndQuotedFields() throws Exception {
+        String input = "recipient,messageText,option\n"
+                + "+27831234567,\"Hello, \"\"friend\"\"\",send\n"
+                + "+27831234568,Plain text\n"
+                + "+27831234569,\"unterminated,send\n";
+
+        HeadlessIngest.Summary summary =
+                HeadlessIngest.run(new StringReader(input), HeadlessIngest.Format.CSV, 100, null);
+
+        assertEquals(2, summary.getSent());
+        assertEquals(1, summary.getFailed());
+        assertEquals(List.of("Hello, \"friend\"", "Plain text"), Message.getSentMessageTexts());
+        assertTrue(summary.percentile(50) > 0);
+        assertTrue(summary.percentile(99) >= summary.percentile(50));
+        assertTrue(summary.toString().contains("throughput"));
+    }
+
+    @Test
+    public void rejectedDeliveriesAreNotCountedAsSentAndTheQueueIsDrained() throws Exception {
+        StubGateway gateway = new StubGateway(50, false);
+        MessageDelivery delivery = new MessageDelivery(gateway, 1, 1, MessageDelivery.Overflow.REJECT, 1,
+                MessageDelivery.daemonThreads());
+        Message.setDelivery(delivery);
+
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            input.append("{\"recipient\":\"+27831234567\",\"messageText\":\"Message ").append(i)
+                    .append("\",\"option\":\"send\"}\n");
+        }
+        HeadlessIngest.Summary summary =
+                HeadlessIngest.run(new StringReader(input.toString()), HeadlessIngest.Format.JSONL, 100, null);
+
+        assertTrue(summary.getRejected() > 0);
+        assertEquals(10, summary.getSent() + summary.getRejected());
+        assertEquals(delivery.rejected(), summary.getRejected());
+        // run() returns only once every accepted send has been delivered
+        assertEquals(0, Message.pendingDeliveries());
+        assertEquals(summary.getSent(), gateway.count());
+        assertTrue(summary.toString().contains("rejected: " + summary.getRejected()));
+    }
+
+    @Test
+    public void splitCsvHandlesEmptyAndQuotedFields() {
+        assertEquals(List.of("a", "", "c"), HeadlessIngest.splitCsv("a,,c"));
+        assertEquals(List.of("a,b", "c"), HeadlessIngest.splitCsv("\"a,b\",c"));
+        assertNull(HeadlessIngest.splitCsv("\"open"));
+    }
+}
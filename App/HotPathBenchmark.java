@@ -0,0 +1,326 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Benchmark suite for the message and account hot paths, run against a
+ * store pre-filled with a given number of messages.
+ *
+ * Each benchmark is calibrated to a chunk of operations that fills one
+ * iteration, warmed up, then measured for a number of iterations. Per-chunk
+ * setup (building the messages a send or delete consumes) is done outside
+ * the timed region. Results are average time per operation and are written
+ * as JSON, one result object per line, so two runs can be compared with
+ * --baseline.
+ *
+ * Usage: java -Xmx4g HotPathBenchmark [--sizes 1000,100000,10000000] [--warmup 3]
+ *            [--iterations 5] [--iteration-millis 500] [--only name,...]
+ *            [--out results.json] [--baseline previous.json]
+ */
+public class HotPathBenchmark {
+
+    // One benchmark: prepare is untimed, run performs ops operations and returns a sink value
+    interface Bench {
+        default void prepare(int ops) {}
+        long run(int ops);
+    }
+
+    private static final int RECIPIENTS = 1000;
+    private static final String USER = "kyl_1";
+    private static final String PASSWORD = "Ch&&sec@ke99!";
+
+    private static int nextNumber = 0;
+    private static long sink = 0;
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = { 1_000, 10_000, 100_000 };
+        int warmup = 3, iterations = 5;
+        long iterationMillis = 500;
+        List<String> only = null;
+        Path out = null, baseline = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes" -> sizes = Arrays.stream(args[++i].split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+                case "--warmup" -> warmup = Integer.parseInt(args[++i]);
+                case "--iterations" -> iterations = Integer.parseInt(args[++i]);
+                case "--iteration-millis" -> iterationMillis = Long.parseLong(args[++i]);
+                case "--only" -> only = Arrays.asList(args[++i].split(","));
+                case "--out" -> out = Paths.get(args[++i]);
+                case "--baseline" -> baseline = Paths.get(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        // Keep the store in a scratch directory so the real stored_messages.json is never touched
+        Path dir = Files.createTempDirectory("hot-path-bench");
+        System.setProperty("quickchat.store.dir", dir.toString());
+
+        List<String> results = new ArrayList<>();
+        for (int size : sizes) {
+            fill(dir, size);
+            for (Map.Entry<String, Bench> bench : benchmarks(size).entrySet()) {
+                if (only != null && !only.contains(bench.getKey())) continue;
+                double[] scores = measure(bench.getValue(), warmup, iterations, iterationMillis);
+                String json = toJson(bench.getKey(), size, scores);
+                results.add(json);
+                System.err.printf("%-22s size %,11d  %,14.1f ns/op  +- %,.1f%n",
+                        bench.getKey(), size, mean(scores), stdev(scores));
+            }
+        }
+        Message.clearAllMemoryData();
+        Message.setStorageFormat(Message.getStorageFormat()); // closes the store so its files can go
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) Files.deleteIfExists(p);
+        }
+        Files.deleteIfExists(dir);
+
+        String report = "[\n" + String.join(",\n", results) + "\n]\n";
+        if (out != null) Files.writeString(out, report, StandardCharsets.UTF_8);
+        else System.out.print(report);
+
+        if (baseline != null) compare(baseline, results, System.err);
+        System.err.println("(checksum " + sink + ")");
+    }
+
+    // Fresh store in dir with size sent messages and size / 10 stored messages
+    private static void fill(Path dir, int size) throws IOException {
+        Message.clearAllMemoryData();
+        Files.deleteIfExists(dir.resolve(JsonMessageStore.DEFAULT_FILE));
+        nextNumber = 0;
+        for (int i = 0; i < size; i++) newMessage(i).sendMessage("send");
+        for (int i = 0; i < size / 10; i++) newMessage(i).sendMessage("store");
+        Message.flushStoredMessages();
+    }
+
+    private static Message newMessage(int i) {
+        Message m = new Message(++nextNumber);
+        m.checkRecipientCell("+2771" + (1_000_000 + i % RECIPIENTS));
+        m.checkMessageLength("Benchmark message " + i + " for the hot path suite.");
+        m.createMessageHash();
+        return m;
+    }
+
+    private static Message[] newMessages(int ops) {
+        Message[] batch = new Message[ops];
+        for (int i = 0; i < ops; i++) batch[i] = newMessage(i);
+        return batch;
+    }
+
+    private static Map<String, Bench> benchmarks(int size) {
+        SplittableRandom random = new SplittableRandom(size);
+        List<String> ids = Message.getMessageIDs();
+        Login login = new Login(USER, PASSWORD);
+        Map<String, Bench> benches = new LinkedHashMap<>();
+
+        // Read-only benchmarks first; the write benchmarks after them only grow the
+        // store, and sendMessage.send removes each chunk again before the next one
+        benches.put("createMessageHash", new Bench() {
+            Message[] batch;
+            public void prepare(int ops) { batch = newMessages(ops); }
+            public long run(int ops) {
+                long s = 0;
+                for (Message m : batch) s += m.createMessageHash().length();
+                return s;
+            }
+        });
+        benches.put("searchByMessageID", ops -> {
+            long s = 0;
+            for (int i = 0; i < ops; i++) s += Message.searchByMessageID(ids.get(random.nextInt(ids.size()))).length();
+            return s;
+        });
+        benches.put("searchByRecipient", ops -> {
+            long s = 0;
+            for (int i = 0; i < ops; i++) s += Message.searchByRecipient("+2771" + (1_000_000 + random.nextInt(RECIPIENTS))).size();
+            return s;
+        });
+        benches.put("getLongestMessage", ops -> {
+            long s = 0;
+            for (int i = 0; i < ops; i++) s += Message.getLongestMessage().length();
+            return s;
+        });
+        // What a monitoring poll does: take the lists and look at their size and newest entry
+        benches.put("getSentMessageTexts", ops -> {
+            long s = 0;
+            for (int i = 0; i < ops; i++) {
+                List<String> texts = Message.getSentMessageTexts();
+                List<String> hashes = Message.getMessageHashes();
+                s += texts.size() + hashes.size() + texts.get(texts.size() - 1).length();
+            }
+            return s;
+        });
+        benches.put("displayFullReport", ops -> {
+            long s = 0;
+            for (int i = 0; i < ops; i++) s += Message.displayFullReport().length();
+            return s;
+        });
+        benches.put("loadStoredMessages", ops -> {
+            for (int i = 0; i < ops; i++) Message.loadStoredMessages();
+            return Message.getStoredMessages().size();
+        });
+        benches.put("Login.authenticate", new Bench() {
+            String[] passwords;
+            // Fresh copies so equals() compares characters instead of hitting the identity check
+            public void prepare(int ops) {
+                passwords = new String[ops];
+                for (int i = 0; i < ops; i++) passwords[i] = new String(PASSWORD.toCharArray());
+            }
+            public long run(int ops) {
+                long s = 0;
+                for (String password : passwords) if (login.authenticate(USER, password)) s++;
+                return s;
+            }
+        });
+        benches.put("deleteByHash", new Bench() {
+            String[] hashes;
+            public void prepare(int ops) {
+                hashes = new String[ops];
+                Message[] batch = newMessages(ops);
+                for (int i = 0; i < ops; i++) {
+                    batch[i].sendMessage("send");
+                    hashes[i] = batch[i].getMessageHash();
+                }
+            }
+            public long run(int ops) {
+                long s = 0;
+                for (String hash : hashes) s += Message.deleteByHash(hash).length();
+                return s;
+            }
+        });
+        benches.put("sendMessage.send", new Bench() {
+            Message[] batch;
+            public void prepare(int ops) {
+                if (batch != null) for (Message m : batch) Message.deleteByHash(m.getMessageHash());
+                batch = newMessages(ops);
+            }
+            public long run(int ops) {
+                long s = 0;
+                for (Message m : batch) s += m.sendMessage("send").length();
+                return s;
+            }
+        });
+        for (String option : new String[] { "disregard", "store" }) {
+            benches.put("sendMessage." + option, new Bench() {
+                Message[] batch;
+                public void prepare(int ops) { batch = newMessages(ops); }
+                public long run(int ops) {
+                    long s = 0;
+                    for (Message m : batch) s += m.sendMessage(option).length();
+                    return s;
+                }
+            });
+        }
+        benches.put("storeMessageJSON", new Bench() {
+            Message[] batch;
+            public void prepare(int ops) { batch = newMessages(ops); }
+            public long run(int ops) {
+                for (Message m : batch) m.storeMessageJSON();
+                Message.flushStoredMessages();
+                return ops;
+            }
+        });
+        return benches;
+    }
+
+    // Nanoseconds per operation for each measured iteration
+    private static double[] measure(Bench bench, int warmup, int iterations, long iterationMillis) {
+        long target = iterationMillis * 1_000_000L;
+
+        // Grow the chunk until one chunk fills a quarter of an iteration
+        int chunk = 1;
+        while (true) {
+            long elapsed = timeChunk(bench, chunk);
+            if (elapsed >= target / 4 || chunk >= 1 << 24) break;
+            chunk *= elapsed < target / 64 ? 8 : 2;
+        }
+
+        double[] scores = new double[iterations];
+        for (int i = -warmup; i < iterations; i++) {
+            long elapsed = 0, ops = 0;
+            while (elapsed < target) {
+                elapsed += timeChunk(bench, chunk);
+                ops += chunk;
+            }
+            if (i >= 0) scores[i] = (double) elapsed / ops;
+        }
+        return scores;
+    }
+
+    private static long timeChunk(Bench bench, int ops) {
+        bench.prepare(ops);
+        long start = System.nanoTime();
+        sink += bench.run(ops);
+        return System.nanoTime() - start;
+    }
+
+    private static String toJson(String name, int size, double[] scores) {
+        StringBuilder sb = new StringBuilder("  {");
+        JsonRecordCodec.appendField(sb, "benchmark", name).append(',');
+        sb.append("\"size\":").append(size).append(',');
+        sb.append("\"mode\":\"avgt\",\"unit\":\"ns/op\",");
+        sb.append("\"score\":").append(String.format(Locale.ROOT, "%.3f", mean(scores))).append(',');
+        sb.append("\"stdev\":").append(String.format(Locale.ROOT, "%.3f", stdev(scores))).append(',');
+        sb.append("\"min\":").append(String.format(Locale.ROOT, "%.3f", Arrays.stream(scores).min().orElse(0))).append(',');
+        sb.append("\"max\":").append(String.format(Locale.ROOT, "%.3f", Arrays.stream(scores).max().orElse(0))).append(',');
+        sb.append("\"iterations\":").append(scores.length);
+        return sb.append('}').toString();
+    }
+
+    // Print score ratios against a previous run's JSON (one result per line, as written above)
+    private static void compare(Path baseline, List<String> current, PrintStream out) throws IOException {
+        Map<String, Double> previous = new HashMap<>();
+        for (String line : Files.readAllLines(baseline, StandardCharsets.UTF_8)) {
+            String[] result = parseResult(line);
+            if (result != null) previous.put(result[0] + "@" + result[1], Double.parseDouble(result[2]));
+        }
+
+        out.println("Compared with " + baseline + ":");
+        for (String line : current) {
+            String[] result = parseResult(line);
+            if (result == null) continue;
+            Double before = previous.get(result[0] + "@" + result[1]);
+            if (before == null) continue;
+            double now = Double.parseDouble(result[2]);
+            out.printf("%-22s size %,11d  %,14.1f -> %,14.1f ns/op  (%.2fx)%n",
+                    result[0], Integer.parseInt(result[1]), before, now, before / now);
+        }
+    }
+
+    private static final byte[][] RESULT_KEYS = JsonRecordCodec.keys("benchmark", "size", "score");
+
+    private static String[] parseResult(String line) {
+        String trimmed = line.trim();
+        if (trimmed.endsWith(",")) trimmed = trimmed.substring(0, trimmed.length() - 1);
+        if (!trimmed.startsWith("{")) return null;
+
+        byte[] bytes = trimmed.getBytes(StandardCharsets.UTF_8);
+        String[] fields = new String[RESULT_KEYS.length];
+        if (!JsonRecordCodec.decodeFields(bytes, 0, bytes.length, RESULT_KEYS, fields)) return null;
+        for (String field : fields) if (field == null) return null;
+        return fields;
+    }
+
+    private static double mean(double[] xs) {
+        double sum = 0;
+        for (double x : xs) sum += x;
+        return xs.length == 0 ? 0 : sum / xs.length;
+    }
+
+    private static double stdev(double[] xs) {
+        if (xs.length < 2) return 0;
+        double m = mean(xs), sum = 0;
+        for (double x : xs) sum += (x - m) * (x - m);
+        return Math.sqrt(sum / (xs.length - 1));
+    }
+}
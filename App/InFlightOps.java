@@ -0,0 +1,78 @@
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Tracks which message operation each thread is in the middle of, so a
+ * snapshot can wait for exactly the operations that fall before its cut and
+ * let everything after it run on.
+ *
+ * Every send, delete, disregard and store takes a stamp from one clock in
+ * Message. Before taking the stamp the thread marks its slot PENDING, then
+ * publishes the stamp, and clears the slot when the operation is finished.
+ * A snapshot reads the clock and then waits until no slot is pending or
+ * holds a stamp at or below the cut; operations stamped later are never
+ * waited for.
+ */
+final class InFlightOps {
+
+    private static final long IDLE = 0;
+    private static final long PENDING = -1;
+
+    // Spins before a waiting snapshot starts yielding the CPU
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    // One per thread that has ever touched the message state
+    static final class Slot {
+        private final WeakReference<Thread> owner;
+        private volatile long stamp = IDLE;
+
+        private Slot(Thread owner) {
+            this.owner = new WeakReference<>(owner);
+        }
+
+        // Call before taking the stamp, so the cut cannot slip past it
+        void enter() { stamp = PENDING; }
+
+        void publish(long stamp) { this.stamp = stamp; }
+
+        void exit() { stamp = IDLE; }
+    }
+
+    private static final ConcurrentLinkedQueue<Slot> slots = new ConcurrentLinkedQueue<>();
+    private static final ThreadLocal<Slot> SLOT = ThreadLocal.withInitial(() -> {
+        Slot slot = new Slot(Thread.currentThread());
+        slots.add(slot);
+        return slot;
+    });
+
+    // True while a snapshot is between reading its cut and reading the deleted messages
+    private static volatile boolean capturing;
+
+    private InFlightOps() {}
+
+    static Slot slot() { return SLOT.get(); }
+
+    static boolean capturing() { return capturing; }
+
+    static void beginCapture() { capturing = true; }
+
+    static void endCapture() { capturing = false; }
+
+    // Wait until every operation stamped at or below cut has finished
+    static void awaitCut(long cut) {
+        for (Slot slot : slots) {
+            Thread owner = slot.owner.get();
+            if ((owner == null || !owner.isAlive()) && slot.stamp == IDLE) {
+                slots.remove(slot);
+                continue;
+            }
+            int spins = 0;
+            while (true) {
+                long stamp = slot.stamp;
+                if (stamp == IDLE || (stamp != PENDING && stamp > cut)) break;
+                if (++spins < SPINS_BEFORE_YIELD) Thread.onSpinWait();
+                else Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Records per second for decoding stored_messages.json lines: the old
+ * indexOf-based extractJsonValue (messageText only, and once per field)
+ * against JsonRecordCodec decoding every field into a Message.
+ *
+ * Usage: java JsonCodecBenchmark [records] [rounds]
+ */
+public class JsonCodecBenchmark {
+
+    public static void main(String[] args) {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        byte[][] bytes = new byte[records][];
+        for (int i = 0; i < records; i++) {
+            Message m = Message.fromStored(String.valueOf(1000000000L + i), "+27609151472",
+                    "Where are you? You are late! I have asked you to be on time. #" + i, "10:1:W" + (i % 10));
+            bytes[i] = JsonRecordCodec.encode(m).getBytes(StandardCharsets.UTF_8);
+        }
+
+        long sink = 0;
+        for (int round = 1; round <= rounds; round++) {
+            long start = System.nanoTime();
+            for (byte[] line : bytes) {
+                // The old loader read each line as a String before parsing it
+                String json = new String(line, StandardCharsets.UTF_8).trim();
+                String text = legacyExtractJsonValue(json, "messageText");
+                if (text != null) sink += text.length();
+            }
+            long legacy = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (byte[] line : bytes) {
+                // What the old parser would cost to recover every field
+                String json = new String(line, StandardCharsets.UTF_8).trim();
+                for (String key : JsonRecordCodec.MESSAGE_FIELDS) {
+                    String value = legacyExtractJsonValue(json, key);
+                    if (value != null) sink += value.length();
+                }
+            }
+            long legacyAll = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (byte[] line : bytes) {
+                Message m = JsonRecordCodec.decode(line, 0, line.length);
+                if (m != null) sink += m.getMessageText().length();
+            }
+            long codec = System.nanoTime() - start;
+
+            System.out.printf("round %d: extractJsonValue text only %,12.0f | all fields %,12.0f"
+                            + " | JsonRecordCodec all fields %,12.0f records/s%n",
+                    round, records / (legacy / 1e9), records / (legacyAll / 1e9), records / (codec / 1e9));
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    // Copy of the parser JsonRecordCodec replaced, kept here as the baseline
+    private static String legacyExtractJsonValue(String json, String key) {
+        String pattern = "\"" + key + "\":\"";
+        int idx = json.indexOf(pattern);
+        if (idx < 0) return null;
+
+        int start = idx + pattern.length();
+        int end = json.indexOf("\"", start);
+        if (end < 0) return null;
+
+        return json.substring(start, end);
+    }
+}
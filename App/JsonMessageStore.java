@@ -0,0 +1,250 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The original stored_messages.json format: one JSON object per line,
+ * appended through a GroupCommitWriter and read back with the chunked
+ * StoredMessageLoader.
+ *
+ * compactAsync rewrites the file in the background without broken records
+ * (lines that do not decode; a record with empty or no text is kept), earlier
+ * records superseded by a later one with the same message ID, and exact
+ * repeats of a whole record (ID, recipient, text and hash); legacy "null"
+ * strings become real nulls first, so repeated legacy lines match. Distinct
+ * messages with the same text to the same number are all kept.
+ * Appends carry on into the live file while the snapshot is rewritten, the
+ * bytes appended meanwhile are copied over after it, and the new file is
+ * renamed into place. Only that last tail copy and the rename hold the
+ * store's lock.
+ */
+public class JsonMessageStore implements MessageStore {
+
+    public static final String DEFAULT_FILE = "stored_messages.json";
+
+    // Tail copies outside the lock until what is left is this small
+    private static final long TAIL_CATCH_UP_BYTES = 64 * 1024;
+    private static final int MAX_CATCH_UP_ROUNDS = 8;
+
+    // One background thread compacts every store
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "quickchat-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // What one compaction did
+    public static final class Compaction {
+        long records, kept, broken, superseded, duplicates, tailBytes, bytesBefore, bytesAfter;
+
+        public long getRecords() { return records; }
+        public long getKept() { return kept; }
+        public long getBroken() { return broken; }
+        public long getSuperseded() { return superseded; }
+        public long getDuplicates() { return duplicates; }
+        public long getTailBytes() { return tailBytes; }
+        public long getBytesBefore() { return bytesBefore; }
+        public long getBytesAfter() { return bytesAfter; }
+
+        @Override
+        public String toString() {
+            return String.format("Compacted %d records to %d (%d broken, %d superseded, %d duplicates); "
+                            + "%d -> %d bytes, %d tail bytes copied",
+                    records, kept, broken, superseded, duplicates, bytesBefore, bytesAfter, tailBytes);
+        }
+    }
+
+    private final Path file;
+    private final GroupCommitWriter.Durability durability;
+    private final int batchRecords;
+    private final long flushIntervalMillis;
+
+    // Opened on the first append so that loading never creates the file
+    private GroupCommitWriter writer;
+
+    // The compaction in progress, if any
+    private CompletableFuture<Compaction> compaction;
+
+    public JsonMessageStore(Path file, GroupCommitWriter.Durability durability,
+                            int batchRecords, long flushIntervalMillis) {
+        this.file = file;
+        this.durability = durability;
+        this.batchRecords = batchRecords;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public Path getFile() { return file; }
+
+    @Override
+    public synchronized void append(Message m) throws IOException {
+        if (writer == null) {
+            writer = new GroupCommitWriter(file, durability,
+                    GroupCommitWriter.DEFAULT_BUFFER_BYTES, batchRecords, flushIntervalMillis);
+        }
+        writer.appendLine(JsonRecordCodec.encode(m));
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (writer != null) writer.flush();
+    }
+
+    @Override
+    public List<Message> loadAll() throws IOException {
+        flush();
+        if (!Files.exists(file)) return new ArrayList<>();
+        return StoredMessageLoader.load(file, JsonRecordCodec::decode);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer == null) return;
+        try {
+            writer.close();
+        } finally {
+            writer = null;
+        }
+    }
+
+    // Start a background compaction, or return the one already running
+    public synchronized CompletableFuture<Compaction> compactAsync() {
+        if (compaction == null || compaction.isDone()) {
+            CompletableFuture<Compaction> next = new CompletableFuture<>();
+            compaction = next;
+            COMPACTOR.execute(() -> {
+                try {
+                    next.complete(compact());
+                } catch (Throwable e) {
+                    next.completeExceptionally(e);
+                }
+            });
+        }
+        return compaction;
+    }
+
+    // Compact on the calling thread
+    public Compaction compact() throws IOException {
+        Compaction result = new Compaction();
+        Path tmp = file.resolveSibling(file.getFileName() + ".compact.tmp");
+
+        // 1. Snapshot: everything written so far ends on a record boundary
+        long end;
+        synchronized (this) {
+            flush();
+            if (!Files.exists(file)) return result;
+            end = Files.size(file);
+        }
+        result.bytesBefore = end;
+
+        // 2. Rewrite the snapshot without holding the lock
+        List<Message> kept = dedupe(readSnapshot(end, result), result);
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Message m : kept) {
+                out.write(JsonRecordCodec.encode(m));
+                out.write(System.lineSeparator());
+            }
+        }
+        result.kept = kept.size();
+
+        // 3. Copy what was appended meanwhile, then the last bit and the swap under the lock
+        try (FileChannel target = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (int round = 0; round < MAX_CATCH_UP_ROUNDS; round++) {
+                long size = Files.size(file);
+                if (size - end <= TAIL_CATCH_UP_BYTES) break;
+                end = copyTail(end, size, target, result);
+            }
+
+            synchronized (this) {
+                flush();
+                copyTail(end, Files.size(file), target, result);
+                target.force(true);
+                close();
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                result.bytesAfter = Files.size(file);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return result;
+    }
+
+    private List<Message> readSnapshot(long end, Compaction result) throws IOException {
+        List<Message> records = new ArrayList<>();
+        StoredMessageLoader.load(file, (buf, from, to) -> {
+            Message m = JsonRecordCodec.decode(buf, from, to);
+            return m == null ? BROKEN : m;
+        }, m -> {
+            result.records++;
+            if (m == BROKEN) {
+                result.broken++;
+            } else {
+                records.add(Message.fromStored(repair(m.getMessageID()), repair(m.getRecipient()),
+                        m.getMessageText(), repair(m.getMessageHash()), m.getTimestamp()));
+            }
+        }, StoredMessageLoader.DEFAULT_CHUNK_BYTES, ForkJoinPool.commonPool(), end);
+        return records;
+    }
+
+    // Stands in for lines that do not decode, so they can be counted
+    private static final Message BROKEN = Message.fromStored(null, null, null, null);
+
+    // Old versions wrote missing fields as the string "null"
+    private static String repair(String value) {
+        return value == null || value.equals("null") || value.isEmpty() ? null : value;
+    }
+
+    // Keep the last record for each message ID and for each identical record, in file order
+    private static List<Message> dedupe(List<Message> records, Compaction result) {
+        boolean[] dropped = new boolean[records.size()];
+        Map<String, Integer> byId = new HashMap<>();
+        Map<List<String>, Integer> byContent = new HashMap<>();
+
+        for (int i = 0; i < records.size(); i++) {
+            Message m = records.get(i);
+            if (m.getMessageID() != null) {
+                Integer earlier = byId.put(m.getMessageID(), i);
+                if (earlier != null && !dropped[earlier]) {
+                    dropped[earlier] = true;
+                    result.superseded++;
+                }
+            }
+            Integer same = byContent.put(Arrays.asList(m.getMessageID(), m.getRecipient(),
+                    m.getMessageText(), m.getMessageHash()), i);
+            if (same != null && !dropped[same]) {
+                dropped[same] = true;
+                result.duplicates++;
+            }
+        }
+
+        List<Message> kept = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            if (!dropped[i]) kept.add(records.get(i));
+        }
+        return kept;
+    }
+
+    // Append file[from, to) to target; returns to
+    private long copyTail(long from, long to, FileChannel target, Compaction result) throws IOException {
+        if (to <= from) return from;
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = from;
+            while (position < to) position += source.transferTo(position, to - position, target);
+        }
+        result.tailBytes += to - from;
+        return to;
+    }
+}
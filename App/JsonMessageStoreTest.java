@@ -0,0 +1,124 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonMessageStoreTest {
+
+    private static JsonMessageStore open(Path file) {
+        return new JsonMessageStore(file, GroupCommitWriter.Durability.NONE, 16, 0);
+    }
+
+    private static void deleteAll(Path dir) throws Exception {
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) Files.deleteIfExists(p);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void compactionDropsBrokenSupersededAndDuplicateRecords() throws Exception {
+        Path dir = Files.createTempDirectory("json-store");
+        Path file = dir.resolve("stored.json");
+        Files.writeString(file, String.join("\n",
+                "{\"messageID\":\"1137109961\",\"recipient\":\"null\",\"messageText\":\"Hi Mike, can you join us for dinner tonight\",\"messageHash\":\"null\"}",
+                "{\"messageID\":\"4369852702\",\"recipient\":\"null\",\"messageText\":\"Hi Mike, can you join us for dinner tonight\",\"messageHash\":\"null\"}",
+                "{\"messageID\":\"9611845214\",\"recipient\":\"+27609151472\",\"messageText\":\"You good\",\"messageHash\":\"96:1:YD\"}",
+                "{\"messageID\":\"7710303530\",\"recipient\":\"+27609151472\",\"messageText\":\"Who?\",\"messageHash\":\"77:2:W?\"}",
+                "{\"messageID\":\"0000000001\",\"recipient\":\"+27609151472\",\"messageText\":\"\",\"messageHash\":\"00:3:??\"}",
+                "{\"messageID\":\"\",\"recipient\":\"null\",\"messageText\":\"Ok\",\"messageHash\":\"null\"}",
+                "{\"messageID\":\"\",\"recipient\":\"\",\"messageText\":\"Ok\",\"messageHash\":\"\"}",
+                "not a record",
+                "{\"messageID\":\"9611845214\",\"recipient\":\"+27609151472\",\"messageText\":\"You good?\",\"messageHash\":\"96:1:Y?\"}",
+                "") , StandardCharsets.UTF_8);
+
+        try (JsonMessageStore store = open(file)) {
+            JsonMessageStore.Compaction result = store.compactAsync().get(30, TimeUnit.SECONDS);
+            assertEquals(9, result.getRecords());
+            assertEquals(1, result.getBroken());
+            assertEquals(1, result.getSuperseded());
+            assertEquals(1, result.getDuplicates());
+            assertEquals(6, result.getKept());
+            assertTrue(result.getBytesAfter() < result.getBytesBefore());
+
+            List<Message> loaded = store.loadAll();
+            assertEquals(6, loaded.size());
+            // Two messages with the same text are still two messages
+            assertEquals("1137109961", loaded.get(0).getMessageID());
+            assertEquals("4369852702", loaded.get(1).getMessageID());
+            assertNull(loaded.get(1).getRecipient());
+            assertNull(loaded.get(1).getMessageHash());
+            assertEquals("Who?", loaded.get(2).getMessageText());
+            // An empty message is valid data, not a broken record
+            assertEquals("0000000001", loaded.get(3).getMessageID());
+            assertEquals("", loaded.get(3).getMessageText());
+            // The repeated legacy line is kept once
+            assertNull(loaded.get(4).getMessageID());
+            assertEquals("Ok", loaded.get(4).getMessageText());
+            assertEquals("You good?", loaded.get(5).getMessageText());
+            assertFalse(Files.exists(dir.resolve("stored.json.compact.tmp")));
+
+            // Appends after a compaction go to the new file
+            store.append(Message.fromStored("5555555555", "+27830000000", "After", "55:9:AR"));
+            assertEquals(7, store.loadAll().size());
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void appendsDuringCompactionAreKept() throws Exception {
+        Path dir = Files.createTempDirectory("json-store");
+        Path file = dir.resolve("stored.json");
+        try (JsonMessageStore store = open(file)) {
+            // Plenty of repeats so the rewrite takes a while: exact copies of 1000 records, and
+            // distinct messages that share their text and recipient
+            for (int i = 0; i < 200_000; i++) {
+                long id = 1_000_000_000L + (i < 100_000 ? i % 1000 : i);
+                store.append(Message.fromStored(String.valueOf(id), "+27830000000",
+                        "Repeated text " + (i % 1000), "10:" + (id % 1000) + ":RT"));
+            }
+
+            AtomicBoolean done = new AtomicBoolean();
+            List<String> appended = new ArrayList<>();
+            Thread appender = new Thread(() -> {
+                int i = 0;
+                try {
+                    while (!done.get() || i < 1000) {
+                        String id = String.valueOf(5_000_000_000L + i);
+                        store.append(Message.fromStored(id, "+27831111111", "Live " + i, "50:" + i + ":LI"));
+                        appended.add(id);
+                        i++;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            appender.start();
+            CompletableFuture<JsonMessageStore.Compaction> compaction = store.compactAsync();
+            assertSame(compaction, store.compactAsync());
+            JsonMessageStore.Compaction result = compaction.get(60, TimeUnit.SECONDS);
+            done.set(true);
+            appender.join();
+
+            Set<String> ids = new HashSet<>();
+            for (Message m : store.loadAll()) assertTrue(ids.add(m.getMessageID()), m.getMessageID());
+            for (String id : appended) assertTrue(ids.contains(id), id);
+            assertEquals(101_000 + appended.size(), ids.size());
+            assertEquals(99_000, result.getSuperseded());
+            assertEquals(0, result.getDuplicates());
+        } finally {
+            deleteAll(dir);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Codec for the one-object-per-line records in stored_messages.json:
+ *
+ *   {"messageID":"...","recipient":"...","messageText":"...","messageHash":"...","timestamp":1718000000000}
+ *
+ * The timestamp is the send/store time in epoch milliseconds. Records
+ * written before it existed have none, and read back with a timestamp of 0.
+ *
+ * Decoding is a single pass over the UTF-8 bytes. Keys are matched against
+ * pre-encoded key bytes, unknown keys are skipped, and a string value is
+ * turned into a String only once its end is known. Values without escapes
+ * are decoded straight from the input; values with escapes are unescaped
+ * into a per-thread scratch buffer first. Apart from the field strings and
+ * the Message itself, a decode allocates nothing.
+ */
+public final class JsonRecordCodec {
+
+    public static final String[] MESSAGE_FIELDS = { "messageID", "recipient", "messageText", "messageHash", "timestamp" };
+    private static final byte[][] MESSAGE_KEYS = keys(MESSAGE_FIELDS);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Reused per thread: unescape buffer and the decoded field slots
+    private static final class Scratch {
+        byte[] bytes = new byte[256];
+        final String[] fields = new String[MESSAGE_FIELDS.length];
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private JsonRecordCodec() {}
+
+    // Pre-encode key names for decodeFields
+    public static byte[][] keys(String... names) {
+        byte[][] keys = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) keys[i] = names[i].getBytes(StandardCharsets.UTF_8);
+        return keys;
+    }
+
+    // --- Encoding ---
+
+    public static String encode(Message m) {
+        StringBuilder sb = new StringBuilder(96 + (m.getMessageText() == null ? 0 : m.getMessageText().length()));
+        sb.append('{');
+        appendField(sb, MESSAGE_FIELDS[0], m.getMessageID()).append(',');
+        appendField(sb, MESSAGE_FIELDS[1], m.getRecipient()).append(',');
+        appendField(sb, MESSAGE_FIELDS[2], m.getMessageText()).append(',');
+        appendField(sb, MESSAGE_FIELDS[3], m.getMessageHash());
+        if (m.getTimestamp() != 0) sb.append(",\"").append(MESSAGE_FIELDS[4]).append("\":").append(m.getTimestamp());
+        return sb.append('}').toString();
+    }
+
+    public static StringBuilder appendField(StringBuilder sb, String key, String value) {
+        sb.append('"').append(key).append("\":");
+        if (value == null) return sb.append("null");
+
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                case '\b' -> sb.append("\\b");
+                case '\f' -> sb.append("\\f");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"');
+    }
+
+    // --- Decoding ---
+
+    public static Message decode(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return decode(bytes, 0, bytes.length);
+    }
+
+    // Decode one record from buf[from, to); returns null if it is not a valid record
+    public static Message decode(byte[] buf, int from, int to) {
+        String[] fields = SCRATCH.get().fields;
+        if (!decodeFields(buf, from, to, MESSAGE_KEYS, fields)) return null;
+        return Message.fromStored(fields[0], fields[1], fields[2], fields[3], timestamp(fields[4]));
+    }
+
+    // A missing or unreadable timestamp is 0 (unknown) rather than a broken record
+    private static long timestamp(String value) {
+        if (value == null) return 0;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Decode the values of the given keys from one flat JSON object into out
+     * (same order as keys). Missing keys and JSON null give null; numbers and
+     * booleans are kept as their text. Returns false if the object is malformed.
+     */
+    public static boolean decodeFields(byte[] buf, int from, int to, byte[][] keys, String[] out) {
+        Arrays.fill(out, 0, keys.length, null);
+
+        int i = skipSpace(buf, from, to);
+        if (i >= to || buf[i] != '{') return false;
+        i = skipSpace(buf, i + 1, to);
+        if (i < to && buf[i] == '}') return skipSpace(buf, i + 1, to) == to;
+
+        while (true) {
+            // Key
+            if (i >= to || buf[i] != '"') return false;
+            int keyStart = i + 1;
+            int keyEnd = endOfString(buf, keyStart, to);
+            if (keyEnd < 0) return false;
+            int field = matchKey(buf, keyStart, keyEnd, keys);
+
+            i = skipSpace(buf, keyEnd + 1, to);
+            if (i >= to || buf[i] != ':') return false;
+            i = skipSpace(buf, i + 1, to);
+            if (i >= to) return false;
+
+            // Value
+            if (buf[i] == '"') {
+                // Scan to the closing quote; only strings with escapes take the slow path
+                int start = i + 1;
+                int end = start;
+                while (end < to && buf[end] != '"' && buf[end] != '\\') end++;
+                if (end >= to) return false;
+
+                if (buf[end] == '"') {
+                    if (field >= 0) out[field] = new String(buf, start, end - start, StandardCharsets.UTF_8);
+                } else {
+                    int firstEscape = end;
+                    end = endOfString(buf, firstEscape, to);
+                    if (end < 0) return false;
+                    if (field >= 0) {
+                        out[field] = unescape(buf, start, firstEscape, end);
+                        if (out[field] == null) return false;
+                    }
+                }
+                i = end + 1;
+            } else {
+                int valueEnd = i;
+                while (valueEnd < to && buf[valueEnd] != ',' && buf[valueEnd] != '}'
+                        && (buf[valueEnd] & 0xFF) > ' ') valueEnd++;
+                if (valueEnd == i) return false;
+                if (field >= 0 && !isLiteral(buf, i, valueEnd, "null")) {
+                    out[field] = new String(buf, i, valueEnd - i, StandardCharsets.US_ASCII);
+                }
+                i = valueEnd;
+            }
+
+            i = skipSpace(buf, i, to);
+            if (i >= to) return false;
+            if (buf[i] == '}') return skipSpace(buf, i + 1, to) == to;
+            if (buf[i] != ',') return false;
+            i = skipSpace(buf, i + 1, to);
+        }
+    }
+
+    private static int skipSpace(byte[] buf, int i, int to) {
+        while (i < to && (buf[i] == ' ' || buf[i] == '\t' || buf[i] == '\r' || buf[i] == '\n')) i++;
+        return i;
+    }
+
+    // Index of the closing quote of a string starting at from, or -1
+    private static int endOfString(byte[] buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == '\\') i++;
+            else if (buf[i] == '"') return i;
+        }
+        return -1;
+    }
+
+    private static int matchKey(byte[] buf, int from, int to, byte[][] keys) {
+        int length = to - from;
+        for (int k = 0; k < keys.length; k++) {
+            byte[] key = keys[k];
+            if (key.length != length) continue;
+            int j = 0;
+            while (j < length && key[j] == buf[from + j]) j++;
+            if (j == length) return k;
+        }
+        return -1;
+    }
+
+    private static boolean isLiteral(byte[] buf, int from, int to, String literal) {
+        if (to - from != literal.length()) return false;
+        for (int i = 0; i < literal.length(); i++) {
+            if (buf[from + i] != literal.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // Unescape buf[from, to) (the inside of a JSON string, first backslash at firstEscape);
+    // null if an escape is invalid
+    private static String unescape(byte[] buf, int from, int firstEscape, int to) {
+        Scratch scratch = SCRATCH.get();
+        byte[] out = scratch.bytes;
+        if (out.length < to - from) out = scratch.bytes = new byte[Math.max(to - from, out.length * 2)];
+
+        int n = firstEscape - from;
+        System.arraycopy(buf, from, out, 0, n);
+
+        for (int i = firstEscape; i < to; i++) {
+            byte b = buf[i];
+            if (b != '\\') {
+                out[n++] = b;
+                continue;
+            }
+            if (++i >= to) return null;
+            switch (buf[i]) {
+                case '"' -> out[n++] = '"';
+                case '\\' -> out[n++] = '\\';
+                case '/' -> out[n++] = '/';
+                case 'n' -> out[n++] = '\n';
+                case 'r' -> out[n++] = '\r';
+                case 't' -> out[n++] = '\t';
+                case 'b' -> out[n++] = '\b';
+                case 'f' -> out[n++] = '\f';
+                case 'u' -> {
+                    int cp = hex4(buf, i + 1, to);
+                    if (cp < 0) return null;
+                    i += 4;
+                    if (Character.isHighSurrogate((char) cp) && i + 6 < to
+                            && buf[i + 1] == '\\' && buf[i + 2] == 'u') {
+                        int low = hex4(buf, i + 3, to);
+                        if (low >= 0 && Character.isLowSurrogate((char) low)) {
+                            cp = Character.toCodePoint((char) cp, (char) low);
+                            i += 6;
+                        }
+                    }
+                    if (Character.isSurrogate((char) cp) && cp <= 0xFFFF) cp = 0xFFFD;
+                    n = putUtf8(out, n, cp);
+                }
+                default -> {
+                    return null;
+                }
+            }
+        }
+        return new String(out, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private static int hex4(byte[] buf, int from, int to) {
+        if (from + 4 > to) return -1;
+        int value = 0;
+        for (int i = from; i < from + 4; i++) {
+            int d = Character.digit(buf[i], 16);
+            if (d < 0) return -1;
+            value = (value << 4) | d;
+        }
+        return value;
+    }
+
+    // A \\uXXXX escape (6 bytes) never needs more than 4 bytes of UTF-8, so this fits in out
+    private static int putUtf8(byte[] out, int n, int cp) {
+        if (cp < 0x80) {
+            out[n++] = (byte) cp;
+        } else if (cp < 0x800) {
+            out[n++] = (byte) (0xC0 | (cp >> 6));
+            out[n++] = (byte) (0x80 | (cp & 0x3F));
+        } else if (cp < 0x10000) {
+            out[n++] = (byte) (0xE0 | (cp >> 12));
+            out[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            out[n++] = (byte) (0x80 | (cp & 0x3F));
+        } else {
+            out[n++] = (byte) (0xF0 | (cp >> 18));
+            out[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            out[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            out[n++] = (byte) (0x80 | (cp & 0x3F));
+        }
+        return n;
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonRecordCodecTest {
+
+    @BeforeEach
+    public void setup() {
+        Message.clearAllMemoryData();
+        try {
+            Files.deleteIfExists(Paths.get("stored_messages.json"));
+        } catch (Exception ignored) {}
+    }
+
+    private static Message message(String id, String cell, String text) {
+        Message m = new Message(1);
+        m.setMessageID(id);
+        m.checkRecipientCell(cell);
+        m.checkMessageLength(text);
+        m.createMessageHash();
+        return m;
+    }
+
+    private static void assertSameFields(Message expected, Message actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getMessageID(), actual.getMessageID());
+        assertEquals(expected.getRecipient(), actual.getRecipient());
+        assertEquals(expected.getMessageText(), actual.getMessageText());
+        assertEquals(expected.getMessageHash(), actual.getMessageHash());
+    }
+
+    @Test
+    public void roundTripsEscapesAndNonAscii() {
+        String[] texts = {
+                "Plain text",
+                "He said \"hi\" and left",
+                "Back\\slash and \\\"both\\\"",
+                "Line one\nLine two\r\n\ttabbed",
+                "Control \u0001 char",
+                "Ok, I’m leaving without you. 😀 é",
+                ""
+        };
+        for (String text : texts) {
+            Message m = message("1234567890", "+27838884567", text);
+            String line = JsonRecordCodec.encode(m);
+            assertFalse(line.contains("\n"), "Encoded record must stay on one line.");
+            assertSameFields(m, JsonRecordCodec.decode(line));
+        }
+    }
+
+    @Test
+    public void roundTripsNullFields() {
+        Message m = new Message(1);
+        m.setMessageID("1234567890");
+        Message decoded = JsonRecordCodec.decode(JsonRecordCodec.encode(m));
+        assertSameFields(m, decoded);
+        assertNull(decoded.getRecipient());
+        assertNull(decoded.getMessageText());
+    }
+
+    @Test
+    public void decodesUnicodeEscapesAndSkipsUnknownKeys() {
+        String line = "{ \"extra\" : 12, \"messageText\" : \"caf\\u00e9 \\ud83d\\ude00\\/\", \"flag\":true,"
+                + " \"messageID\":\"0838884567\" }";
+        Message m = JsonRecordCodec.decode(line);
+        assertNotNull(m);
+        assertEquals("café 😀/", m.getMessageText());
+        assertEquals("0838884567", m.getMessageID());
+        assertNull(m.getMessageHash());
+    }
+
+    @Test
+    public void decodesFromMiddleOfBuffer() {
+        byte[] buf = "xx{\"messageText\":\"inside\"}yy".getBytes(StandardCharsets.UTF_8);
+        assertEquals("inside", JsonRecordCodec.decode(buf, 2, buf.length - 2).getMessageText());
+    }
+
+    @Test
+    public void rejectsMalformedRecords() {
+        assertNull(JsonRecordCodec.decode(""));
+        assertNull(JsonRecordCodec.decode("not json"));
+        assertNull(JsonRecordCodec.decode("{\"messageText\":\"unterminated}"));
+        assertNull(JsonRecordCodec.decode("{\"messageText\":\"bad \\x escape\"}"));
+        assertNull(JsonRecordCodec.decode("{\"messageText\":\"a\" \"messageID\":\"b\"}"));
+        assertNull(JsonRecordCodec.decode("{\"messageText\":\"a\"} trailing"));
+    }
+
+    @Test
+    public void storeAndLoadKeepsEveryField() {
+        Message m = message("1234567890", "+27838884567", "Say \"cheese\"");
+        m.sendMessage("store");
+
+        Message.clearAllMemoryData();
+        Message.loadStoredMessages();
+
+        assertEquals(1, Message.getStoredMessages().size());
+        assertSameFields(m, Message.getStoredMessages().get(0));
+        assertEquals("Say \"cheese\"", Message.getStoredMessagesArray().get(0));
+    }
+}
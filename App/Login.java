@@ -1,32 +1,52 @@
 import javax.swing.*;
+import java.util.concurrent.CompletableFuture;
 
 public class Login extends Register {
-    private int failedAttempts = 0;
-    private boolean locked = false;
 
     // Constructor
     public Login(String username, String password) {
+        this(new UserDirectory(), username, password);
+    }
+
+    // Log in against a shared directory; the credentials are added unless the username exists
+    public Login(UserDirectory directory, String username, String password) {
+        super(directory);
         this.regUsername = username;
-        this.regPassword = password;
+        if (username != null && !username.isEmpty()) directory.addAccount(username, password);
     }
 
-    // Authenticate user with lockout logic
+    // Authenticate user with lockout logic (failures are throttled per user and unlock after a while)
     public boolean authenticate(String username, String password) {
-        if (locked) return false;
-
-        boolean success = loginUser(username, password);
-        if (!success) {
-            failedAttempts++;
-            if (failedAttempts >= 3) locked = true;
-        } else {
-            failedAttempts = 0;
+        long start = MessageMetrics.start();
+        try {
+            return directory.authenticate(username, password);
+        } finally {
+            MessageMetrics.AUTHENTICATE.stop(start);
+        }
+    }
+
+    // Also throttle the source of the attempt (e.g. a client address)
+    public boolean authenticate(String username, String password, String source) {
+        long start = MessageMetrics.start();
+        try {
+            return directory.authenticate(username, password, source);
+        } finally {
+            MessageMetrics.AUTHENTICATE.stop(start);
         }
-        return success;
     }
 
-    // Check lockout status
+    // Same check with the password hash run off the calling thread
+    public CompletableFuture<Boolean> authenticateAsync(String username, String password) {
+        return directory.authenticateAsync(username, password);
+    }
+
+    // Check lockout status of this login's own account
     public boolean isLocked() {
-        return locked;
+        return directory.isLocked(regUsername);
+    }
+
+    public boolean isLocked(String username) {
+        return directory.isLocked(username);
     }
 
     public static void main(String[] args) {
@@ -54,7 +74,8 @@ public class Login extends Register {
 
             if (loginStatus) break;
 
-            if (login.isLocked()) {
+            // The third miss ends the session whichever names were typed; the directory may lock one sooner
+            if (login.isLocked(loginUsername) || attempts == 3) {
                 JOptionPane.showMessageDialog(null, "Too many failed attempts. Program will now exit.");
                 System.exit(0);
             } else {
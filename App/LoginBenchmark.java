@@ -0,0 +1,71 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Logins per second at several PBKDF2 costs: authenticate on the calling
+ * thread, authenticateAsync through the verification pool, and repeat
+ * logins answered by the session cache.
+ *
+ * Usage: java LoginBenchmark [users] [cost,cost,...]
+ */
+public class LoginBenchmark {
+
+    private static final String PASSWORD = "Ch&&sec@ke99!";
+
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        String[] costs = (args.length > 1 ? args[1] : "1000,10000,100000,310000").split(",");
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%d users, %d verification threads%n", users, threads);
+        for (String c : costs) {
+            int cost = Integer.parseInt(c.trim());
+            UserDirectory directory = new UserDirectory(users, new PasswordHasher(cost),
+                    new SessionCache(), threads, users);
+            for (int i = 0; i < users; i++) directory.registerUser(name(i), PASSWORD, "+27838968976", "F", "L");
+
+            // Every login is a first login, so each one pays for the hash
+            long start = System.nanoTime();
+            int ok = 0;
+            for (int i = 0; i < users; i++) {
+                if (directory.authenticate(name(i), PASSWORD)) ok++;
+            }
+            long sync = System.nanoTime() - start;
+
+            UserDirectory fresh = new UserDirectory(users, new PasswordHasher(cost), new SessionCache(), threads, users);
+            for (int i = 0; i < users; i++) fresh.registerUser(name(i), PASSWORD, "+27838968976", "F", "L");
+            start = System.nanoTime();
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>(users);
+            for (int i = 0; i < users; i++) futures.add(fresh.authenticateAsync(name(i), PASSWORD));
+            int rejected = 0;
+            for (CompletableFuture<Boolean> f : futures) {
+                try {
+                    if (f.join()) ok++;
+                } catch (RuntimeException e) {
+                    if (!(e.getCause() instanceof RejectedExecutionException)) throw e;
+                    rejected++;
+                }
+            }
+            long async = System.nanoTime() - start;
+
+            // Sessions from the first pass are still live
+            start = System.nanoTime();
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < users; i++) if (fresh.authenticate(name(i), PASSWORD)) ok++;
+            }
+            long cached = System.nanoTime() - start;
+
+            System.out.printf("cost %,8d: authenticate %,10.0f | authenticateAsync %,10.0f | session cache %,12.0f logins/s"
+                            + "  (%d ok, %d rejected)%n",
+                    cost, users / (sync / 1e9), users / (async / 1e9), users * 10 / (cached / 1e9), ok, rejected);
+            directory.close();
+            fresh.close();
+        }
+    }
+
+    private static String name(int i) {
+        return "_" + Integer.toString(i, 36);
+    }
+}
@@ -0,0 +1,261 @@
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free login throttling with a token bucket per username and per
+ * source (e.g. an address). Each failed login spends a token; a bucket with
+ * no tokens left is blocked, and one token comes back every refill period,
+ * so a blocked user unlocks on their own after that time. A successful
+ * login refills the user's bucket unless it is blocked.
+ *
+ * A bucket is one AtomicLong packing the time of its last refill and the
+ * number of tokens spent, updated with compare-and-set. Buckets live in a
+ * ConcurrentHashMap capped at maxEntries; once the table is full, new keys
+ * share a fixed set of striped buckets instead, which can only make
+ * throttling stricter, never looser, and keeps memory bounded however many
+ * distinct usernames are tried. A background task drops buckets that have
+ * fully refilled, since they are the same as no bucket at all.
+ */
+public class LoginThrottle implements AutoCloseable {
+
+    public static final int DEFAULT_USER_FAILURES = 3;
+    public static final int DEFAULT_SOURCE_FAILURES = 20;
+    public static final long DEFAULT_REFILL_MILLIS = 5 * 60 * 1000;
+    public static final int DEFAULT_MAX_ENTRIES = 1_000_000;
+    public static final int DEFAULT_STRIPES = 4096;
+    public static final long DEFAULT_CLEANUP_MILLIS = 60 * 1000;
+
+    // State layout: refill time (ms since the throttle started) << 20 | tokens spent.
+    // 0 is a full bucket; RETIRED marks a bucket the cleaner has taken out of the table.
+    private static final int SPENT_BITS = 20;
+    private static final long SPENT_MASK = (1L << SPENT_BITS) - 1;
+    private static final long RETIRED = -1;
+
+    // One daemon thread cleans every throttle; a task ends once its throttle is closed or collected
+    private static final ScheduledExecutorService CLEANER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "quickchat-throttle-cleaner");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private enum Kind { USER, SOURCE }
+
+    private final int[] capacity = new int[2];
+    private final long refillMillis;
+    private final int maxEntries;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong[][] stripes = new AtomicLong[2][];
+    private final LongSupplier clock;
+    private final long start;
+    private final ScheduledFuture<?> cleanup;
+
+    public LoginThrottle() {
+        this(DEFAULT_USER_FAILURES, DEFAULT_SOURCE_FAILURES, DEFAULT_REFILL_MILLIS,
+                DEFAULT_MAX_ENTRIES, DEFAULT_STRIPES, DEFAULT_CLEANUP_MILLIS);
+    }
+
+    public LoginThrottle(int userFailures, int sourceFailures, long refillMillis,
+                         int maxEntries, int stripeCount, long cleanupMillis) {
+        this(userFailures, sourceFailures, refillMillis, maxEntries, stripeCount, cleanupMillis,
+                () -> System.nanoTime() / 1_000_000);
+    }
+
+    // Package-private so tests can drive the clock; a cleanupMillis of 0 disables the background task
+    LoginThrottle(int userFailures, int sourceFailures, long refillMillis,
+                  int maxEntries, int stripeCount, long cleanupMillis, LongSupplier clock) {
+        if (userFailures < 1 || sourceFailures < 1 || userFailures > SPENT_MASK || sourceFailures > SPENT_MASK) {
+            throw new IllegalArgumentException("Failure limits must be between 1 and " + SPENT_MASK + ".");
+        }
+        if (refillMillis < 1 || maxEntries < 0 || stripeCount < 1) {
+            throw new IllegalArgumentException("Refill period and stripe count must be positive.");
+        }
+        capacity[Kind.USER.ordinal()] = userFailures;
+        capacity[Kind.SOURCE.ordinal()] = sourceFailures;
+        this.refillMillis = refillMillis;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+        this.start = clock.getAsLong() - 1;
+
+        for (Kind kind : Kind.values()) {
+            stripes[kind.ordinal()] = new AtomicLong[stripeCount];
+            for (int i = 0; i < stripeCount; i++) stripes[kind.ordinal()][i] = new AtomicLong();
+        }
+
+        if (cleanupMillis > 0) {
+            WeakReference<LoginThrottle> ref = new WeakReference<>(this);
+            cleanup = CLEANER.scheduleWithFixedDelay(() -> {
+                LoginThrottle throttle = ref.get();
+                if (throttle == null) throw new IllegalStateException("Throttle collected"); // cancels the task
+                throttle.cleanup();
+            }, cleanupMillis, cleanupMillis, TimeUnit.MILLISECONDS);
+        } else {
+            cleanup = null;
+        }
+    }
+
+    // True if the user or the source (may be null) has no tokens left
+    public boolean isBlocked(String username, String source) {
+        long now = now();
+        return spent(Kind.USER, username, now) >= capacity[0] || spent(Kind.SOURCE, source, now) >= capacity[1];
+    }
+
+    // Milliseconds until isBlocked turns false, 0 if it already is
+    public long retryAfterMillis(String username, String source) {
+        long now = now();
+        return Math.max(retryAfter(Kind.USER, username, now), retryAfter(Kind.SOURCE, source, now));
+    }
+
+    // Spend a token for the user and the source; true if the user is now blocked
+    public boolean recordFailure(String username, String source) {
+        long now = now();
+        spend(Kind.SOURCE, source, now);
+        return spend(Kind.USER, username, now);
+    }
+
+    // Refill the user's bucket after a correct password; false (and no change) if the user is blocked
+    public boolean recordSuccess(String username) {
+        if (username == null) return false;
+        long now = now();
+        String key = key(Kind.USER, username);
+        if (spentIn(stripe(Kind.USER, key).get(), now) >= capacity[0]) return false;
+
+        while (true) {
+            AtomicLong bucket = buckets.get(key);
+            if (bucket == null) return true;
+            long state = bucket.get();
+            if (state == RETIRED) {
+                buckets.remove(key, bucket);
+                continue;
+            }
+            if (spentIn(state, now) >= capacity[0]) return false;
+            if (bucket.compareAndSet(state, 0)) return true;
+        }
+    }
+
+    // Failed attempts the user's bucket currently holds (at most the limit)
+    public int getFailures(String username) {
+        return (int) Math.min(capacity[0], spent(Kind.USER, username, now()));
+    }
+
+    public int getFailureLimit() {
+        return capacity[0];
+    }
+
+    // Clear the user's bucket (an administrator unlock)
+    public void reset(String username) {
+        if (username == null) return;
+        AtomicLong bucket = buckets.get(key(Kind.USER, username));
+        if (bucket == null) return;
+        long state;
+        do {
+            state = bucket.get();
+        } while (state != RETIRED && !bucket.compareAndSet(state, 0));
+    }
+
+    // Buckets held in the table (the striped fallback is fixed-size and not counted)
+    public long trackedEntries() {
+        return buckets.mappingCount();
+    }
+
+    // Drop fully refilled buckets; also run in the background every cleanupMillis
+    public void cleanup() {
+        long now = now();
+        for (var entry : buckets.entrySet()) {
+            AtomicLong bucket = entry.getValue();
+            long state = bucket.get();
+            // Retiring first means a concurrent spend sees RETIRED and starts a new bucket
+            if (state != RETIRED && spentIn(state, now) == 0 && bucket.compareAndSet(state, RETIRED)) {
+                buckets.remove(entry.getKey(), bucket);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (cleanup != null) cleanup.cancel(false);
+    }
+
+    private long now() {
+        return clock.getAsLong() - start;
+    }
+
+    private static String key(Kind kind, String name) {
+        return (kind == Kind.USER ? "u:" : "s:") + name;
+    }
+
+    private AtomicLong stripe(Kind kind, String key) {
+        AtomicLong[] set = stripes[kind.ordinal()];
+        int h = key.hashCode();
+        return set[((h ^ (h >>> 16)) & 0x7fffffff) % set.length];
+    }
+
+    private long spent(Kind kind, String name, long now) {
+        if (name == null) return 0;
+        String key = key(kind, name);
+        AtomicLong bucket = buckets.get(key);
+        long own = bucket == null ? 0 : spentIn(bucket.get(), now);
+        return Math.max(own, spentIn(stripe(kind, key).get(), now));
+    }
+
+    private long retryAfter(Kind kind, String name, long now) {
+        if (name == null || spent(kind, name, now) < capacity[kind.ordinal()]) return 0;
+        String key = key(kind, name);
+        AtomicLong bucket = buckets.get(key);
+        long wait = bucket == null ? 0 : waitFor(bucket.get(), now, capacity[kind.ordinal()]);
+        return Math.max(wait, waitFor(stripe(kind, key).get(), now, capacity[kind.ordinal()]));
+    }
+
+    private long waitFor(long state, long now, int limit) {
+        if (spentIn(state, now) < limit) return 0;
+        long refilled = refill(state, now);
+        return Math.max(1, (refilled >>> SPENT_BITS) + refillMillis - now);
+    }
+
+    // Spend one token unless the bucket is empty; true if it is empty afterwards
+    private boolean spend(Kind kind, String name, long now) {
+        if (name == null) return false;
+        int limit = capacity[kind.ordinal()];
+        String key = key(kind, name);
+
+        while (true) {
+            AtomicLong bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = buckets.size() < maxEntries
+                        ? buckets.computeIfAbsent(key, k -> new AtomicLong())
+                        : stripe(kind, key);
+            }
+            long state = bucket.get();
+            if (state == RETIRED) {
+                buckets.remove(key, bucket);
+                continue;
+            }
+            long refilled = refill(state, now);
+            long spent = refilled & SPENT_MASK;
+            if (spent >= limit) return true;
+
+            long next = spent == 0 ? (now << SPENT_BITS) | 1 : refilled + 1;
+            if (bucket.compareAndSet(state, next)) return spent + 1 >= limit;
+        }
+    }
+
+    private long spentIn(long state, long now) {
+        return state == RETIRED ? 0 : refill(state, now) & SPENT_MASK;
+    }
+
+    // Give back one token per whole refill period since the last refill
+    private long refill(long state, long now) {
+        long spent = state & SPENT_MASK;
+        if (spent == 0) return 0;
+        long since = state >>> SPENT_BITS;
+        long periods = (now - since) / refillMillis;
+        if (periods <= 0) return state;
+        if (periods >= spent) return 0;
+        return ((since + periods * refillMillis) << SPENT_BITS) | (spent - periods);
+    }
+}
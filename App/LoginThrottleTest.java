@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoginThrottleTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+
+    private LoginThrottle throttle(int maxEntries, int stripes) {
+        return new LoginThrottle(3, 5, 1000, maxEntries, stripes, 0, clock::get);
+    }
+
+    @Test
+    public void blocksAfterLimitAndUnlocksAfterRefill() {
+        LoginThrottle throttle = throttle(100, 8);
+        assertFalse(throttle.recordFailure("kyl_1", null));
+        assertFalse(throttle.recordFailure("kyl_1", null));
+        assertTrue(throttle.recordFailure("kyl_1", null));
+        assertTrue(throttle.isBlocked("kyl_1", null));
+        assertEquals(3, throttle.getFailures("kyl_1"));
+        assertEquals(1000, throttle.retryAfterMillis("kyl_1", null));
+        assertFalse(throttle.recordSuccess("kyl_1"));
+
+        clock.addAndGet(999);
+        assertTrue(throttle.isBlocked("kyl_1", null));
+        assertEquals(1, throttle.retryAfterMillis("kyl_1", null));
+
+        // One token back per period
+        clock.addAndGet(1);
+        assertFalse(throttle.isBlocked("kyl_1", null));
+        assertEquals(2, throttle.getFailures("kyl_1"));
+        assertTrue(throttle.recordFailure("kyl_1", null));
+
+        clock.addAndGet(3000);
+        assertEquals(0, throttle.getFailures("kyl_1"));
+        assertFalse(throttle.isBlocked("amy_2", null));
+    }
+
+    @Test
+    public void successRefillsAndResetClears() {
+        LoginThrottle throttle = throttle(100, 8);
+        throttle.recordFailure("kyl_1", null);
+        throttle.recordFailure("kyl_1", null);
+        assertTrue(throttle.recordSuccess("kyl_1"));
+        assertEquals(0, throttle.getFailures("kyl_1"));
+
+        for (int i = 0; i < 3; i++) throttle.recordFailure("kyl_1", null);
+        throttle.reset("kyl_1");
+        assertFalse(throttle.isBlocked("kyl_1", null));
+    }
+
+    @Test
+    public void sourceIsThrottledAcrossUsernames() {
+        LoginThrottle throttle = throttle(100, 8);
+        for (int i = 0; i < 5; i++) throttle.recordFailure("user" + i, "10.0.0.1");
+        assertTrue(throttle.isBlocked("someone", "10.0.0.1"));
+        assertFalse(throttle.isBlocked("someone", "10.0.0.2"));
+        assertFalse(throttle.isBlocked("user0", null));
+    }
+
+    @Test
+    public void tableStaysBoundedAndCleanupDropsIdleBuckets() {
+        LoginThrottle throttle = throttle(1000, 64);
+        for (int i = 0; i < 100_000; i++) throttle.recordFailure("guess" + i, null);
+        assertEquals(1000, throttle.trackedEntries());
+
+        // Keys past the cap share stripes, which only ever throttle harder
+        for (int i = 0; i < 1000; i++) throttle.recordFailure("guess" + i, null);
+        for (int i = 0; i < 1000; i++) throttle.recordFailure("guess" + i, null);
+        assertTrue(throttle.isBlocked("guess5", null));
+
+        throttle.cleanup();
+        assertEquals(1000, throttle.trackedEntries());
+        clock.addAndGet(3000);
+        throttle.cleanup();
+        assertEquals(0, throttle.trackedEntries());
+        assertFalse(throttle.isBlocked("guess5", null));
+    }
+
+    @Test
+    public void concurrentFailuresSpendEachTokenOnce() throws Exception {
+        LoginThrottle throttle = new LoginThrottle(1000, 1000, 60_000, 10_000, 16, 0, clock::get);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        AtomicInteger blockedReports = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    if (throttle.recordFailure("kyl_1", null)) blockedReports.incrementAndGet();
+                    throttle.cleanup();
+                }
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        pool.shutdown();
+
+        assertEquals(1000, throttle.getFailures("kyl_1"));
+        assertTrue(throttle.isBlocked("kyl_1", null));
+        // The thousandth failure and every one after it report the block
+        assertEquals(4000 - 999, blockedReports.get());
+    }
+}
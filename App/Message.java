@@ -1,10 +1,21 @@
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import javax.swing.*;
 
 /**
@@ -13,30 +24,138 @@ import javax.swing.*;
  * Static arrays required by the assignment:
  * 1) sentMessageTexts
  * 2) disregardedMessages
- * 3) storedMessagesArray (loaded from stored_messages.json)
+ * 3) storedMessagesArray (loaded from stored_messages.json or the binary store)
  * 4) messageHashes
  * 5) messageIDs
+ *
+ * Sent messages are kept in insertion order and indexed by message ID,
+ * recipient and hash, so searches and deletes do not scan the whole list.
+ * The sentMessageTexts, messageHashes and messageIDs arrays are read
+ * straight from the sent messages.
+ *
+ * The list getters return immutable views rather than copies: every sent,
+ * stored and disregarded message is also appended to a VersionedLog, and a
+ * view of it costs the same however many messages there are. A view never
+ * shows later sends, stores or deletes, just like the copies did.
+ *
+ * Sent and stored messages carry the time they were sent or stored, which
+ * every store format and the snapshot keep. MessageTimeIndex orders them
+ * by it for time-range queries and per-recipient timelines.
+ *
+ * All shared state is held in concurrent collections, so several threads
+ * may send, store, disregard, search and delete at the same time. Each send
+ * takes a sequence number from an atomic counter; the sent list and every
+ * index bucket are skip lists ordered by it, which keeps send order without
+ * a global lock.
+ *
+ * writeSnapshot saves all of this state (see MessageSnapshot) from a
+ * consistent cut without pausing senders: deletes, disregards and stores
+ * are stamped from the same clock as sends, and a snapshot waits only for
+ * the operations stamped at or below its cut (see InFlightOps). A message
+ * deleted after the cut is still captured from the graveyard, where the
+ * deleting thread leaves it while a snapshot is being taken.
+ *
+ * A send also queues the message for delivery (see MessageDelivery) and
+ * returns without waiting for the transport. Unless setDelivery is called,
+ * the first send starts a pipeline over a StubGateway, sized by
+ * -Dquickchat.delivery.workers and -Dquickchat.delivery.queue and batching
+ * per recipient by -Dquickchat.delivery.batch and -Dquickchat.delivery.window
+ * (milliseconds). Delivery status is not saved in stores or snapshots.
  */
 public class Message {
 
+    // What sendMessage("send") says when the delivery queue was full
+    public static final String DELIVERY_REJECTED = "Message sent, but the delivery queue is full so it was not delivered.";
+
     private String messageID;
     private String recipient;
     private String messageText;
     private String messageHash;
     private int messageNumber;
+    private long timestamp; // send/store time in epoch millis; 0 if unknown (older stored records)
+
+    // This message's place in sentLog once sent (the latest one, if sent more than once)
+    private VersionedLog.Entry<Message> sentEntry;
+
+    // Where the last send got to in the delivery pipeline; null if it never went through it
+    private volatile MessageDelivery.Status deliveryStatus;
+
+    private static final LongAdder totalMessagesSent = new LongAdder();
+    private static volatile MessageIdAllocator idAllocator = MessageIdAllocator.create(
+            MessageIdAllocator.Mode.valueOf(System.getProperty("quickchat.id.mode", "UNIQUE").toUpperCase()));
+
+    // Where send and store times come from (tests can fix it)
+    private static volatile Clock clock = Clock.systemUTC();
+
+    // One clock stamps every send, delete, disregard and store; a send's stamp is its send sequence
+    private static final AtomicLong sequence = new AtomicLong();
+
+    // Deletes take their stamp and bump the count together, so a snapshot knows how many
+    // sends were deleted before its cut; deletedBase is the count at the last clear
+    private static final Object deleteLock = new Object();
+    private static long deleteCount;
+    private static long deletedBase;
+
+    // Storage for "store" messages, opened on first use
+    private static MessageStore store;
+    private static boolean storeShutdownHookAdded = false;
+    private static MessageStore.Format storeFormat = MessageStore.Format.valueOf(
+            System.getProperty("quickchat.store.format", "JSON").toUpperCase());
+    private static GroupCommitWriter.Durability storeDurability = GroupCommitWriter.Durability.valueOf(
+            System.getProperty("quickchat.store.durability", "NONE").toUpperCase());
+    private static int storeBatchRecords = GroupCommitWriter.DEFAULT_BATCH_RECORDS;
+    private static long storeFlushIntervalMillis = GroupCommitWriter.DEFAULT_FLUSH_INTERVAL_MS;
+
+    // Full Message objects keyed by send sequence (so in the order they were sent)
+    private static final ConcurrentSkipListMap<Long, Message> sentMessages = new ConcurrentSkipListMap<>();
+
+    // Indexes over sentMessages (each bucket is keyed by send sequence too)
+    private static final Map<String, ConcurrentSkipListMap<Long, Message>> messagesByID = new ConcurrentHashMap<>();
+    private static final Map<String, ConcurrentSkipListMap<Long, Message>> messagesByRecipient = new ConcurrentHashMap<>();
+    private static final Map<String, ConcurrentSkipListMap<Long, Message>> messagesByHash = new ConcurrentHashMap<>();
+
+    // Sent messages again, in the order their sends finished, for the list getters' views
+    private static final VersionedLog<Message> sentLog = new VersionedLog<>();
+
+    // Stored messages as full records under their store stamp; storedMessagesArray is read from these
+    private static final VersionedLog<Message> storedMessages = new VersionedLog<>();
+
+    // Assignment arrays (under their disregard stamp)
+    private static final VersionedLog<String> disregardedMessages = new VersionedLog<>();
+
+    // Deletes in progress, keyed by send sequence; the entry is the deleting thread's claim
+    // and stays until the running snapshot (if any) has looked at it
+    private static final class Tomb {
+        final Message message;
+        volatile long stamp; // 0 until the claim is stamped
+        volatile boolean done;
+
+        Tomb(Message message) {
+            this.message = message;
+        }
+    }
+    private static final ConcurrentHashMap<Long, Tomb> graveyard = new ConcurrentHashMap<>();
+
+    // Only one snapshot is taken at a time
+    private static final Object snapshotLock = new Object();
+    private static ScheduledFuture<?> snapshots;
+    private static Path snapshotFile;
+    private static boolean snapshotShutdownHookAdded = false;
 
-    private static int totalMessagesSent = 0;
-    private static final int MAX_MESSAGE_LENGTH = 250;
+    // Texts of all three categories ordered by length, for getLongestMessage
+    private static final MessageLengthIndex lengthIndex = new MessageLengthIndex();
 
-    // Original list of full Message objects
-    private static final List<Message> sentMessages = new ArrayList<>();
+    // Words of all three categories, for searchAllWords, searchAnyWord and searchPhrase
+    private static final MessageTextIndex textIndex = new MessageTextIndex();
 
-    // Assignment arrays
-    private static final List<String> sentMessageTexts = new ArrayList<>();
-    private static final List<String> disregardedMessages = new ArrayList<>();
-    private static final List<String> storedMessagesArray = new ArrayList<>();
-    private static final List<String> messageHashes = new ArrayList<>();
-    private static final List<String> messageIDs = new ArrayList<>();
+    // Sent and stored messages by recipient digits, for prefix searches and counts
+    private static final RecipientTrie recipients = new RecipientTrie();
+
+    // Sent and stored messages by time, for time ranges and per-recipient timelines
+    private static final MessageTimeIndex timeIndex = new MessageTimeIndex();
+
+    // Outbound pipeline every send is queued on; created on the first send unless set
+    private static volatile MessageDelivery delivery;
 
     // Constructor
     public Message(int messageNumber) {
@@ -46,8 +165,43 @@ public class Message {
 
     // Generate unique 10-digit ID
     private void generateMessageID() {
-        long id = (long) (Math.random() * 9000000000L) + 1000000000L;
-        this.messageID = String.valueOf(id);
+        this.messageID = String.valueOf(idAllocator.nextId());
+    }
+
+    // Swap the ID source (e.g. MessageIdAllocator.create(Mode.RANDOM) for the old behaviour)
+    public static void setIdAllocator(MessageIdAllocator allocator) {
+        if (allocator != null) idAllocator = allocator;
+    }
+
+    // Rebuild a message read back from storage (keeps the stored ID and time as they are)
+    private Message(String messageID, String recipient, String messageText, String messageHash, long timestamp) {
+        this.messageID = messageID;
+        this.recipient = recipient;
+        this.messageText = messageText;
+        this.messageHash = messageHash;
+        this.timestamp = timestamp;
+    }
+
+    static Message fromStored(String messageID, String recipient, String messageText, String messageHash) {
+        return new Message(messageID, recipient, messageText, messageHash, 0);
+    }
+
+    static Message fromStored(String messageID, String recipient, String messageText, String messageHash,
+                              long timestamp) {
+        return new Message(messageID, recipient, messageText, messageHash, timestamp);
+    }
+
+    // Rebuild a message read back from a snapshot (which also keeps the number)
+    static Message restored(int messageNumber, String messageID, String recipient,
+                            String messageText, String messageHash, long timestamp) {
+        Message m = new Message(messageID, recipient, messageText, messageHash, timestamp);
+        m.messageNumber = messageNumber;
+        return m;
+    }
+
+    // Swap the time source for sends and stores (e.g. a fixed Clock in tests)
+    public static void setClock(Clock newClock) {
+        if (newClock != null) clock = newClock;
     }
 
     // Allow test to set a specific ID
@@ -62,6 +216,13 @@ public class Message {
     public String getMessageText() { return messageText; }
     public String getMessageHash() { return messageHash; }
     public String getRecipient() { return recipient; }
+    public long getTimestamp() { return timestamp; }
+    public MessageDelivery.Status getDeliveryStatus() { return deliveryStatus; }
+    int getMessageNumber() { return messageNumber; }
+
+    void setDeliveryStatus(MessageDelivery.Status status) {
+        deliveryStatus = status;
+    }
 
     public void setMessageNumber(int number) {
         this.messageNumber = number;
@@ -74,18 +235,18 @@ public class Message {
 
     // Validate recipient
     public String checkRecipientCell(String cell) {
-        if (cell != null && cell.matches("\\+[0-9]{7,12}")) {
+        if (Validator.isValidRecipientCell(cell)) {
             this.recipient = cell;
             return "Success: Cell phone number successfully captured.";
         }
-        return "Failure: Cell phone number is incorrectly formatted or does not contain an international code. Please correct the number and try again.";
+        return Validator.RECIPIENT_ERROR;
     }
 
     // Validate message length
     public String checkMessageLength(String msg) {
-        if (msg == null) return "Failure: Message is null.";
-        if (msg.length() > MAX_MESSAGE_LENGTH) {
-            int excess = msg.length() - MAX_MESSAGE_LENGTH;
+        int excess = Validator.messageExcess(msg);
+        if (excess < 0) return "Failure: Message is null.";
+        if (excess > 0) {
             return "Failure: Message exceeds 250 characters by " + excess + ", please reduce size.";
         }
         this.messageText = msg;
@@ -112,26 +273,48 @@ public class Message {
     public String sendMessage(String option) {
         if (option == null) return "Invalid option.";
 
+        long start = MessageMetrics.start();
         return switch (option.toLowerCase()) {
             case "send" -> {
-                totalMessagesSent++;
-                sentMessages.add(this);
-
-                sentMessageTexts.add(messageText == null ? "" : messageText);
-                messageHashes.add(messageHash == null ? "" : messageHash);
-                messageIDs.add(messageID == null ? "" : messageID);
-
-                yield "Message successfully sent.";
+                boolean queued = send();
+                MessageMetrics.SEND.stop(start);
+                // The message is in the sent list either way; only its delivery can be turned away
+                yield queued ? "Message successfully sent." : DELIVERY_REJECTED;
             }
 
             case "store" -> {
+                timestamp = clock.millis();
                 storeMessageJSON();
-                storedMessagesArray.add(messageText == null ? "" : messageText);
+                InFlightOps.Slot slot = InFlightOps.slot();
+                slot.enter();
+                try {
+                    long stamp = sequence.incrementAndGet();
+                    slot.publish(stamp);
+                    storedMessages.append(stamp, this);
+                    lengthIndex.add(MessageCategory.STORED, messageText);
+                    textIndex.add(MessageCategory.STORED, stamp, messageText);
+                    recipients.add(MessageCategory.STORED, recipient, stamp, this);
+                    timeIndex.add(MessageCategory.STORED, stamp, this);
+                } finally {
+                    slot.exit();
+                }
+                MessageMetrics.STORE.stop(start);
                 yield "Message successfully stored.";
             }
 
             case "disregard" -> {
-                disregardedMessages.add(messageText == null ? "" : messageText);
+                InFlightOps.Slot slot = InFlightOps.slot();
+                slot.enter();
+                try {
+                    long stamp = sequence.incrementAndGet();
+                    slot.publish(stamp);
+                    disregardedMessages.append(stamp, messageText == null ? "" : messageText);
+                    lengthIndex.add(MessageCategory.DISREGARDED, messageText);
+                    textIndex.add(MessageCategory.DISREGARDED, stamp, messageText);
+                } finally {
+                    slot.exit();
+                }
+                MessageMetrics.DISREGARD.stop(start);
                 yield "Press 0 to delete message."; // Required by test
             }
 
@@ -139,173 +322,628 @@ public class Message {
         };
     }
 
-    // Save message to JSON
-    private void storeMessageJSON() {
-        String json = "{"
-                + "\"messageID\":\"" + safe(messageID) + "\","
-                + "\"recipient\":\"" + safe(recipient) + "\","
-                + "\"messageText\":\"" + safe(messageText) + "\","
-                + "\"messageHash\":\"" + safe(messageHash) + "\""
-                + "}";
+    // Sends and queues the message for delivery; false if the delivery queue turned it away
+    private boolean send() {
+        timestamp = clock.millis();
+        InFlightOps.Slot slot = InFlightOps.slot();
+        slot.enter();
+        try {
+            long seq = sequence.incrementAndGet();
+            slot.publish(seq);
+            totalMessagesSent.increment();
+            sentMessages.put(seq, this);
+            sentEntry = sentLog.append(seq, this);
+            lengthIndex.add(MessageCategory.SENT, seq, messageText);
+            textIndex.add(MessageCategory.SENT, seq, messageText);
+            recipients.add(MessageCategory.SENT, recipient, seq, this);
+            timeIndex.add(MessageCategory.SENT, seq, this);
+
+            // Hash index last: once a delete can find the message, it is in every structure
+            addToIndex(messagesByID, messageID, seq, this);
+            addToIndex(messagesByRecipient, recipient, seq, this);
+            addToIndex(messagesByHash, messageHash, seq, this);
+        } finally {
+            slot.exit();
+        }
+        return delivery().enqueue(this);
+    }
+
+    // The pipeline sends are queued on, started over a StubGateway on first use
+    public static MessageDelivery delivery() {
+        MessageDelivery d = delivery;
+        if (d != null) return d;
+        synchronized (Message.class) {
+            if (delivery == null) {
+                delivery = new MessageDelivery(new StubGateway(),
+                        Integer.getInteger("quickchat.delivery.workers", MessageDelivery.DEFAULT_WORKERS),
+                        Integer.getInteger("quickchat.delivery.queue", MessageDelivery.DEFAULT_QUEUE),
+                        MessageDelivery.Overflow.REJECT, MessageDelivery.DEFAULT_ATTEMPTS,
+                        MessageDelivery.daemonThreads(),
+                        Integer.getInteger("quickchat.delivery.batch", MessageDelivery.DEFAULT_BATCH),
+                        Long.getLong("quickchat.delivery.window", MessageDelivery.DEFAULT_BATCH_WINDOW_MS));
+            }
+            return delivery;
+        }
+    }
+
+    // Deliver through a different pipeline (e.g. one over a real gateway); the old one finishes
+    // what it has queued and stops. null goes back to the default on the next send
+    public static void setDelivery(MessageDelivery pipeline) {
+        MessageDelivery old;
+        synchronized (Message.class) {
+            old = delivery;
+            delivery = pipeline;
+        }
+        if (old != null && old != pipeline) old.close();
+    }
+
+    // Messages queued or being delivered (0 before the first send)
+    public static int pendingDeliveries() {
+        MessageDelivery d = delivery;
+        return d == null ? 0 : d.pending();
+    }
+
+    // Still in the sent list (not deleted or cleared since its last send)
+    boolean isSent() {
+        VersionedLog.Entry<Message> e = sentEntry;
+        return e != null && sentMessages.get(e.key) == this;
+    }
+
+    // Index helpers: a null key is never matched by the searches, so it is not indexed.
+    // compute() runs atomically per key, so an emptied bucket is never dropped while
+    // another thread is adding to it.
+    private static void addToIndex(Map<String, ConcurrentSkipListMap<Long, Message>> index,
+                                   String key, long seq, Message m) {
+        if (key == null) return;
+        index.compute(key, (k, bucket) -> {
+            if (bucket == null) bucket = new ConcurrentSkipListMap<>();
+            bucket.put(seq, m);
+            return bucket;
+        });
+    }
+
+    private static void removeFromIndex(Map<String, ConcurrentSkipListMap<Long, Message>> index,
+                                        String key, long seq) {
+        if (key == null) return;
+        index.computeIfPresent(key, (k, bucket) -> {
+            bucket.remove(seq);
+            return bucket.isEmpty() ? null : bucket;
+        });
+    }
+
+    private static Map.Entry<Long, Message> firstInIndex(Map<String, ConcurrentSkipListMap<Long, Message>> index,
+                                                         String key) {
+        ConcurrentSkipListMap<Long, Message> bucket = index.get(key);
+        return bucket == null ? null : bucket.firstEntry();
+    }
 
-        try (FileWriter writer = new FileWriter("stored_messages.json", true)) {
-            writer.write(json + System.lineSeparator());
+    // Save message to the configured store (stored_messages.json by default);
+    // package-private so HotPathBenchmark can time it on its own
+    void storeMessageJSON() {
+        long start = MessageMetrics.start();
+        try {
+            store().append(this);
         } catch (IOException e) {
             try {
                 JOptionPane.showMessageDialog(null, "Error writing JSON: " + e.getMessage());
             } catch (java.awt.HeadlessException ignored) {}
+        } finally {
+            MessageMetrics.STORE_JSON.stop(start);
+        }
+    }
+
+    private static synchronized MessageStore store() throws IOException {
+        if (store == null) {
+            store = MessageStore.open(storeFormat, storeDurability, storeBatchRecords, storeFlushIntervalMillis);
+            if (!storeShutdownHookAdded) {
+                Runtime.getRuntime().addShutdownHook(new Thread(Message::closeStore));
+                storeShutdownHookAdded = true;
+            }
         }
+        return store;
     }
 
-    private String safe(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    // Choose the storage format (JSON converts to BINARY the first time it is opened)
+    public static synchronized void setStorageFormat(MessageStore.Format format) {
+        closeStore();
+        storeFormat = format;
     }
 
-    // Load stored_messages.json
-    public static void loadStoredMessages() {
-        storedMessagesArray.clear();
-        Path path = Paths.get("stored_messages.json");
+    public static synchronized MessageStore.Format getStorageFormat() { return storeFormat; }
 
-        if (!Files.exists(path)) return;
+    // Choose how stored messages are batched and synced (takes effect on the next store)
+    public static synchronized void configureStoreWriter(GroupCommitWriter.Durability durability,
+                                                         int batchRecords, long flushIntervalMillis) {
+        closeStore();
+        storeDurability = durability;
+        storeBatchRecords = batchRecords;
+        storeFlushIntervalMillis = flushIntervalMillis;
+    }
 
+    // Push any batched stored messages out to the store file
+    public static synchronized void flushStoredMessages() {
+        if (store == null) return;
         try {
-            List<String> lines = Files.readAllLines(path);
-
-            for (String line : lines) {
-                String trimmed = line.trim();
-                if (trimmed.isEmpty()) continue;
+            store.flush();
+        } catch (IOException ignored) {}
+    }
 
-                String message = extractJsonValue(trimmed, "messageText");
-                if (message != null) storedMessagesArray.add(message);
-            }
+    // Rewrite the JSON store in the background without broken, superseded or duplicate
+    // records; completes with null for formats that do not compact
+    public static CompletableFuture<JsonMessageStore.Compaction> compactStoredMessages() {
+        try {
+            if (store() instanceof JsonMessageStore json) return json.compactAsync();
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
+    private static synchronized void closeStore() {
+        if (store == null) return;
+        try {
+            store.close();
         } catch (IOException ignored) {}
+        store = null;
     }
 
-    // Extract JSON field value
-    private static String extractJsonValue(String json, String key) {
-        String pattern = "\"" + key + "\":\"";
-        int idx = json.indexOf(pattern);
-        if (idx < 0) return null;
-
-        int start = idx + pattern.length();
-        int end = json.indexOf("\"", start);
-        if (end < 0) return null;
+    // Load stored messages (JSON is streamed in chunks and parsed in parallel);
+    // replaces the stored list wholesale, so do not run it during a snapshot
+    public static void loadStoredMessages() {
+        long start = MessageMetrics.start();
+        try {
+            storedMessages.forEach(Long.MAX_VALUE,
+                    (m, stamp) -> recipients.remove(MessageCategory.STORED, m.recipient, stamp));
+            storedMessages.clear();
+            lengthIndex.removeAll(MessageCategory.STORED);
+            textIndex.removeAll(MessageCategory.STORED);
+            timeIndex.removeAll(MessageCategory.STORED);
 
-        return json.substring(start, end);
+            try {
+                for (Message m : store().loadAll()) {
+                    // A message stored without valid text (too long, say) still counts, with empty text
+                    if (m.messageText == null) m.messageText = "";
+                    long stamp = sequence.incrementAndGet();
+                    storedMessages.append(stamp, m);
+                    lengthIndex.add(MessageCategory.STORED, m.messageText);
+                    textIndex.add(MessageCategory.STORED, stamp, m.messageText);
+                    recipients.add(MessageCategory.STORED, m.recipient, stamp, m);
+                    timeIndex.add(MessageCategory.STORED, stamp, m);
+                }
+            } catch (IOException e) {
+                // The WAL store cuts off torn tails itself; anything left is real damage worth reporting
+                System.err.println("Error reading stored messages: " + e.getMessage());
+                try {
+                    JOptionPane.showMessageDialog(null, "Error reading stored messages: " + e.getMessage());
+                } catch (java.awt.HeadlessException ignored) {}
+            }
+        } finally {
+            MessageMetrics.LOAD_STORED.stop(start);
+        }
     }
 
-    // Display sender + recipients
+    // Display sender + recipients (MessageReport can stream or page this instead)
     public static String displaySendersAndRecipients() {
-        StringBuilder sb = new StringBuilder();
-        for (Message m : sentMessages) {
-            sb.append("Sender: You\nRecipient: ").append(m.recipient).append("\n\n");
-        }
-        return sb.toString();
+        return MessageReport.sendersAndRecipients();
     }
 
     // Longest message (from all 3 categories)
     public static String getLongestMessage() {
-        String longest = "";
-
-        for (String s : sentMessageTexts)
-            if (s != null && s.length() > longest.length()) longest = s;
-
-        for (String s : storedMessagesArray)
-            if (s != null && s.length() > longest.length()) longest = s;
-
-        for (String s : disregardedMessages)
-            if (s != null && s.length() > longest.length()) longest = s;
-
-        if (longest.isEmpty()) return "No messages found.";
+        String longest = lengthIndex.longest();
+        if (longest == null) return "No messages found.";
         return longest;
     }
 
+    // The k longest messages (from all 3 categories), longest first
+    public static List<String> getLongestMessages(int k) {
+        return lengthIndex.topK(k);
+    }
+
     // Search by ID
     public static String searchByMessageID(String id) {
-        if (id == null) return "No message found with that ID.";
-        for (Message m : sentMessages) {
-            if (id.equals(m.messageID)) {
-                return "Recipient: " + m.recipient + "\nMessage: " + m.messageText;
-            }
+        long start = MessageMetrics.start();
+        try {
+            if (id == null) return "No message found with that ID.";
+            Map.Entry<Long, Message> entry = firstInIndex(messagesByID, id);
+            if (entry == null) return "No message found with that ID.";
+            Message m = entry.getValue();
+            return "Recipient: " + m.recipient + "\nMessage: " + m.messageText;
+        } finally {
+            MessageMetrics.SEARCH_BY_ID.stop(start);
         }
-        return "No message found with that ID.";
     }
 
     // Search by recipient
     public static List<String> searchByRecipient(String cell) {
-        List<String> results = new ArrayList<>();
-        if (cell == null) return results;
+        long start = MessageMetrics.start();
+        try {
+            List<String> results = new ArrayList<>();
+            if (cell == null) return results;
 
-        for (Message m : sentMessages) {
-            if (cell.equals(m.recipient)) {
-                results.add(m.messageText);
+            ConcurrentSkipListMap<Long, Message> bucket = messagesByRecipient.get(cell);
+            if (bucket != null) {
+                for (Message m : bucket.values()) results.add(m.messageText);
             }
+
+            // Stored messages to the same recipient
+            for (Message m : recipients.exact(cell, MessageCategory.STORED)) {
+                results.add(m.messageText == null ? "" : m.messageText);
+            }
+
+            return results;
+        } finally {
+            MessageMetrics.SEARCH_BY_RECIPIENT.stop(start);
         }
+    }
 
-        // Stored messages: only messageText available, so include all
-        results.addAll(storedMessagesArray);
+    // Sent then stored messages to every number starting with prefix (e.g. "+27" or "+2783")
+    public static List<String> searchByRecipientPrefix(String prefix) {
+        long start = MessageMetrics.start();
+        try {
+            List<String> results = new ArrayList<>();
+            for (Message m : recipients.withPrefix(prefix, MessageCategory.SENT)) {
+                results.add(m.messageText == null ? "" : m.messageText);
+            }
+            for (Message m : recipients.withPrefix(prefix, MessageCategory.STORED)) {
+                results.add(m.messageText == null ? "" : m.messageText);
+            }
+            return results;
+        } finally {
+            MessageMetrics.SEARCH_BY_PREFIX.stop(start);
+        }
+    }
 
-        return results;
+    // Number of sent and stored messages to numbers starting with prefix
+    public static int countByRecipientPrefix(String prefix) {
+        return recipients.count(prefix, MessageCategory.SENT)
+                + recipients.count(prefix, MessageCategory.STORED);
     }
 
-    // Delete by hash
-    public static String deleteByHash(String hash) {
-        if (hash == null) return "No message found with that hash.";
+    // Sent and stored counts grouped by the next digits after prefix, e.g. ("+27", 2) -> {"+2760": 3, ...}
+    public static Map<String, Integer> countsByRecipientPrefix(String prefix, int digits) {
+        Map<String, Integer> counts = new TreeMap<>(recipients.countsByPrefix(prefix, digits, MessageCategory.SENT));
+        recipients.countsByPrefix(prefix, digits, MessageCategory.STORED).forEach((k, v) -> counts.merge(k, v, Integer::sum));
+        return counts;
+    }
+
+    // Search all three categories by words in the text (case-insensitive, oldest first)
+    public static List<String> searchAllWords(String words) {
+        long start = MessageMetrics.start();
+        try {
+            return texts(textIndex.all(words));
+        } finally {
+            MessageMetrics.SEARCH_WORDS.stop(start);
+        }
+    }
 
-        for (int i = 0; i < sentMessages.size(); i++) {
-            Message m = sentMessages.get(i);
+    public static List<String> searchAnyWord(String words) {
+        long start = MessageMetrics.start();
+        try {
+            return texts(textIndex.any(words));
+        } finally {
+            MessageMetrics.SEARCH_WORDS.stop(start);
+        }
+    }
 
-            if (hash.equals(m.messageHash)) {
-                String text = m.messageText;
+    public static List<String> searchPhrase(String phrase) {
+        long start = MessageMetrics.start();
+        try {
+            return texts(textIndex.phrase(phrase));
+        } finally {
+            MessageMetrics.SEARCH_WORDS.stop(start);
+        }
+    }
 
-                sentMessageTexts.remove(text);
-                messageHashes.remove(hash);
-                messageIDs.remove(m.messageID);
+    private static List<String> texts(List<MessageTextIndex.Hit> hits) {
+        List<String> texts = new ArrayList<>(hits.size());
+        for (MessageTextIndex.Hit hit : hits) texts.add(hit.getText());
+        return texts;
+    }
 
-                sentMessages.remove(i);
+    // Sent messages from fromMillis (inclusive) to toMillis (exclusive), oldest first
+    public static List<Message> getMessagesBetween(long fromMillis, long toMillis) {
+        long start = MessageMetrics.start();
+        try {
+            return timeIndex.range(fromMillis, toMillis, MessageCategory.SENT, null, Integer.MAX_VALUE).getMessages();
+        } finally {
+            MessageMetrics.SEARCH_TIME.stop(start);
+        }
+    }
 
-                return "Message \"" + text + "\" Successfully deleted.";
-            }
+    // Messages sent to cell in that time range, e.g. (now - one hour, now + 1) for the last hour
+    public static List<Message> getMessagesSentTo(String cell, long fromMillis, long toMillis) {
+        long start = MessageMetrics.start();
+        try {
+            return timeIndex.timeline(cell, fromMillis, toMillis, MessageCategory.SENT, null, Integer.MAX_VALUE)
+                    .getMessages();
+        } finally {
+            MessageMetrics.SEARCH_TIME.stop(start);
         }
+    }
 
-        return "No message found with that hash.";
+    // One page of the sent messages in a time range; pass null as the token for the first page
+    public static MessageTimeIndex.Page sentBetweenPage(long fromMillis, long toMillis, String token, int limit) {
+        long start = MessageMetrics.start();
+        try {
+            return timeIndex.range(fromMillis, toMillis, MessageCategory.SENT, token, limit);
+        } finally {
+            MessageMetrics.SEARCH_TIME.stop(start);
+        }
     }
 
-    // Full report
-    public static String displayFullReport() {
-        if (sentMessages.isEmpty()) return "No sent messages.";
-
-        StringBuilder sb = new StringBuilder();
-        for (Message m : sentMessages) {
-            sb.append("Message ID: ").append(m.messageID).append("\n");
-            sb.append("Hash: ").append(m.messageHash).append("\n");
-            sb.append("Recipient: ").append(m.recipient).append("\n");
-            sb.append("Message: ").append(m.messageText).append("\n");
-            sb.append("----------------------------------\n");
+    // One page of the conversation with cell: everything sent and stored to it, oldest first
+    public static MessageTimeIndex.Page timelinePage(String cell, String token, int limit) {
+        long start = MessageMetrics.start();
+        try {
+            return timeIndex.timeline(cell, Long.MIN_VALUE, Long.MAX_VALUE, null, token, limit);
+        } finally {
+            MessageMetrics.SEARCH_TIME.stop(start);
         }
-        return sb.toString();
     }
 
-    // Clear arrays (for unit tests)
+    // The word index itself, for callers that want each hit's category and sequence
+    static MessageTextIndex textIndex() { return textIndex; }
+
+    // Delete by hash
+    public static String deleteByHash(String hash) {
+        long start = MessageMetrics.start();
+        try {
+            if (hash == null) return "No message found with that hash.";
+
+            InFlightOps.Slot slot = InFlightOps.slot();
+            slot.enter();
+            try {
+                while (true) {
+                    Map.Entry<Long, Message> entry = firstInIndex(messagesByHash, hash);
+                    if (entry == null) return "No message found with that hash.";
+
+                    long seq = entry.getKey();
+                    Message m = entry.getValue();
+
+                    // Only one thread can claim a message; a loser looks again for the next match.
+                    // The claim goes in before the removal, so a snapshot that misses the message
+                    // in sentMessages finds it in the graveyard
+                    Tomb tomb = new Tomb(m);
+                    if (graveyard.putIfAbsent(seq, tomb) != null) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    synchronized (deleteLock) {
+                        tomb.stamp = sequence.incrementAndGet();
+                        deleteCount++;
+                    }
+                    slot.publish(tomb.stamp);
+
+                    if (!sentMessages.remove(seq, m)) {
+                        graveyard.remove(seq, tomb);
+                        continue;
+                    }
+                    VersionedLog.Entry<Message> logged = m.sentEntry;
+                    sentLog.remove(logged != null && logged.key == seq ? logged : sentLog.find(seq));
+                    removeFromIndex(messagesByID, m.messageID, seq);
+                    removeFromIndex(messagesByRecipient, m.recipient, seq);
+                    removeFromIndex(messagesByHash, m.messageHash, seq);
+                    lengthIndex.remove(MessageCategory.SENT, seq, m.messageText);
+                    textIndex.remove(seq, m.messageText);
+                    recipients.remove(MessageCategory.SENT, m.recipient, seq);
+                    timeIndex.remove(seq);
+
+                    tomb.done = true;
+                    if (!InFlightOps.capturing()) graveyard.remove(seq, tomb);
+
+                    return "Message \"" + m.messageText + "\" Successfully deleted.";
+                }
+            } finally {
+                slot.exit();
+            }
+        } finally {
+            MessageMetrics.DELETE.stop(start);
+        }
+    }
+
+    // Full report (MessageReport can stream or page this instead)
+    public static String displayFullReport() {
+        return MessageReport.fullReport();
+    }
+
+    // Read-only view of sent messages keyed by send sequence (for streaming and paging)
+    static NavigableMap<Long, Message> sentMessagesBySequence() {
+        return Collections.unmodifiableNavigableMap(sentMessages);
+    }
+
+    // Clear arrays (for unit tests); also releases the stored-messages file
     public static void clearAllMemoryData() {
+        closeStore();
         sentMessages.clear();
-        sentMessageTexts.clear();
+        sentLog.clear();
+        messagesByID.clear();
+        messagesByRecipient.clear();
+        messagesByHash.clear();
         disregardedMessages.clear();
-        storedMessagesArray.clear();
-        messageHashes.clear();
-        messageIDs.clear();
-        totalMessagesSent = 0;
-    }
-
-    public static List<String> getSentMessageTexts() { return new ArrayList<>(sentMessageTexts); }
-    public static List<String> getDisregardedMessages() { return new ArrayList<>(disregardedMessages); }
-    public static List<String> getStoredMessagesArray() { return new ArrayList<>(storedMessagesArray); }
-    public static List<String> getMessageHashes() { return new ArrayList<>(messageHashes); }
-    public static List<String> getMessageIDs() { return new ArrayList<>(messageIDs); }
-    public static List<Message> getAllMessages() { return new ArrayList<>(sentMessages); }
-    public static int returnTotalMessages() { return totalMessagesSent; }
+        storedMessages.clear();
+        graveyard.clear();
+        lengthIndex.clear();
+        textIndex.clear();
+        recipients.clear();
+        timeIndex.clear();
+        totalMessagesSent.reset();
+        synchronized (deleteLock) {
+            deletedBase = deleteCount;
+        }
+    }
+
+    // Point-in-time copy of all message state, taken while other threads keep going
+    static MessageSnapshot.State captureState() {
+        synchronized (snapshotLock) {
+            MessageSnapshot.State state = new MessageSnapshot.State();
+            InFlightOps.beginCapture();
+            try {
+                // Deletes stamped at or below the cut each removed a send below it
+                long cut, deleted;
+                synchronized (deleteLock) {
+                    cut = sequence.get();
+                    deleted = deleteCount - deletedBase;
+                }
+                InFlightOps.awaitCut(cut);
+
+                state.createdMillis = System.currentTimeMillis();
+                state.sequence = cut;
+                collectSent(state, cut);
+                state.totalSent = state.sent.size() + deleted;
+                state.disregarded = new ArrayList<>();
+                disregardedMessages.forEach(cut, (text, stamp) -> state.disregarded.add(text));
+                state.stored = new ArrayList<>();
+                storedMessages.forEach(cut, (m, stamp) -> state.stored.add(m));
+            } finally {
+                InFlightOps.endCapture();
+                graveyard.values().removeIf(t -> t.done);
+            }
+            return state;
+        }
+    }
+
+    // Sent messages at or below the cut, plus those deleted after it
+    private static void collectSent(MessageSnapshot.State state, long cut) {
+        List<Map.Entry<Long, Message>> live = new ArrayList<>(sentMessages.headMap(cut, true).entrySet());
+
+        // Read after the live copy: a message it missed was claimed here first.
+        // An unstamped claim will be stamped above the cut
+        NavigableMap<Long, Message> deleted = new TreeMap<>();
+        graveyard.forEach((seq, tomb) -> {
+            long stamp = tomb.stamp;
+            if (seq <= cut && (stamp == 0 || stamp > cut)) deleted.put(seq, tomb.message);
+        });
+
+        // Merge the two by send sequence; a message in both is taken once
+        long[] seqs = new long[live.size() + deleted.size()];
+        List<Message> sent = new ArrayList<>(seqs.length);
+        int i = 0, n = 0;
+        Iterator<Map.Entry<Long, Message>> late = deleted.entrySet().iterator();
+        Map.Entry<Long, Message> next = late.hasNext() ? late.next() : null;
+        while (i < live.size() || next != null) {
+            Map.Entry<Long, Message> e;
+            if (next == null || (i < live.size() && live.get(i).getKey() <= next.getKey())) {
+                e = live.get(i++);
+                if (next != null && next.getKey().equals(e.getKey())) next = late.hasNext() ? late.next() : null;
+            } else {
+                e = next;
+                next = late.hasNext() ? late.next() : null;
+            }
+            seqs[n++] = e.getKey();
+            sent.add(e.getValue());
+        }
+        state.sentSequences = Arrays.copyOf(seqs, n);
+        state.sent = sent;
+    }
+
+    // Replace all in-memory state with a snapshot's (the stored-messages file is left alone)
+    static void restoreState(MessageSnapshot.State state) {
+        synchronized (snapshotLock) {
+            clearAllMemoryData();
+
+            // Rebuilding the structures is most of the work, and each is independent
+            long[] seqs = state.sentSequences;
+            List<Message> sent = state.sent;
+            CompletableFuture.allOf(
+                    CompletableFuture.runAsync(() -> {
+                        for (int i = 0; i < sent.size(); i++) {
+                            sentMessages.put(seqs[i], sent.get(i));
+                            sent.get(i).sentEntry = sentLog.append(seqs[i], sent.get(i));
+                            lengthIndex.add(MessageCategory.SENT, seqs[i], sent.get(i).messageText);
+                        }
+                    }),
+                    CompletableFuture.runAsync(() -> {
+                        for (int i = 0; i < sent.size(); i++) addToIndex(messagesByID, sent.get(i).messageID, seqs[i], sent.get(i));
+                    }),
+                    CompletableFuture.runAsync(() -> {
+                        for (int i = 0; i < sent.size(); i++) addToIndex(messagesByRecipient, sent.get(i).recipient, seqs[i], sent.get(i));
+                    }),
+                    CompletableFuture.runAsync(() -> {
+                        for (int i = 0; i < sent.size(); i++) addToIndex(messagesByHash, sent.get(i).messageHash, seqs[i], sent.get(i));
+                    }),
+                    CompletableFuture.runAsync(() -> {
+                        for (int i = 0; i < sent.size(); i++) {
+                            textIndex.add(MessageCategory.SENT, seqs[i], sent.get(i).messageText);
+                        }
+                    }),
+                    CompletableFuture.runAsync(() -> {
+                        for (int i = 0; i < sent.size(); i++) {
+                            recipients.add(MessageCategory.SENT, sent.get(i).recipient, seqs[i], sent.get(i));
+                        }
+                    }),
+                    CompletableFuture.runAsync(() -> {
+                        for (int i = 0; i < sent.size(); i++) timeIndex.add(MessageCategory.SENT, seqs[i], sent.get(i));
+                    })).join();
+
+            for (String text : state.disregarded) {
+                long stamp = sequence.incrementAndGet();
+                disregardedMessages.append(stamp, text);
+                lengthIndex.add(MessageCategory.DISREGARDED, text);
+                textIndex.add(MessageCategory.DISREGARDED, stamp, text);
+            }
+            for (Message m : state.stored) {
+                long stamp = sequence.incrementAndGet();
+                storedMessages.append(stamp, m);
+                lengthIndex.add(MessageCategory.STORED, m.messageText);
+                textIndex.add(MessageCategory.STORED, stamp, m.messageText);
+                recipients.add(MessageCategory.STORED, m.recipient, stamp, m);
+                timeIndex.add(MessageCategory.STORED, stamp, m);
+            }
+
+            // New sends carry on after the restored ones
+            sequence.accumulateAndGet(state.sequence, Math::max);
+            synchronized (deleteLock) {
+                deletedBase = deleteCount - (state.totalSent - state.sent.size());
+            }
+            totalMessagesSent.add(state.totalSent);
+        }
+    }
+
+    // Save all message state to file; returns the number of bytes written
+    public static long writeSnapshot(Path file) throws IOException {
+        return MessageSnapshot.write(file, captureState());
+    }
+
+    // Replace all message state with the snapshot in file; false if there is none
+    public static boolean restoreSnapshot(Path file) throws IOException {
+        if (!Files.exists(file)) return false;
+        restoreState(MessageSnapshot.read(file));
+        return true;
+    }
+
+    // Snapshot to file every intervalMillis, and once more at shutdown
+    public static synchronized void startSnapshots(Path file, long intervalMillis) {
+        if (intervalMillis <= 0) throw new IllegalArgumentException("intervalMillis must be positive");
+        stopSnapshots();
+        snapshotFile = file;
+        snapshots = MessageSnapshot.schedule(file, intervalMillis);
+        if (!snapshotShutdownHookAdded) {
+            Runtime.getRuntime().addShutdownHook(new Thread(Message::stopSnapshots));
+            snapshotShutdownHookAdded = true;
+        }
+    }
+
+    // Cancel periodic snapshots, writing a last one so nothing since the previous is lost
+    public static synchronized void stopSnapshots() {
+        if (snapshots == null) return;
+        snapshots.cancel(false);
+        snapshots = null;
+        try {
+            writeSnapshot(snapshotFile);
+        } catch (IOException e) {
+            System.err.println("Error writing snapshot: " + e.getMessage());
+        }
+    }
+
+    // Each of these is an O(1) immutable view (see VersionedLog), not a copy
+    public static List<String> getSentMessageTexts() { return sentLog.view(m -> m.messageText == null ? "" : m.messageText); }
+    public static List<String> getDisregardedMessages() { return disregardedMessages.view(text -> text); }
+    public static List<String> getStoredMessagesArray() { return storedMessages.view(m -> m.messageText == null ? "" : m.messageText); }
+    public static List<String> getMessageHashes() { return sentLog.view(m -> m.messageHash == null ? "" : m.messageHash); }
+    public static List<String> getMessageIDs() { return sentLog.view(m -> m.messageID == null ? "" : m.messageID); }
+    public static List<Message> getStoredMessages() { return storedMessages.view(m -> m); }
+    public static List<Message> getAllMessages() { return sentLog.view(m -> m); }
+    public static int returnTotalMessages() { return totalMessagesSent.intValue(); }
 
     public Object printMessage() {
         // TODO Auto-generated method stub
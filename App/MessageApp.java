@@ -1,7 +1,43 @@
 import javax.swing.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 public class MessageApp {
     public static void main(String[] args) {
+        // Bulk mode without dialogs: MessageApp --headless [--format jsonl|csv] [--batch N] [file | -]
+        if (args.length > 0 && args[0].equals("--headless")) {
+            try {
+                HeadlessIngest.main(Arrays.copyOfRange(args, 1, args.length));
+            } catch (IOException e) {
+                System.err.println("Could not read the messages: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
+        // Pick up where the last run left off, then keep snapshotting (0 turns this off)
+        long snapshotInterval = Long.getLong("quickchat.snapshot.interval", 60_000L);
+        if (snapshotInterval > 0) {
+            Path snapshot = Paths.get(MessageSnapshot.DEFAULT_FILE);
+            try {
+                Message.restoreSnapshot(snapshot);
+            } catch (IOException e) {
+                System.err.println("Ignoring snapshot: " + e.getMessage());
+                JOptionPane.showMessageDialog(null, "Your saved messages could not be restored, so QuickChat is starting empty.");
+            }
+            Message.startSnapshots(snapshot, snapshotInterval);
+        }
+
+        // Timings and store sizes over JMX (e.g. jconsole); -Dquickchat.metrics.dump=true also prints them on exit
+        if (MessageMetrics.isEnabled()) {
+            MessageMetrics.registerMBeans();
+            if (Boolean.getBoolean("quickchat.metrics.dump")) {
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.print(MessageMetrics.dump())));
+            }
+        }
+
         Login login = new Login("", "");
 
         // Registration
@@ -23,7 +59,8 @@ public class MessageApp {
             loginStatus = login.authenticate(loginUsername, loginPassword);
 
             if (loginStatus) break;
-            if (login.isLocked()) {
+            // The third miss ends the session whichever names were typed; the directory may lock one sooner
+            if (login.isLocked(loginUsername) || i == 3) {
                 JOptionPane.showMessageDialog(null, "Too many failed attempts. Exiting.");
                 System.exit(0);
             } else {
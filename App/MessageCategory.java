@@ -0,0 +1,7 @@
+/**
+ * Which of the three lists a message is kept in: sent, stored or
+ * disregarded. The indexes key their entries by it, and declaration order
+ * is the tie-break order when two entries are otherwise equal (sent before
+ * stored before disregarded).
+ */
+public enum MessageCategory { SENT, STORED, DISREGARDED }
@@ -0,0 +1,129 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Stress tests for many threads sending, disregarding, searching and
+ * deleting at once: nothing may be lost or counted twice.
+ */
+public class MessageConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int PER_THREAD = 5_000;
+
+    @BeforeEach
+    public void setup() {
+        Message.clearAllMemoryData();
+        try {
+            Files.deleteIfExists(Paths.get("stored_messages.json"));
+        } catch (Exception ignored) {}
+    }
+
+    // Thread t sends IDs (t+1)000000000 + i, so every ID is distinct and known
+    private static String id(int thread, int i) {
+        return String.valueOf((thread + 1) * 1_000_000_000L + i);
+    }
+
+    private static void runAll(List<Runnable> tasks) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(tasks.size());
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (Runnable task : tasks) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                task.run();
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) f.get(60, TimeUnit.SECONDS);
+        pool.shutdown();
+    }
+
+    @Test
+    public void concurrentSendsAreNeitherLostNorDuplicated() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            tasks.add(() -> {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    Message m = new Message(i);
+                    m.setMessageID(id(thread, i));
+                    m.checkRecipientCell("+2783000000" + thread);
+                    m.checkMessageLength("Message " + thread + "-" + i);
+                    m.createMessageHash();
+                    m.sendMessage(i % 10 == 0 ? "disregard" : "send");
+                }
+            });
+        }
+        runAll(tasks);
+
+        int expectedSent = THREADS * (PER_THREAD - PER_THREAD / 10);
+        assertEquals(expectedSent, Message.returnTotalMessages());
+        assertEquals(expectedSent, Message.getAllMessages().size());
+        assertEquals(THREADS * PER_THREAD / 10, Message.getDisregardedMessages().size());
+
+        List<String> ids = Message.getMessageIDs();
+        assertEquals(expectedSent, new HashSet<>(ids).size(), "Every sent ID must appear exactly once.");
+
+        for (int t = 0; t < THREADS; t++) {
+            assertEquals(PER_THREAD - PER_THREAD / 10, Message.searchByRecipient("+2783000000" + t).size());
+            assertTrue(Message.searchByMessageID(id(t, PER_THREAD - 1)).contains("Message " + t + "-"));
+        }
+    }
+
+    @Test
+    public void concurrentDeletesRemoveEachMessageOnce() throws Exception {
+        // Same hash for every message: deleters race for the first match each time
+        int total = THREADS * 2_000;
+        for (int i = 0; i < total; i++) {
+            Message m = new Message(1);
+            m.setMessageID(String.valueOf(1_000_000_000L + i));
+            m.checkRecipientCell("+27830000001");
+            m.checkMessageLength("Same hash " + i + "x");
+            m.createMessageHash();
+            m.sendMessage("send");
+        }
+        String hash = Message.getMessageHashes().get(0);
+        assertEquals(total, Message.getMessageHashes().stream().filter(hash::equals).count());
+
+        Set<String> deleted = java.util.concurrent.ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicInteger misses = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            tasks.add(() -> {
+                for (int i = 0; i < total / THREADS; i++) {
+                    String result = Message.deleteByHash(hash);
+                    if (!result.endsWith("Successfully deleted.")) {
+                        misses.incrementAndGet();
+                    } else if (!deleted.add(result)) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            });
+        }
+        runAll(tasks);
+
+        assertEquals(0, duplicates.get(), "No message may be deleted twice.");
+        assertEquals(0, misses.get(), "Every delete had a message left to remove.");
+        assertEquals(total, deleted.size());
+        assertTrue(Message.getAllMessages().isEmpty());
+        assertEquals("No message found with that hash.", Message.deleteByHash(hash));
+        assertEquals("No message found with that ID.", Message.searchByMessageID("1000000000"));
+    }
+}
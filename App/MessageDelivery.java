@@ -0,0 +1,341 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outbound delivery for sent messages. sendMessage("send") puts the message
+ * on a bounded queue and returns; a fixed set of worker threads takes
+ * messages off it and hands them to a MessageTransport. A send therefore
+ * costs one queue offer however slow the transport is.
+ *
+ * The queue is split into one lane per worker, and every message to a
+ * recipient goes down the same lane, so messages to one recipient are
+ * delivered in the order they were sent. A worker gathers what it takes
+ * off its lane into a batch per recipient and hands the batch to the
+ * transport in one call once it holds batchSize messages, or once the
+ * oldest message in it has waited batchWindowMillis. A window of 0 never
+ * waits: each time a worker wakes it takes everything already on its lane
+ * and sends it in as few calls as the batch size allows, so batching only
+ * kicks in when messages pile up. A batch size of 1 turns batching off.
+ *
+ * When a lane is full the pipeline pushes back: by default the message is
+ * rejected straight away (status REJECTED), like the login verification
+ * pool does, so the sender never waits; with Overflow.BLOCK the sender waits
+ * for room instead. A transport failure is retried a few times with a short
+ * pause before the message (or the whole batch) is marked FAILED, and a
+ * message deleted before its batch went out is dropped as CANCELLED.
+ *
+ * Interrupting a worker closes the pipeline; the messages it had not yet
+ * handed to the transport are rejected.
+ *
+ * Each message carries its own delivery status (Message.getDeliveryStatus).
+ * Workers come from a ThreadFactory, daemon platform threads by default; on
+ * Java 21 and later Thread.ofVirtual().factory() can be passed instead.
+ */
+public class MessageDelivery implements AutoCloseable {
+
+    public enum Status {
+        QUEUED,      // waiting for a worker
+        DELIVERING,  // handed to the transport
+        DELIVERED,
+        FAILED,      // every attempt threw
+        REJECTED,    // the queue was full (or the pipeline closed)
+        CANCELLED    // deleted before a worker got to it
+    }
+
+    public enum Overflow {
+        REJECT,  // fail the send at once when the queue is full
+        BLOCK    // make the sender wait for room
+    }
+
+    public static final int DEFAULT_WORKERS = 4;
+    public static final int DEFAULT_QUEUE = 10_000;
+    public static final int DEFAULT_ATTEMPTS = 3;
+    public static final int DEFAULT_BATCH = 32;
+    public static final long DEFAULT_BATCH_WINDOW_MS = 0;
+    static final long RETRY_PAUSE_MILLIS = 10;
+
+    // How long an idle worker waits before checking whether the pipeline closed
+    private static final long POLL_MILLIS = 100;
+
+    // Messages to one recipient waiting in a worker for their call
+    private static final class Batch {
+        final String recipient;
+        final long deadline;
+        final List<Message> messages = new ArrayList<>();
+
+        Batch(String recipient, long deadline) {
+            this.recipient = recipient;
+            this.deadline = deadline;
+        }
+    }
+
+    private final MessageTransport transport;
+    private final List<BlockingQueue<Message>> lanes = new ArrayList<>();
+    private final Overflow overflow;
+    private final int maxAttempts;
+    private final int batchSize;
+    private final long batchWindowNanos;
+    private final List<Thread> workers = new ArrayList<>();
+
+    // Messages queued or being delivered, so awaitIdle knows when everything is done
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+    private volatile boolean closed = false;
+
+    public MessageDelivery(MessageTransport transport) {
+        this(transport, DEFAULT_WORKERS, DEFAULT_QUEUE, Overflow.REJECT, DEFAULT_ATTEMPTS, daemonThreads(),
+                DEFAULT_BATCH, DEFAULT_BATCH_WINDOW_MS);
+    }
+
+    // One message per call
+    public MessageDelivery(MessageTransport transport, int workers, int queueCapacity, Overflow overflow,
+                           int maxAttempts, ThreadFactory threadFactory) {
+        this(transport, workers, queueCapacity, overflow, maxAttempts, threadFactory, 1, 0);
+    }
+
+    // queueCapacity is shared out evenly between the workers' lanes
+    public MessageDelivery(MessageTransport transport, int workers, int queueCapacity, Overflow overflow,
+                           int maxAttempts, ThreadFactory threadFactory, int batchSize, long batchWindowMillis) {
+        if (workers < 1 || queueCapacity < 1 || maxAttempts < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Workers, queue size, attempts and batch size must be positive.");
+        }
+        if (batchWindowMillis < 0) throw new IllegalArgumentException("Batch window must not be negative.");
+        this.transport = transport;
+        this.overflow = overflow == null ? Overflow.REJECT : overflow;
+        this.maxAttempts = maxAttempts;
+        this.batchSize = batchSize;
+        this.batchWindowNanos = TimeUnit.MILLISECONDS.toNanos(batchWindowMillis);
+        int laneCapacity = Math.max(1, (queueCapacity + workers - 1) / workers);
+        for (int i = 0; i < workers; i++) lanes.add(new ArrayBlockingQueue<>(laneCapacity));
+        for (BlockingQueue<Message> lane : lanes) {
+            Thread t = threadFactory.newThread(() -> work(lane));
+            this.workers.add(t);
+            t.start();
+        }
+    }
+
+    // Platform daemon threads named quickchat-delivery-N
+    public static ThreadFactory daemonThreads() {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "quickchat-delivery-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // Queue m for delivery; false (and status REJECTED) if there was no room
+    public boolean enqueue(Message m) {
+        m.setDeliveryStatus(Status.QUEUED);
+        pending.incrementAndGet();
+        BlockingQueue<Message> lane = lanes.get(Math.floorMod(key(m).hashCode(), lanes.size()));
+        boolean queued = false;
+        if (!closed) {
+            if (overflow == Overflow.BLOCK) {
+                try {
+                    lane.put(m);
+                    queued = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                queued = lane.offer(m);
+            }
+        }
+        if (!queued) reject(m);
+        return queued;
+    }
+
+    private void reject(Message m) {
+        m.setDeliveryStatus(Status.REJECTED);
+        rejected.increment();
+        done();
+    }
+
+    private void rejectAll(BlockingQueue<Message> lane) {
+        Message m;
+        while ((m = lane.poll()) != null) reject(m);
+    }
+
+    private static String key(Message m) {
+        return m.getRecipient() == null ? "" : m.getRecipient();
+    }
+
+    private void work(BlockingQueue<Message> lane) {
+        // Open batches in the order they were opened, so the first one is always due first
+        Map<String, Batch> open = new LinkedHashMap<>();
+        List<Message> taken = new ArrayList<>();
+        while (true) {
+            Message m;
+            try {
+                long wait = open.isEmpty() ? TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS)
+                        : open.values().iterator().next().deadline - System.nanoTime();
+                m = wait > 0 ? lane.poll(wait, TimeUnit.NANOSECONDS) : lane.poll();
+            } catch (InterruptedException e) {
+                // Interrupting a worker shuts the pipeline down: what it holds is settled, not lost
+                closed = true;
+                for (Batch batch : open.values()) batch.messages.forEach(this::reject);
+                open.clear();
+                rejectAll(lane);
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (m != null) {
+                taken.add(m);
+                // With no window, whatever else is already queued goes out with it
+                if (batchWindowNanos == 0 && batchSize > 1) lane.drainTo(taken);
+                for (Message t : taken) add(open, t);
+                taken.clear();
+            }
+            if (batchWindowNanos == 0 || closed) flushAll(open);
+            else flushDue(open);
+
+            if (m == null && closed && lane.isEmpty()) return;
+        }
+    }
+
+    private void add(Map<String, Batch> open, Message m) {
+        Batch batch = open.computeIfAbsent(key(m), r -> new Batch(r, System.nanoTime() + batchWindowNanos));
+        batch.messages.add(m);
+        if (batch.messages.size() >= batchSize) {
+            open.remove(batch.recipient);
+            send(batch);
+        }
+    }
+
+    private void flushDue(Map<String, Batch> open) {
+        long now = System.nanoTime();
+        Iterator<Batch> it = open.values().iterator();
+        while (it.hasNext()) {
+            Batch batch = it.next();
+            if (batch.deadline - now > 0) break;
+            it.remove();
+            send(batch);
+        }
+    }
+
+    private void flushAll(Map<String, Batch> open) {
+        for (Batch batch : open.values()) send(batch);
+        open.clear();
+    }
+
+    private void send(Batch batch) {
+        List<Message> live = new ArrayList<>(batch.messages.size());
+        for (Message m : batch.messages) {
+            if (m.isSent()) {
+                m.setDeliveryStatus(Status.DELIVERING);
+                live.add(m);
+            } else {
+                m.setDeliveryStatus(Status.CANCELLED);
+                cancelled.increment();
+                done();
+            }
+        }
+        if (live.isEmpty()) return;
+
+        Status outcome = Status.FAILED;
+        Exception last = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            long start = MessageMetrics.start();
+            calls.increment();
+            try {
+                if (live.size() == 1) transport.deliver(live.get(0));
+                else transport.deliverBatch(batch.recipient, live);
+                outcome = Status.DELIVERED;
+                break;
+            } catch (IOException | RuntimeException e) {
+                last = e;
+            } finally {
+                MessageMetrics.DELIVER.stop(start);
+            }
+            if (attempt < maxAttempts && !pause(attempt * RETRY_PAUSE_MILLIS)) break;
+        }
+
+        for (Message m : live) m.setDeliveryStatus(outcome);
+        (outcome == Status.DELIVERED ? delivered : failed).add(live.size());
+        if (outcome == Status.FAILED) {
+            System.err.println("Delivery of " + live.size() + " message(s) to " + batch.recipient + " failed: "
+                    + last.getMessage());
+        }
+        for (int i = 0; i < live.size(); i++) done();
+    }
+
+    private static boolean pause(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void done() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (pending) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    // Wait until everything queued so far has been delivered, failed or cancelled
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (pending) {
+            while (pending.get() > 0) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) return false;
+                pending.wait(left);
+            }
+        }
+        return true;
+    }
+
+    // Messages queued or being delivered right now
+    public int pending() { return pending.get(); }
+
+    public long delivered() { return delivered.sum(); }
+    public long failed() { return failed.sum(); }
+    public long rejected() { return rejected.sum(); }
+    public long cancelled() { return cancelled.sum(); }
+
+    // Transport calls made, counting each batch and each retry once
+    public long calls() { return calls.sum(); }
+
+    public MessageTransport transport() { return transport; }
+
+    // Stop taking messages; the workers send what is already queued (without waiting out
+    // the batch window) and then exit. If the wait is interrupted, whatever is still
+    // queued is rejected instead
+    @Override
+    public void close() {
+        closed = true;
+        boolean interrupted = false;
+        for (Thread t : workers) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                break;
+            }
+        }
+        // Also catches a send that raced with close and got in after the workers left
+        for (BlockingQueue<Message> lane : lanes) rejectAll(lane);
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,350 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageDeliveryTest {
+
+    // Holds every delivery until released, and says when the first one has started
+    private static final class GatedTransport extends StubGateway {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        GatedTransport() {
+            super(0, true);
+        }
+
+        @Override
+        public void deliver(Message m) throws java.io.IOException {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.deliver(m);
+        }
+    }
+
+    // Keeps every call's messages, one list per call
+    private static final class BatchRecorder implements MessageTransport {
+        final List<List<Message>> batches = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void deliver(Message m) {
+            batches.add(List.of(m));
+        }
+
+        @Override
+        public void deliverBatch(String recipient, List<Message> batch) {
+            for (Message m : batch) assertEquals(recipient, m.getRecipient());
+            batches.add(new ArrayList<>(batch));
+        }
+    }
+
+    @BeforeEach
+    public void setup() throws Exception {
+        Message.clearAllMemoryData();
+        Files.deleteIfExists(Paths.get("stored_messages.json"));
+    }
+
+    @AfterEach
+    public void cleanup() throws Exception {
+        Message.setDelivery(null);
+        Message.clearAllMemoryData();
+        Files.deleteIfExists(Paths.get("stored_messages.json"));
+    }
+
+    private static Message message(int number, String text) {
+        return message(number, "+27838884567", text);
+    }
+
+    private static Message message(int number, String cell, String text) {
+        Message m = new Message(number);
+        m.checkRecipientCell(cell);
+        m.checkMessageLength(text);
+        m.createMessageHash();
+        return m;
+    }
+
+    private static MessageDelivery pipeline(MessageTransport transport, int workers, int queue) {
+        return new MessageDelivery(transport, workers, queue, MessageDelivery.Overflow.REJECT, 3,
+                MessageDelivery.daemonThreads());
+    }
+
+    private static MessageDelivery batching(MessageTransport transport, int workers, int batch, long windowMillis) {
+        return new MessageDelivery(transport, workers, 1_000, MessageDelivery.Overflow.BLOCK, 3,
+                MessageDelivery.daemonThreads(), batch, windowMillis);
+    }
+
+    @Test
+    public void sendReturnsBeforeASlowTransportFinishes() throws Exception {
+        GatedTransport gateway = new GatedTransport();
+        MessageDelivery delivery = pipeline(gateway, 2, 100);
+        Message.setDelivery(delivery);
+
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Message m = message(i, "Message " + i);
+            assertEquals("Message successfully sent.", m.sendMessage("send"));
+            sent.add(m);
+        }
+        // Nothing has been delivered, yet every send has returned
+        assertEquals(0, gateway.count());
+        for (Message m : sent) {
+            assertNotEquals(MessageDelivery.Status.DELIVERED, m.getDeliveryStatus());
+        }
+        assertEquals(20, Message.pendingDeliveries());
+
+        gateway.release.countDown();
+        assertTrue(delivery.awaitIdle(5_000));
+        for (Message m : sent) assertEquals(MessageDelivery.Status.DELIVERED, m.getDeliveryStatus());
+        assertEquals(20, delivery.delivered());
+        assertEquals(0, Message.pendingDeliveries());
+    }
+
+    @Test
+    public void aFullQueueRejectsInsteadOfWaiting() throws Exception {
+        GatedTransport gateway = new GatedTransport();
+        MessageDelivery delivery = pipeline(gateway, 1, 2);
+        Message.setDelivery(delivery);
+
+        Message first = message(0, "First");
+        first.sendMessage("send");
+        assertTrue(gateway.started.await(5, TimeUnit.SECONDS));
+
+        List<Message> rest = new ArrayList<>();
+        List<String> results = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            Message m = message(i, "Message " + i);
+            results.add(m.sendMessage("send"));
+            rest.add(m);
+        }
+        // The sender is told when the delivery was turned away
+        assertEquals(List.of("Message successfully sent.", "Message successfully sent.",
+                Message.DELIVERY_REJECTED, Message.DELIVERY_REJECTED), results);
+        assertEquals(MessageDelivery.Status.DELIVERING, first.getDeliveryStatus());
+        assertEquals(MessageDelivery.Status.QUEUED, rest.get(1).getDeliveryStatus());
+        assertEquals(MessageDelivery.Status.REJECTED, rest.get(2).getDeliveryStatus());
+        assertEquals(MessageDelivery.Status.REJECTED, rest.get(3).getDeliveryStatus());
+        assertEquals(2, delivery.rejected());
+        // A rejected message is still sent as far as the lists are concerned
+        assertEquals(5, Message.getSentMessageTexts().size());
+
+        gateway.release.countDown();
+        assertTrue(delivery.awaitIdle(5_000));
+        assertEquals(List.of("First", "Message 1", "Message 2"), texts(gateway.delivered()));
+    }
+
+    @Test
+    public void failuresAreRetriedThenMarkedFailed() throws Exception {
+        StubGateway gateway = new StubGateway(0, true);
+        MessageDelivery delivery = pipeline(gateway, 1, 10);
+        Message.setDelivery(delivery);
+
+        gateway.failNext(2);
+        Message retried = message(0, "Retried");
+        retried.sendMessage("send");
+        assertTrue(delivery.awaitIdle(5_000));
+        assertEquals(MessageDelivery.Status.DELIVERED, retried.getDeliveryStatus());
+        assertEquals(3, gateway.calls());
+
+        gateway.failNext(3);
+        Message lost = message(1, "Lost");
+        lost.sendMessage("send");
+        assertTrue(delivery.awaitIdle(5_000));
+        assertEquals(MessageDelivery.Status.FAILED, lost.getDeliveryStatus());
+        assertEquals(1, delivery.failed());
+        assertEquals(List.of("Retried"), texts(gateway.delivered()));
+    }
+
+    @Test
+    public void deletedBeforeDeliveryIsCancelled() throws Exception {
+        GatedTransport gateway = new GatedTransport();
+        MessageDelivery delivery = pipeline(gateway, 1, 10);
+        Message.setDelivery(delivery);
+
+        message(0, "Blocking").sendMessage("send");
+        assertTrue(gateway.started.await(5, TimeUnit.SECONDS));
+        Message doomed = message(1, "Doomed");
+        doomed.sendMessage("send");
+        Message.deleteByHash(doomed.getMessageHash());
+
+        gateway.release.countDown();
+        assertTrue(delivery.awaitIdle(5_000));
+        assertEquals(MessageDelivery.Status.CANCELLED, doomed.getDeliveryStatus());
+        assertEquals(List.of("Blocking"), texts(gateway.delivered()));
+    }
+
+    @Test
+    public void workersComeFromTheGivenFactoryAndStopOnClose() throws Exception {
+        AtomicInteger made = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        MessageDelivery delivery = new MessageDelivery(new StubGateway(0, true), 3, 10,
+                MessageDelivery.Overflow.BLOCK, 1, r -> {
+                    Thread t = new Thread(r, "test-delivery-" + made.incrementAndGet());
+                    t.setDaemon(true);
+                    threads.add(t);
+                    return t;
+                });
+        assertEquals(3, made.get());
+
+        Message.setDelivery(delivery);
+        for (int i = 0; i < 50; i++) message(i, "Message " + i).sendMessage("send");
+        Message.setDelivery(null);
+
+        // Closing finished the queue first
+        assertEquals(50, delivery.delivered());
+        for (Thread t : threads) assertFalse(t.isAlive());
+        Message late = message(99, "Late");
+        assertFalse(delivery.enqueue(late));
+        assertEquals(MessageDelivery.Status.REJECTED, late.getDeliveryStatus());
+
+        // The next send starts a default pipeline again
+        Message next = message(100, "Next");
+        next.sendMessage("send");
+        assertTrue(Message.delivery().awaitIdle(5_000));
+        assertEquals(MessageDelivery.Status.DELIVERED, next.getDeliveryStatus());
+        assertNull(message(101, "Never sent").getDeliveryStatus());
+    }
+
+    @Test
+    public void batchesKeepEachRecipientsOrder() throws Exception {
+        String[] cells = { "+27838884567", "+27609151472", "+27831110000", "+27712223333", "+27844445555" };
+        for (long window : new long[] { 0, 20 }) {
+            BatchRecorder recorder = new BatchRecorder();
+            MessageDelivery delivery = batching(recorder, 3, 8, window);
+            Message.setDelivery(delivery);
+
+            Map<String, List<String>> sent = new HashMap<>();
+            for (int i = 0; i < 300; i++) {
+                String cell = cells[(i * 7 + i / 13) % cells.length];
+                message(i, cell, "Message " + i).sendMessage("send");
+                sent.computeIfAbsent(cell, c -> new ArrayList<>()).add("Message " + i);
+            }
+            assertTrue(delivery.awaitIdle(5_000));
+            assertEquals(300, delivery.delivered());
+
+            Map<String, List<String>> arrived = new HashMap<>();
+            for (List<Message> batch : recorder.batches) {
+                assertTrue(batch.size() <= 8);
+                for (Message m : batch) {
+                    arrived.computeIfAbsent(m.getRecipient(), c -> new ArrayList<>()).add(m.getMessageText());
+                }
+            }
+            assertEquals(sent, arrived, "window " + window);
+            assertEquals(recorder.batches.size(), delivery.calls());
+            if (window > 0) assertTrue(recorder.batches.size() < 100, recorder.batches.size() + " calls");
+            Message.setDelivery(null);
+        }
+    }
+
+    @Test
+    public void theWindowSendsAPartialBatch() throws Exception {
+        BatchRecorder recorder = new BatchRecorder();
+        MessageDelivery delivery = batching(recorder, 1, 100, 50);
+        Message.setDelivery(delivery);
+
+        long start = System.nanoTime();
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Message m = message(i, "Message " + i);
+            m.sendMessage("send");
+            sent.add(m);
+        }
+        assertTrue(delivery.awaitIdle(5_000));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(List.of(sent), recorder.batches);
+        for (Message m : sent) assertEquals(MessageDelivery.Status.DELIVERED, m.getDeliveryStatus());
+    }
+
+    @Test
+    public void aFailedBatchFailsEveryMessageInIt() throws Exception {
+        StubGateway gateway = new StubGateway(0, true);
+        MessageDelivery delivery = batching(gateway, 1, 4, 1_000);
+        Message.setDelivery(delivery);
+
+        gateway.failNext(3);
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Message m = message(i, "Message " + i);
+            m.sendMessage("send");
+            sent.add(m);
+        }
+        assertTrue(delivery.awaitIdle(5_000));
+        for (Message m : sent) assertEquals(MessageDelivery.Status.FAILED, m.getDeliveryStatus());
+        assertEquals(4, delivery.failed());
+        assertEquals(3, gateway.calls());
+    }
+
+    @Test
+    public void anInterruptedWorkerSettlesWhatItHeld() throws Exception {
+        GatedTransport gateway = new GatedTransport();
+        List<Thread> threads = new ArrayList<>();
+        MessageDelivery delivery = new MessageDelivery(gateway, 1, 10, MessageDelivery.Overflow.REJECT, 1, r -> {
+            Thread t = new Thread(r, "test-delivery");
+            t.setDaemon(true);
+            threads.add(t);
+            return t;
+        });
+        Message.setDelivery(delivery);
+
+        Message first = message(0, "First");
+        first.sendMessage("send");
+        assertTrue(gateway.started.await(5, TimeUnit.SECONDS));
+        List<Message> queued = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            Message m = message(i, "Message " + i);
+            m.sendMessage("send");
+            queued.add(m);
+        }
+
+        threads.get(0).interrupt();
+        threads.get(0).join(5_000);
+        assertFalse(threads.get(0).isAlive());
+        assertTrue(delivery.awaitIdle(5_000));
+        assertEquals(MessageDelivery.Status.DELIVERED, first.getDeliveryStatus());
+        for (Message m : queued) assertEquals(MessageDelivery.Status.REJECTED, m.getDeliveryStatus());
+        assertEquals(3, delivery.rejected());
+        assertEquals(Message.DELIVERY_REJECTED, message(9, "After").sendMessage("send"));
+    }
+
+    @Test
+    public void anInterruptedCloseStillSettlesTheQueue() throws Exception {
+        GatedTransport gateway = new GatedTransport();
+        MessageDelivery delivery = pipeline(gateway, 1, 10);
+        Message.setDelivery(delivery);
+
+        message(0, "First").sendMessage("send");
+        assertTrue(gateway.started.await(5, TimeUnit.SECONDS));
+        Message second = message(1, "Second");
+        second.sendMessage("send");
+
+        Thread.currentThread().interrupt();
+        delivery.close();
+        assertTrue(Thread.interrupted(), "close keeps the interrupt");
+        assertEquals(MessageDelivery.Status.REJECTED, second.getDeliveryStatus());
+
+        gateway.release.countDown();
+        assertTrue(delivery.awaitIdle(5_000));
+        assertEquals(0, delivery.pending());
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        List<String> texts = new ArrayList<>();
+        for (Message m : messages) texts.add(m.getMessageText());
+        return texts;
+    }
+}
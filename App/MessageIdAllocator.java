@@ -0,0 +1,24 @@
+/**
+ * Source of 10-digit message IDs (1000000000 to 9999999999).
+ *
+ * The mode is chosen at startup with -Dquickchat.id.mode=unique|random or
+ * Message.setIdAllocator. UNIQUE never repeats an ID within the process;
+ * RANDOM is the original behaviour and can repeat.
+ */
+public interface MessageIdAllocator {
+
+    long MIN_ID = 1_000_000_000L;
+    long MAX_ID = 9_999_999_999L;
+
+    enum Mode { UNIQUE, RANDOM }
+
+    // Next ID; must be safe to call from many threads at once
+    long nextId();
+
+    static MessageIdAllocator create(Mode mode) {
+        return switch (mode) {
+            case UNIQUE -> new UniqueIdAllocator(new java.security.SecureRandom().nextLong());
+            case RANDOM -> new RandomIdAllocator();
+        };
+    }
+}
@@ -0,0 +1,66 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageIdAllocatorTest {
+
+    @Test
+    public void tensOfMillionsOfIdsAcrossThreadsAreUnique() throws Exception {
+        int threads = 8;
+        int perThread = 2_500_000;
+        long[] ids = new long[threads * perThread];
+        UniqueIdAllocator allocator = new UniqueIdAllocator(12345L);
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int from = t * perThread;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) ids[from + i] = allocator.nextId();
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) w.join();
+
+        Arrays.sort(ids);
+        assertTrue(ids[0] >= MessageIdAllocator.MIN_ID);
+        assertTrue(ids[ids.length - 1] <= MessageIdAllocator.MAX_ID);
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i] == ids[i - 1]) fail("Duplicate ID " + ids[i]);
+        }
+    }
+
+    @Test
+    public void idsLookRandomRatherThanSequential() {
+        UniqueIdAllocator allocator = new UniqueIdAllocator(7L);
+        long first = allocator.nextId();
+        long second = allocator.nextId();
+        assertTrue(Math.abs(second - first) > 1000, "Consecutive IDs should not be neighbours.");
+        assertEquals(10, String.valueOf(first).length());
+    }
+
+    @Test
+    public void smallDomainIsCoveredExactlyOnceThenExhausted() {
+        UniqueIdAllocator allocator = new UniqueIdAllocator(99L, 10_000);
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            long id = allocator.nextId();
+            assertTrue(id >= MessageIdAllocator.MIN_ID && id < MessageIdAllocator.MIN_ID + 10_000);
+            assertTrue(seen.add(id), "Duplicate ID " + id);
+        }
+        assertThrows(IllegalStateException.class, allocator::nextId);
+    }
+
+    @Test
+    public void messagesUseTheConfiguredAllocator() {
+        Message.setIdAllocator(() -> 1234567890L);
+        try {
+            assertEquals("1234567890", new Message(1).getMessageID());
+        } finally {
+            Message.setIdAllocator(MessageIdAllocator.create(MessageIdAllocator.Mode.UNIQUE));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the indexed searches and deletes in Message give the same
+ * answers as a plain scan over the sent messages.
+ */
+public class MessageIndexTest {
+
+    private static final String[] RECIPIENTS = {
+            "+27831110000", "+27832220000", "+27833330000", "+27834440000"
+    };
+
+    @BeforeEach
+    public void setup() {
+        Message.clearAllMemoryData();
+        try {
+            Files.deleteIfExists(Paths.get("stored_messages.json"));
+        } catch (Exception ignored) {}
+    }
+
+    // Reference answers, worked out the way the original scan did it
+    private static String scanByMessageID(String id) {
+        for (Message m : Message.getAllMessages()) {
+            if (id.equals(m.getMessageID())) {
+                return "Recipient: " + m.getRecipient() + "\nMessage: " + m.getMessageText();
+            }
+        }
+        return "No message found with that ID.";
+    }
+
+    private static List<String> scanByRecipient(String cell) {
+        List<String> results = new ArrayList<>();
+        for (Message m : Message.getAllMessages()) {
+            if (cell.equals(m.getRecipient())) results.add(m.getMessageText());
+        }
+        for (Message m : Message.getStoredMessages()) {
+            if (cell.equals(m.getRecipient())) results.add(m.getMessageText());
+        }
+        return results;
+    }
+
+    private static Message scanByHash(String hash) {
+        for (Message m : Message.getAllMessages()) {
+            if (hash.equals(m.getMessageHash())) return m;
+        }
+        return null;
+    }
+
+    private static Message sent(int number, String id, String cell, String text) {
+        Message m = new Message(number);
+        m.setMessageID(id);
+        m.checkRecipientCell(cell);
+        m.checkMessageLength(text);
+        m.createMessageHash();
+        m.sendMessage("send");
+        return m;
+    }
+
+    @Test
+    public void searchesMatchScanWithDuplicateKeys() {
+        // Same ID and same hash on purpose: the first one sent must win
+        sent(1, "1234567890", RECIPIENTS[0], "Hello one");
+        sent(1, "1234567890", RECIPIENTS[1], "Here is one");
+        sent(2, "5550001111", RECIPIENTS[0], "Another");
+
+        assertEquals(scanByMessageID("1234567890"), Message.searchByMessageID("1234567890"));
+        assertTrue(Message.searchByMessageID("1234567890").contains("Hello one"));
+        assertEquals(scanByRecipient(RECIPIENTS[0]), Message.searchByRecipient(RECIPIENTS[0]));
+        assertEquals("No message found with that ID.", Message.searchByMessageID("0000000000"));
+        assertEquals(scanByRecipient("+27000000000"), Message.searchByRecipient("+27000000000"));
+    }
+
+    @Test
+    public void deleteByHashRemovesFirstMatchAndFallsBackToNext() {
+        sent(1, "1234567890", RECIPIENTS[0], "Hello one");
+        sent(1, "1234567890", RECIPIENTS[1], "Here is one");
+
+        String hash = Message.getMessageHashes().get(0);
+        assertEquals("Message \"Hello one\" Successfully deleted.", Message.deleteByHash(hash));
+        assertEquals(List.of("Here is one"), Message.getSentMessageTexts());
+        assertTrue(Message.searchByMessageID("1234567890").contains("Here is one"));
+
+        assertEquals("Message \"Here is one\" Successfully deleted.", Message.deleteByHash(hash));
+        assertEquals("No message found with that hash.", Message.deleteByHash(hash));
+        assertEquals("No message found with that ID.", Message.searchByMessageID("1234567890"));
+        assertTrue(Message.getMessageIDs().isEmpty());
+    }
+
+    @Test
+    public void randomOperationsMatchScan() {
+        Random random = new Random(42);
+        for (int i = 1; i <= 2000; i++) {
+            String id = String.valueOf(1000000000L + random.nextInt(500));
+            String cell = RECIPIENTS[random.nextInt(RECIPIENTS.length)];
+            sent(random.nextInt(20), id, cell, "Message " + random.nextInt(50));
+
+            if (random.nextInt(3) == 0) {
+                List<String> hashes = Message.getMessageHashes();
+                String hash = hashes.get(random.nextInt(hashes.size()));
+                Message expected = scanByHash(hash);
+                String result = Message.deleteByHash(hash);
+                assertEquals("Message \"" + expected.getMessageText() + "\" Successfully deleted.", result);
+                assertFalse(Message.getAllMessages().contains(expected));
+            }
+        }
+
+        for (int i = 0; i < 500; i++) {
+            String id = String.valueOf(1000000000L + i);
+            assertEquals(scanByMessageID(id), Message.searchByMessageID(id));
+        }
+        for (String cell : RECIPIENTS) {
+            assertEquals(scanByRecipient(cell), Message.searchByRecipient(cell));
+        }
+        assertEquals(Message.getAllMessages().size(), Message.getMessageHashes().size());
+        assertEquals(Message.getAllMessages().size(), Message.getSentMessageTexts().size());
+    }
+}
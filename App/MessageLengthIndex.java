@@ -0,0 +1,82 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message texts from all three categories kept in order of length, longest
+ * first, so the longest message is the head of the set and the top K are
+ * its first K entries.
+ *
+ * Equal lengths keep the order the old scan used: sent before stored
+ * before disregarded, then earliest first. Entries are removed by the same
+ * (category, sequence, text) they were added with. Empty texts are never
+ * the longest message, so they are not tracked.
+ */
+public class MessageLengthIndex {
+
+    private static final class Entry {
+        final int length;
+        final MessageCategory category;
+        final long seq;
+        final String text;
+
+        Entry(MessageCategory category, long seq, String text) {
+            this.length = text.length();
+            this.category = category;
+            this.seq = seq;
+            this.text = text;
+        }
+    }
+
+    private static final Comparator<Entry> LONGEST_FIRST = Comparator
+            .comparingInt((Entry e) -> -e.length)
+            .thenComparing(e -> e.category)
+            .thenComparingLong(e -> e.seq);
+
+    private final ConcurrentSkipListSet<Entry> byLength = new ConcurrentSkipListSet<>(LONGEST_FIRST);
+    private final AtomicLong nextSeq = new AtomicLong();
+
+    // Track a text under the caller's sequence number (sent messages use their send sequence)
+    public void add(MessageCategory category, long seq, String text) {
+        if (text == null || text.isEmpty()) return;
+        byLength.add(new Entry(category, seq, text));
+    }
+
+    // Track a text that is never removed on its own (stored and disregarded messages)
+    public void add(MessageCategory category, String text) {
+        add(category, nextSeq.incrementAndGet(), text);
+    }
+
+    public void remove(MessageCategory category, long seq, String text) {
+        if (text == null || text.isEmpty()) return;
+        byLength.remove(new Entry(category, seq, text));
+    }
+
+    public void removeAll(MessageCategory category) {
+        byLength.removeIf(e -> e.category == category);
+    }
+
+    public void clear() {
+        byLength.clear();
+    }
+
+    // Longest text, or null if there is none
+    public String longest() {
+        Iterator<Entry> it = byLength.iterator();
+        return it.hasNext() ? it.next().text : null;
+    }
+
+    // Up to k texts, longest first
+    public List<String> topK(int k) {
+        List<String> top = new ArrayList<>(Math.max(0, Math.min(k, 64)));
+        if (k <= 0) return top;
+        for (Entry e : byLength) {
+            top.add(e.text);
+            if (top.size() == k) break;
+        }
+        return top;
+    }
+}
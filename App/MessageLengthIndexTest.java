@@ -0,0 +1,93 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageLengthIndexTest {
+
+    @BeforeEach
+    public void setup() {
+        Message.clearAllMemoryData();
+        try {
+            Files.deleteIfExists(Paths.get("stored_messages.json"));
+        } catch (Exception ignored) {}
+    }
+
+    // The original full scan: sent, then stored, then disregarded; first strictly longer wins
+    private static String scanLongest() {
+        String longest = "";
+        List<String> all = new ArrayList<>(Message.getSentMessageTexts());
+        all.addAll(Message.getStoredMessagesArray());
+        all.addAll(Message.getDisregardedMessages());
+        for (String s : all) if (s.length() > longest.length()) longest = s;
+        return longest.isEmpty() ? "No messages found." : longest;
+    }
+
+    private static Message message(int number, String text) {
+        Message m = new Message(number);
+        m.checkRecipientCell("+27838884567");
+        m.checkMessageLength(text);
+        m.createMessageHash();
+        return m;
+    }
+
+    @Test
+    public void deleteFallsBackToNextLongest() {
+        message(1, "Medium length").sendMessage("send");
+        Message longest = message(2, "The very longest message of all");
+        longest.sendMessage("send");
+        message(3, "Short").sendMessage("disregard");
+
+        assertEquals("The very longest message of all", Message.getLongestMessage());
+        Message.deleteByHash(longest.getMessageHash());
+        assertEquals("Medium length", Message.getLongestMessage());
+    }
+
+    @Test
+    public void tiesFollowScanOrder() {
+        message(1, "bbbb").sendMessage("disregard");
+        message(2, "cccc").sendMessage("store");
+        message(3, "aaaa").sendMessage("send");
+        assertEquals("aaaa", Message.getLongestMessage());
+        assertEquals(List.of("aaaa", "cccc", "bbbb"), Message.getLongestMessages(5));
+    }
+
+    @Test
+    public void emptyStoreHasNoLongestMessage() {
+        assertEquals("No messages found.", Message.getLongestMessage());
+        message(1, "").sendMessage("send");
+        assertEquals("No messages found.", Message.getLongestMessage());
+        assertTrue(Message.getLongestMessages(3).isEmpty());
+    }
+
+    @Test
+    public void randomOperationsMatchScan() {
+        Random random = new Random(7);
+        String[] options = { "send", "send", "store", "disregard" };
+        for (int i = 0; i < 3000; i++) {
+            String text = "x".repeat(random.nextInt(200)) + (char) ('a' + random.nextInt(26));
+            message(i % 50, text).sendMessage(options[random.nextInt(options.length)]);
+
+            if (random.nextInt(3) == 0 && !Message.getMessageHashes().isEmpty()) {
+                List<String> hashes = Message.getMessageHashes();
+                Message.deleteByHash(hashes.get(random.nextInt(hashes.size())));
+            }
+            if (i % 100 == 0) assertEquals(scanLongest(), Message.getLongestMessage());
+        }
+        assertEquals(scanLongest(), Message.getLongestMessage());
+
+        List<String> all = new ArrayList<>(Message.getSentMessageTexts());
+        all.addAll(Message.getStoredMessagesArray());
+        all.addAll(Message.getDisregardedMessages());
+        all.sort(Comparator.comparingInt(String::length).reversed());
+        List<String> top = Message.getLongestMessages(20);
+        for (int i = 0; i < 20; i++) assertEquals(all.get(i).length(), top.get(i).length());
+    }
+}
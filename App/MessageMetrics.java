@@ -0,0 +1,187 @@
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for the message and login hot paths,
+ * plus gauges for how much is held in memory and on disk.
+ *
+ * Each instrumented method takes start() on entry and passes it to its
+ * timer's stop() on the way out. That costs two System.nanoTime calls and
+ * one histogram record (see LatencyHistogram); nothing is locked or
+ * allocated, so it can stay on in production. With metrics turned off
+ * (-Dquickchat.metrics=false or setEnabled(false)) start() returns 0 and
+ * stop() returns straight away.
+ *
+ * The numbers are readable over JMX under "quickchat:type=Operation,name=..."
+ * and "quickchat:type=Store" once registerMBeans() has run (MessageApp does
+ * this at startup), and as a plain text table from dump().
+ */
+public final class MessageMetrics {
+
+    // What JMX shows for each operation; times are in microseconds
+    public interface OperationMXBean {
+        String getName();
+        long getCount();
+        double getMeanMicros();
+        double getP50Micros();
+        double getP90Micros();
+        double getP99Micros();
+        double getP999Micros();
+        double getMaxMicros();
+        void reset();
+    }
+
+    // Sizes of the in-memory state and the store files
+    public interface StoreMXBean {
+        int getSentMessages();
+        int getStoredMessages();
+        int getDisregardedMessages();
+        int getTotalMessagesSent();
+        long getStoreFileBytes();
+        String getStoreFormat();
+        int getPendingDeliveries();
+    }
+
+    // One timed operation
+    public static final class Timer implements OperationMXBean {
+        private final String name;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private Timer(String name) {
+            this.name = name;
+        }
+
+        // Record the time since start (a value from MessageMetrics.start())
+        public void stop(long start) {
+            if (start != 0) histogram.record(System.nanoTime() - start);
+        }
+
+        public LatencyHistogram histogram() { return histogram; }
+
+        @Override public String getName() { return name; }
+        @Override public long getCount() { return histogram.count(); }
+        @Override public double getMeanMicros() { return histogram.mean() / 1_000.0; }
+        @Override public double getP50Micros() { return histogram.percentile(50) / 1_000.0; }
+        @Override public double getP90Micros() { return histogram.percentile(90) / 1_000.0; }
+        @Override public double getP99Micros() { return histogram.percentile(99) / 1_000.0; }
+        @Override public double getP999Micros() { return histogram.percentile(99.9) / 1_000.0; }
+        @Override public double getMaxMicros() { return histogram.max() / 1_000.0; }
+        @Override public void reset() { histogram.reset(); }
+    }
+
+    private static final class Store implements StoreMXBean {
+        @Override public int getSentMessages() { return Message.getAllMessages().size(); }
+        @Override public int getStoredMessages() { return Message.getStoredMessages().size(); }
+        @Override public int getDisregardedMessages() { return Message.getDisregardedMessages().size(); }
+        @Override public int getTotalMessagesSent() { return Message.returnTotalMessages(); }
+        @Override public String getStoreFormat() { return Message.getStorageFormat().toString(); }
+        @Override public int getPendingDeliveries() { return Message.pendingDeliveries(); }
+
+        @Override
+        public long getStoreFileBytes() {
+            return switch (Message.getStorageFormat()) {
+                case JSON -> size(JsonMessageStore.DEFAULT_FILE);
+                case BINARY -> size(BinaryMessageStore.DEFAULT_SEGMENT) + size(BinaryMessageStore.DEFAULT_INDEX);
+                case WAL -> size(WalMessageStore.DEFAULT_LOG) + size(WalMessageStore.DEFAULT_CHECKPOINT);
+            };
+        }
+
+        private static long size(String file) {
+            Path path = Paths.get(file);
+            try {
+                return Files.exists(path) ? Files.size(path) : 0;
+            } catch (java.io.IOException e) {
+                return 0;
+            }
+        }
+    }
+
+    private static volatile boolean enabled = Boolean.parseBoolean(System.getProperty("quickchat.metrics", "true"));
+
+    private static final List<Timer> timers = new ArrayList<>();
+
+    public static final Timer SEND = timer("send");
+    public static final Timer STORE = timer("store");
+    public static final Timer DISREGARD = timer("disregard");
+    public static final Timer STORE_JSON = timer("storeMessageJSON");
+    public static final Timer LOAD_STORED = timer("loadStoredMessages");
+    public static final Timer SEARCH_BY_ID = timer("searchByMessageID");
+    public static final Timer SEARCH_BY_RECIPIENT = timer("searchByRecipient");
+    public static final Timer SEARCH_BY_PREFIX = timer("searchByRecipientPrefix");
+    public static final Timer SEARCH_WORDS = timer("searchWords");
+    public static final Timer SEARCH_TIME = timer("searchByTime");
+    public static final Timer DELETE = timer("deleteByHash");
+    public static final Timer AUTHENTICATE = timer("Login.authenticate");
+    public static final Timer DELIVER = timer("transport.deliver");
+
+    private static final StoreMXBean store = new Store();
+    private static boolean registered = false;
+
+    private MessageMetrics() {}
+
+    private static Timer timer(String name) {
+        Timer timer = new Timer(name);
+        timers.add(timer);
+        return timer;
+    }
+
+    // Call on entry to an operation; 0 when metrics are off
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public static boolean isEnabled() { return enabled; }
+
+    public static void setEnabled(boolean on) { enabled = on; }
+
+    public static List<Timer> timers() { return Collections.unmodifiableList(timers); }
+
+    public static StoreMXBean store() { return store; }
+
+    public static void reset() {
+        for (Timer timer : timers) timer.reset();
+    }
+
+    // Register every timer and the store gauges with the platform MBean server (once)
+    public static synchronized void registerMBeans() {
+        if (registered) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Timer timer : timers) {
+                server.registerMBean(timer, new ObjectName("quickchat:type=Operation,name=" + ObjectName.quote(timer.name)));
+            }
+            server.registerMBean(store, new ObjectName("quickchat:type=Store"));
+            registered = true;
+        } catch (JMException e) {
+            System.err.println("Error registering metrics: " + e.getMessage());
+        }
+    }
+
+    // Every operation that has run, then the gauges, as a table
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-24s %10s %10s %10s %10s %10s %10s %10s%n",
+                "operation (us)", "count", "mean", "p50", "p90", "p99", "p99.9", "max"));
+        for (Timer t : timers) {
+            if (t.getCount() == 0) continue;
+            sb.append(String.format(Locale.ROOT, "%-24s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    t.name, t.getCount(), t.getMeanMicros(), t.getP50Micros(), t.getP90Micros(),
+                    t.getP99Micros(), t.getP999Micros(), t.getMaxMicros()));
+        }
+        sb.append(String.format(Locale.ROOT, "sent %d | stored %d | disregarded %d | total sent %d | %s store %d bytes"
+                        + " | %d awaiting delivery%s%n",
+                store.getSentMessages(), store.getStoredMessages(), store.getDisregardedMessages(),
+                store.getTotalMessagesSent(), store.getStoreFormat(), store.getStoreFileBytes(), store.getPendingDeliveries(),
+                enabled ? "" : " | metrics off"));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,130 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageMetricsTest {
+
+    @BeforeEach
+    public void setup() throws Exception {
+        Message.clearAllMemoryData();
+        Files.deleteIfExists(Paths.get("stored_messages.json"));
+        MessageMetrics.setEnabled(true);
+        MessageMetrics.reset();
+    }
+
+    @AfterEach
+    public void cleanup() throws Exception {
+        MessageMetrics.setEnabled(true);
+        MessageMetrics.reset();
+        Message.clearAllMemoryData();
+        Files.deleteIfExists(Paths.get("stored_messages.json"));
+    }
+
+    private static Message message(int number, String text) {
+        Message m = new Message(number);
+        m.checkRecipientCell("+27838884567");
+        m.checkMessageLength(text);
+        m.createMessageHash();
+        return m;
+    }
+
+    @Test
+    public void percentilesAreWithinThreePercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(23);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Spread over several orders of magnitude, like real latencies
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(values.length, histogram.count());
+        assertEquals(values[values.length - 1], histogram.max());
+        for (double p : new double[] { 1, 50, 90, 99, 99.9, 100 }) {
+            long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            long reported = histogram.percentile(p);
+            assertTrue(reported >= exact && reported <= exact + exact * 0.03 + 1, p + ": " + reported + " vs " + exact);
+        }
+
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.percentile(99));
+    }
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        for (long v : new long[] { 0, 1, 31, 32, 33, 63, 64, 1_000, 1L << 40, Long.MAX_VALUE }) {
+            int bucket = LatencyHistogram.bucket(v);
+            assertTrue(LatencyHistogram.highestIn(bucket) >= v, Long.toString(v));
+            if (bucket > 0) assertTrue(LatencyHistogram.highestIn(bucket - 1) < v, Long.toString(v));
+        }
+    }
+
+    @Test
+    public void operationsAreCountedAndOffRecordsNothing() {
+        message(1, "Hello there").sendMessage("send");
+        message(2, "Keep this").sendMessage("store");
+        message(3, "Ignore this").sendMessage("disregard");
+        Message.searchByMessageID("none");
+        Message.searchByRecipient("+27838884567");
+        Message.searchAllWords("hello");
+        Message.loadStoredMessages();
+        Message.deleteByHash(Message.getMessageHashes().get(0));
+        new Login("kyl_1", "Ch&&sec@ke99!").authenticate("kyl_1", "Ch&&sec@ke99!");
+
+        for (MessageMetrics.Timer timer : new MessageMetrics.Timer[] { MessageMetrics.SEND, MessageMetrics.STORE,
+                MessageMetrics.DISREGARD, MessageMetrics.STORE_JSON, MessageMetrics.SEARCH_BY_ID,
+                MessageMetrics.SEARCH_BY_RECIPIENT, MessageMetrics.SEARCH_WORDS, MessageMetrics.LOAD_STORED,
+                MessageMetrics.DELETE, MessageMetrics.AUTHENTICATE }) {
+            assertEquals(1, timer.getCount(), timer.getName());
+            assertTrue(timer.getMaxMicros() > 0, timer.getName());
+        }
+        assertEquals(0, MessageMetrics.SEARCH_TIME.getCount());
+        String dump = MessageMetrics.dump();
+        assertTrue(dump.contains("searchByMessageID"));
+        assertFalse(dump.contains("searchByTime"));
+        assertTrue(dump.contains("stored 1"));
+
+        MessageMetrics.setEnabled(false);
+        message(4, "Not timed").sendMessage("send");
+        Message.searchByMessageID("none");
+        assertEquals(1, MessageMetrics.SEND.getCount());
+        assertEquals(1, MessageMetrics.SEARCH_BY_ID.getCount());
+    }
+
+    @Test
+    public void timersAndGaugesAreReadableOverJmx() throws Exception {
+        MessageMetrics.registerMBeans();
+        MessageMetrics.registerMBeans();
+        message(1, "Hello there").sendMessage("send");
+        message(2, "Keep this").sendMessage("store");
+        // The file size only counts what the store writer has flushed
+        Message.flushStoredMessages();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName send = new ObjectName("quickchat:type=Operation,name=" + ObjectName.quote("send"));
+        assertEquals(Long.valueOf(1), server.getAttribute(send, "Count"));
+        assertTrue((Double) server.getAttribute(send, "P99Micros") > 0);
+
+        ObjectName store = new ObjectName("quickchat:type=Store");
+        assertEquals(Integer.valueOf(1), server.getAttribute(store, "SentMessages"));
+        assertEquals(Integer.valueOf(1), server.getAttribute(store, "StoredMessages"));
+        assertEquals("JSON", server.getAttribute(store, "StoreFormat"));
+        assertTrue((Long) server.getAttribute(store, "StoreFileBytes") > 0);
+
+        server.invoke(send, "reset", null, null);
+        assertEquals(0, MessageMetrics.SEND.getCount());
+    }
+}
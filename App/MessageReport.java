@@ -0,0 +1,182 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Streaming and paged versions of the sent-messages reports.
+ *
+ * The write* methods stream one message at a time to a Writer,
+ * OutputStream or channel (the latter two through an 8 KB buffer), so a
+ * report never has to fit on the heap. The *Page methods return up to
+ * `limit` messages plus a continuation token: the send sequence of the
+ * last message on the page. A token stays valid while messages are sent
+ * or deleted, and each message appears on at most one page.
+ */
+public final class MessageReport {
+
+    public static final int BUFFER_CHARS = 8 * 1024;
+    private static final String NO_MESSAGES = "No sent messages.";
+
+    // One page of a report; nextToken is null on the last page
+    public static final class Page {
+        private final String text;
+        private final int count;
+        private final String nextToken;
+
+        Page(String text, int count, String nextToken) {
+            this.text = text;
+            this.count = count;
+            this.nextToken = nextToken;
+        }
+
+        public String getText() { return text; }
+        public int getCount() { return count; }
+        public String getNextToken() { return nextToken; }
+        public boolean hasMore() { return nextToken != null; }
+    }
+
+    @FunctionalInterface
+    private interface EntryFormat {
+        void append(Writer out, Message m) throws IOException;
+    }
+
+    private static final EntryFormat FULL_REPORT = (out, m) -> {
+        out.write("Message ID: ");
+        out.write(String.valueOf(m.getMessageID()));
+        out.write("\nHash: ");
+        out.write(String.valueOf(m.getMessageHash()));
+        out.write("\nRecipient: ");
+        out.write(String.valueOf(m.getRecipient()));
+        out.write("\nMessage: ");
+        out.write(String.valueOf(m.getMessageText()));
+        out.write("\n----------------------------------\n");
+    };
+
+    private static final EntryFormat SENDERS_AND_RECIPIENTS = (out, m) -> {
+        out.write("Sender: You\nRecipient: ");
+        out.write(String.valueOf(m.getRecipient()));
+        out.write("\n\n");
+    };
+
+    private MessageReport() {}
+
+    // --- Whole report, streamed ---
+
+    public static void writeFullReport(Writer out) throws IOException {
+        if (writeAll(out, FULL_REPORT) == 0) out.write(NO_MESSAGES);
+        out.flush();
+    }
+
+    public static void writeFullReport(OutputStream out) throws IOException {
+        writeFullReport(buffered(out));
+    }
+
+    public static void writeFullReport(WritableByteChannel out) throws IOException {
+        writeFullReport(buffered(out));
+    }
+
+    public static void writeSendersAndRecipients(Writer out) throws IOException {
+        writeAll(out, SENDERS_AND_RECIPIENTS);
+        out.flush();
+    }
+
+    public static void writeSendersAndRecipients(OutputStream out) throws IOException {
+        writeSendersAndRecipients(buffered(out));
+    }
+
+    public static void writeSendersAndRecipients(WritableByteChannel out) throws IOException {
+        writeSendersAndRecipients(buffered(out));
+    }
+
+    // String forms kept for Message.displayFullReport / displaySendersAndRecipients
+    static String fullReport() {
+        StringWriter out = new StringWriter();
+        try {
+            writeFullReport(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    static String sendersAndRecipients() {
+        StringWriter out = new StringWriter();
+        try {
+            writeSendersAndRecipients(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    // --- Paged ---
+
+    // Pass null as the token for the first page
+    public static Page fullReportPage(String token, int limit) {
+        return page(token, limit, FULL_REPORT);
+    }
+
+    public static Page sendersAndRecipientsPage(String token, int limit) {
+        return page(token, limit, SENDERS_AND_RECIPIENTS);
+    }
+
+    private static Page page(String token, int limit, EntryFormat format) {
+        if (limit <= 0) throw new IllegalArgumentException("Page limit must be positive.");
+
+        NavigableMap<Long, Message> sent = Message.sentMessagesBySequence();
+        NavigableMap<Long, Message> rest = token == null ? sent : sent.tailMap(parseToken(token), false);
+
+        StringWriter out = new StringWriter();
+        int count = 0;
+        long last = -1;
+        try {
+            for (Map.Entry<Long, Message> e : rest.entrySet()) {
+                if (count == limit) {
+                    return new Page(out.toString(), count, Long.toString(last, 36));
+                }
+                format.append(out, e.getValue());
+                last = e.getKey();
+                count++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Page(out.toString(), count, null);
+    }
+
+    private static long parseToken(String token) {
+        try {
+            return Long.parseLong(token, 36);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid report token: " + token);
+        }
+    }
+
+    // --- Helpers ---
+
+    private static int writeAll(Writer out, EntryFormat format) throws IOException {
+        int count = 0;
+        for (Message m : Message.sentMessagesBySequence().values()) {
+            format.append(out, m);
+            count++;
+        }
+        return count;
+    }
+
+    private static Writer buffered(OutputStream out) {
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_CHARS);
+    }
+
+    private static Writer buffered(WritableByteChannel out) {
+        return new BufferedWriter(Channels.newWriter(out, StandardCharsets.UTF_8), BUFFER_CHARS);
+    }
+}
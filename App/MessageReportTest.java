@@ -0,0 +1,103 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageReportTest {
+
+    @BeforeEach
+    public void setup() {
+        Message.clearAllMemoryData();
+        try {
+            Files.deleteIfExists(Paths.get("stored_messages.json"));
+        } catch (Exception ignored) {}
+    }
+
+    private static Message send(int number, String text) {
+        Message m = new Message(number);
+        m.checkRecipientCell("+2783000000" + (number % 10));
+        m.checkMessageLength(text);
+        m.createMessageHash();
+        m.sendMessage("send");
+        return m;
+    }
+
+    @Test
+    public void streamedReportMatchesStringReport() throws Exception {
+        for (int i = 1; i <= 50; i++) send(i, "Message é " + i);
+
+        StringWriter writer = new StringWriter();
+        MessageReport.writeFullReport(writer);
+        assertEquals(Message.displayFullReport(), writer.toString());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MessageReport.writeFullReport(bytes);
+        assertEquals(Message.displayFullReport(), bytes.toString(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream channelBytes = new ByteArrayOutputStream();
+        MessageReport.writeSendersAndRecipients(Channels.newChannel(channelBytes));
+        assertEquals(Message.displaySendersAndRecipients(), channelBytes.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void emptyReportSaysSo() throws Exception {
+        StringWriter writer = new StringWriter();
+        MessageReport.writeFullReport(writer);
+        assertEquals("No sent messages.", writer.toString());
+        assertEquals("No sent messages.", Message.displayFullReport());
+    }
+
+    @Test
+    public void pagesJoinUpToTheWholeReport() {
+        for (int i = 1; i <= 23; i++) send(i, "Paged " + i);
+
+        StringBuilder joined = new StringBuilder();
+        String token = null;
+        int pages = 0;
+        do {
+            MessageReport.Page page = MessageReport.fullReportPage(token, 5);
+            joined.append(page.getText());
+            token = page.getNextToken();
+            pages++;
+        } while (token != null);
+
+        assertEquals(5, pages);
+        assertEquals(Message.displayFullReport(), joined.toString());
+    }
+
+    @Test
+    public void tokenSurvivesDeletesAndNewSends() {
+        Message[] sent = new Message[6];
+        for (int i = 0; i < 6; i++) sent[i] = send(i + 1, "Entry " + i + "z");
+
+        MessageReport.Page first = MessageReport.sendersAndRecipientsPage(null, 3);
+        assertEquals(3, first.getCount());
+        assertTrue(first.hasMore());
+
+        // Delete one already shown and one not yet shown, then send another
+        Message.deleteByHash(sent[0].getMessageHash());
+        Message.deleteByHash(sent[4].getMessageHash());
+        send(7, "Late arrival");
+
+        MessageReport.Page second = MessageReport.fullReportPage(first.getNextToken(), 10);
+        assertEquals(3, second.getCount());
+        assertFalse(second.hasMore());
+        assertTrue(second.getText().contains("Entry 3z"));
+        assertFalse(second.getText().contains("Entry 4z"));
+        assertTrue(second.getText().contains("Late arrival"));
+        assertFalse(second.getText().contains("Entry 2z"));
+    }
+
+    @Test
+    public void rejectsBadTokenAndLimit() {
+        assertThrows(IllegalArgumentException.class, () -> MessageReport.fullReportPage("not a token!", 5));
+        assertThrows(IllegalArgumentException.class, () -> MessageReport.fullReportPage(null, 0));
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of all in-memory Message state: sent messages with their
+ * send sequence, disregarded texts, stored messages and the total-sent
+ * counter, so a restart does not lose what only lived in memory.
+ *
+ * Message.captureState takes the point-in-time view while senders carry on
+ * (see InFlightOps); this class only writes and reads the file. It is
+ * written to a temp file, forced and renamed over the old one, so a crash
+ * leaves the previous snapshot. Restore maps the file, checks the CRC32C
+ * trailer and decodes straight from the mapping.
+ *
+ * Layout: "QCSS", version, created millis, clock at the cut, total sent, then
+ * the sent, disregarded and stored sections (each a count followed by the
+ * records), then the CRC of everything before it. A message is its number,
+ * send/store time, ID, recipient, text and hash. Strings are an int byte
+ * length (-1 for null) and UTF-8 bytes. Version 1 files (before times were
+ * kept) are refused like any other unreadable snapshot.
+ */
+public final class MessageSnapshot {
+
+    public static final String DEFAULT_FILE = "message_state.snap";
+
+    private static final int MAGIC = 0x51435353; // "QCSS"
+    private static final int VERSION = 2;
+
+    // One background thread writes the periodic snapshots
+    private static final ScheduledExecutorService SNAPSHOTTER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "quickchat-snapshot");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Everything a snapshot holds; sentSequences[i] is the send sequence of sent.get(i)
+    static final class State {
+        long createdMillis;
+        long sequence;
+        long totalSent;
+        long[] sentSequences = new long[0];
+        List<Message> sent = new ArrayList<>();
+        List<String> disregarded = new ArrayList<>();
+        List<Message> stored = new ArrayList<>();
+    }
+
+    private MessageSnapshot() {}
+
+    // Write state to file atomically; returns the file size
+    static long write(Path file, State state) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CRC32C crc = new CRC32C();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(state.createdMillis);
+            out.writeLong(state.sequence);
+            out.writeLong(state.totalSent);
+
+            out.writeInt(state.sent.size());
+            for (int i = 0; i < state.sent.size(); i++) {
+                out.writeLong(state.sentSequences[i]);
+                writeMessage(out, state.sent.get(i));
+            }
+            out.writeInt(state.disregarded.size());
+            for (String text : state.disregarded) writeString(out, text);
+            out.writeInt(state.stored.size());
+            for (Message m : state.stored) writeMessage(out, m);
+
+            // The trailer itself is not part of the checksum
+            int checksum = (int) crc.getValue();
+            out.writeInt(checksum);
+            out.flush(); // not closed: that would close the channel before force
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return Files.size(file);
+    }
+
+    // Read a snapshot; IOException if it is missing, truncated or fails its checksum
+    static State read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 48 || size > Integer.MAX_VALUE) throw new IOException("Bad snapshot size " + size + ": " + file);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            int body = (int) size - 4;
+            CRC32C crc = new CRC32C();
+            crc.update(map.duplicate().limit(body));
+            if ((int) crc.getValue() != map.getInt(body)) throw new IOException("Snapshot checksum mismatch: " + file);
+
+            ByteBuffer in = map.duplicate().limit(body);
+            try {
+                if (in.getInt() != MAGIC) throw new IOException("Not a snapshot: " + file);
+                int version = in.getInt();
+                if (version != VERSION) throw new IOException("Unsupported snapshot version " + version + ": " + file);
+
+                State state = new State();
+                state.createdMillis = in.getLong();
+                state.sequence = in.getLong();
+                state.totalSent = in.getLong();
+
+                Decoder decoder = new Decoder();
+                int sent = count(in);
+                state.sentSequences = new long[sent];
+                state.sent = new ArrayList<>(sent);
+                for (int i = 0; i < sent; i++) {
+                    state.sentSequences[i] = in.getLong();
+                    state.sent.add(decoder.message(in));
+                }
+                int disregarded = count(in);
+                state.disregarded = new ArrayList<>(disregarded);
+                for (int i = 0; i < disregarded; i++) state.disregarded.add(decoder.string(in));
+                int stored = count(in);
+                state.stored = new ArrayList<>(stored);
+                for (int i = 0; i < stored; i++) state.stored.add(decoder.message(in));
+
+                if (in.hasRemaining()) throw new IOException("Trailing bytes in snapshot: " + file);
+                return state;
+            } catch (RuntimeException e) {
+                // Only reachable if the CRC matched a file that was built wrongly
+                throw new IOException("Malformed snapshot: " + file, e);
+            }
+        }
+    }
+
+    // Write a snapshot of the live state every intervalMillis
+    static ScheduledFuture<?> schedule(Path file, long intervalMillis) {
+        return SNAPSHOTTER.scheduleWithFixedDelay(() -> {
+            try {
+                Message.writeSnapshot(file);
+            } catch (IOException e) {
+                System.err.println("Error writing snapshot: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void writeMessage(DataOutputStream out, Message m) throws IOException {
+        out.writeInt(m.getMessageNumber());
+        out.writeLong(m.getTimestamp());
+        writeString(out, m.getMessageID());
+        writeString(out, m.getRecipient());
+        writeString(out, m.getMessageText());
+        writeString(out, m.getMessageHash());
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int count(ByteBuffer in) throws IOException {
+        int n = in.getInt();
+        if (n < 0 || n > in.remaining()) throw new IOException("Bad record count " + n);
+        return n;
+    }
+
+    // Decodes strings through one reusable buffer instead of a fresh array per field
+    private static final class Decoder {
+        private byte[] scratch = new byte[256];
+
+        Message message(ByteBuffer in) throws IOException {
+            int number = in.getInt();
+            long timestamp = in.getLong();
+            String id = string(in);
+            String recipient = string(in);
+            String text = string(in);
+            String hash = string(in);
+            return Message.restored(number, id, recipient, text, hash, timestamp);
+        }
+
+        String string(ByteBuffer in) throws IOException {
+            int length = in.getInt();
+            if (length == -1) return null;
+            if (length < 0 || length > in.remaining()) throw new IOException("Bad string length " + length);
+            if (length > scratch.length) scratch = new byte[Math.max(length, scratch.length * 2)];
+            in.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
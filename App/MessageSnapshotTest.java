@@ -0,0 +1,160 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageSnapshotTest {
+
+    private static final Path SNAPSHOT = Paths.get("message_state_test.snap");
+
+    @BeforeEach
+    public void setup() throws IOException {
+        Message.clearAllMemoryData();
+        Files.deleteIfExists(Paths.get("stored_messages.json"));
+        Files.deleteIfExists(SNAPSHOT);
+    }
+
+    @AfterEach
+    public void cleanup() throws IOException {
+        Message.clearAllMemoryData();
+        Files.deleteIfExists(Paths.get("stored_messages.json"));
+        Files.deleteIfExists(SNAPSHOT);
+    }
+
+    private static Message message(int number, String text) {
+        Message m = new Message(number);
+        m.checkRecipientCell("+2783000000" + (number % 10));
+        m.checkMessageLength(text);
+        m.createMessageHash();
+        return m;
+    }
+
+    @Test
+    public void restoreBringsBackEveryCategoryAndTheCounter() throws IOException {
+        Message[] sent = new Message[5];
+        for (int i = 0; i < 5; i++) {
+            sent[i] = message(i + 1, "Sent é " + i);
+            sent[i].sendMessage("send");
+        }
+        Message.deleteByHash(sent[1].getMessageHash());
+        message(10, "Thrown away").sendMessage("disregard");
+        message(11, "Kept for later").sendMessage("store");
+
+        List<String> texts = Message.getSentMessageTexts();
+        List<String> ids = Message.getMessageIDs();
+        List<String> hashes = Message.getMessageHashes();
+        String report = Message.displayFullReport();
+        assertTrue(Message.writeSnapshot(SNAPSHOT) > 0);
+
+        Message.clearAllMemoryData();
+        assertEquals(0, Message.returnTotalMessages());
+        assertTrue(Message.restoreSnapshot(SNAPSHOT));
+
+        assertEquals(texts, Message.getSentMessageTexts());
+        assertEquals(ids, Message.getMessageIDs());
+        assertEquals(hashes, Message.getMessageHashes());
+        assertEquals(report, Message.displayFullReport());
+        assertEquals(List.of("Thrown away"), Message.getDisregardedMessages());
+        assertEquals(List.of("Kept for later"), Message.getStoredMessagesArray());
+        assertEquals(5, Message.returnTotalMessages());
+
+        // Indexes are rebuilt and new sends come after the restored ones
+        assertTrue(Message.searchByMessageID(sent[3].getMessageID()).contains("Sent é 3"));
+        assertEquals("Message \"Sent é 4\" Successfully deleted.", Message.deleteByHash(sent[4].getMessageHash()));
+        message(20, "After restore").sendMessage("send");
+        List<String> after = Message.getSentMessageTexts();
+        assertEquals("After restore", after.get(after.size() - 1));
+        assertEquals(6, Message.returnTotalMessages());
+    }
+
+    @Test
+    public void missingSnapshotIsReportedAndStateKept() throws IOException {
+        message(1, "Still here").sendMessage("send");
+        assertFalse(Message.restoreSnapshot(SNAPSHOT));
+        assertEquals(List.of("Still here"), Message.getSentMessageTexts());
+    }
+
+    @Test
+    public void damagedSnapshotIsRejected() throws IOException {
+        for (int i = 0; i < 20; i++) message(i, "Message " + i).sendMessage("send");
+        long size = Message.writeSnapshot(SNAPSHOT);
+
+        try (FileChannel channel = FileChannel.open(SNAPSHOT, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, size / 2);
+            one.put(0, (byte) (one.get(0) ^ 0x40)).rewind();
+            channel.write(one, size / 2);
+        }
+        assertThrows(IOException.class, () -> Message.restoreSnapshot(SNAPSHOT));
+
+        try (FileChannel channel = FileChannel.open(SNAPSHOT, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 7);
+        }
+        assertThrows(IOException.class, () -> Message.restoreSnapshot(SNAPSHOT));
+    }
+
+    // Each worker sends its i-th message and then deletes its (i-1)-th, so at any single
+    // moment a worker has either just its latest message or its latest two, and the
+    // total sent is the sum of the latest numbers. A torn snapshot breaks one of these.
+    @Test
+    public void snapshotsTakenDuringSendsAndDeletesAreConsistent() throws Exception {
+        int workers = 4;
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            int worker = w;
+            Thread t = new Thread(() -> {
+                Message previous = null;
+                for (int i = 1; !stop.get(); i++) {
+                    Message m = message((worker + 1) * 1_000_000 + i, "w" + worker + "-" + i);
+                    m.sendMessage("send");
+                    if (previous != null) Message.deleteByHash(previous.getMessageHash());
+                    previous = m;
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+
+        try {
+            for (int round = 0; round < 200; round++) {
+                MessageSnapshot.State state = Message.captureState();
+                int[] latest = new int[workers];
+                int[] count = new int[workers];
+                int[] lowest = new int[workers];
+                for (int i = 0; i < state.sent.size(); i++) {
+                    if (i > 0) assertTrue(state.sentSequences[i] > state.sentSequences[i - 1]);
+                    String[] parts = state.sent.get(i).getMessageText().substring(1).split("-");
+                    int w = Integer.parseInt(parts[0]);
+                    int n = Integer.parseInt(parts[1]);
+                    latest[w] = Math.max(latest[w], n);
+                    lowest[w] = count[w] == 0 ? n : Math.min(lowest[w], n);
+                    count[w]++;
+                }
+                long total = 0;
+                for (int w = 0; w < workers; w++) {
+                    total += latest[w];
+                    if (latest[w] == 0) continue;
+                    assertTrue(count[w] == 1 || (count[w] == 2 && lowest[w] == latest[w] - 1),
+                            "worker " + w + " has " + count[w] + " messages up to " + latest[w]);
+                }
+                assertEquals(total, state.totalSent);
+            }
+        } finally {
+            stop.set(true);
+            for (Thread t : threads) t.join();
+        }
+    }
+}
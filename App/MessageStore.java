@@ -0,0 +1,50 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Persistent storage for "store" messages.
+ *
+ * JSON keeps the original stored_messages.json lines. BINARY keeps a
+ * compact segment file with a sidecar offset index (see BinaryMessageStore).
+ * WAL keeps a checksummed write-ahead log with checkpoints that survives a
+ * crash in the middle of an append (see WalMessageStore). The format is
+ * picked at startup with -Dquickchat.store.format=json|binary|wal or
+ * Message.setStorageFormat. The files live in the working directory unless
+ * -Dquickchat.store.dir names another one.
+ */
+public interface MessageStore extends Closeable {
+
+    enum Format { JSON, BINARY, WAL }
+
+    // Append one record (may be buffered until the next flush)
+    void append(Message m) throws IOException;
+
+    // Push buffered records to the file
+    void flush() throws IOException;
+
+    // Read every stored record in the order it was appended
+    List<Message> loadAll() throws IOException;
+
+    static MessageStore open(Format format, GroupCommitWriter.Durability durability,
+                             int batchRecords, long flushIntervalMillis) throws IOException {
+        Path dir = directory();
+        Path json = dir.resolve(JsonMessageStore.DEFAULT_FILE);
+        return switch (format) {
+            case JSON -> new JsonMessageStore(json, durability, batchRecords, flushIntervalMillis);
+            case BINARY -> BinaryMessageStore.openConverting(dir.resolve(BinaryMessageStore.DEFAULT_SEGMENT),
+                    dir.resolve(BinaryMessageStore.DEFAULT_INDEX), json,
+                    durability, batchRecords, flushIntervalMillis);
+            case WAL -> WalMessageStore.openConverting(dir.resolve(WalMessageStore.DEFAULT_LOG),
+                    dir.resolve(WalMessageStore.DEFAULT_CHECKPOINT), json,
+                    durability, batchRecords, flushIntervalMillis);
+        };
+    }
+
+    // Where open puts the store files: -Dquickchat.store.dir, or the working directory
+    static Path directory() {
+        return Paths.get(System.getProperty("quickchat.store.dir", ""));
+    }
+}
@@ -130,6 +130,24 @@ public class MessageTest {
         assertEquals("Hello JSON", Message.getStoredMessagesArray().get(0));
     }
 
+    @Test
+    void testStoredMessageWithoutTextSurvivesReloadAndCompaction() throws Exception {
+        Message m = new Message(1);
+        m.checkRecipientCell("+27830000001");
+        assertTrue(m.checkMessageLength("A".repeat(260)).startsWith("Failure"));
+        m.createMessageHash();
+        assertEquals("Message successfully stored.", m.sendMessage("store"));
+        Message.flushStoredMessages();
+
+        Message.loadStoredMessages();
+        assertEquals(List.of(""), Message.getStoredMessagesArray());
+
+        Message.compactStoredMessages().get();
+        Message.loadStoredMessages();
+        assertEquals(List.of(""), Message.getStoredMessagesArray());
+        assertEquals(m.getMessageID(), Message.getStoredMessages().get(0).getMessageID());
+    }
+
     // --------------------------------------------------------------
     // Test 7: Search by ID
     // --------------------------------------------------------------
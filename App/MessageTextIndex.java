@@ -0,0 +1,375 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted index from words to the messages that contain them, over sent,
+ * stored and disregarded texts, for AND, OR and phrase searches.
+ *
+ * A word is a run of letters or digits, lower-cased. Each message is a
+ * document under the sequence number Message stamped it with. A word's
+ * posting list holds those numbers in blocks of up to BLOCK_SIZE, each
+ * block a first number and the varint-encoded gaps to the rest, so most
+ * postings take one or two bytes. Adds usually arrive in order and append
+ * to the last block; an out-of-order add or a delete re-encodes just the
+ * one block it falls in.
+ *
+ * AND intersects from the shortest list and skips whole blocks that cannot
+ * match; OR merges. Phrases are narrowed with AND and then checked against
+ * the text itself, which the index references but does not copy.
+ */
+public class MessageTextIndex {
+
+    static final int BLOCK_SIZE = 128;
+
+    // One search result
+    public static final class Hit {
+        private final long seq;
+        private final MessageCategory category;
+        private final String text;
+
+        Hit(long seq, MessageCategory category, String text) {
+            this.seq = seq;
+            this.category = category;
+            this.text = text;
+        }
+
+        public long getSequence() { return seq; }
+        public MessageCategory getCategory() { return category; }
+        public String getText() { return text; }
+
+        @Override
+        public String toString() { return category + " #" + seq + ": " + text; }
+    }
+
+    private static final class Doc {
+        final MessageCategory category;
+        final String text;
+
+        Doc(MessageCategory category, String text) {
+            this.category = category;
+            this.text = text;
+        }
+    }
+
+    // Sorted sequence numbers [first, first + gaps...], gaps as unsigned varints
+    private static final class Block {
+        long first, last;
+        int count;
+        byte[] data;
+        int length;
+
+        Block(long[] seqs, int from, int to) {
+            encode(seqs, from, to);
+        }
+
+        void encode(long[] seqs, int from, int to) {
+            first = seqs[from];
+            last = seqs[to - 1];
+            count = to - from;
+            data = new byte[Math.max(8, (to - from) * 2)];
+            length = 0;
+            for (int i = from + 1; i < to; i++) putGap(seqs[i] - seqs[i - 1]);
+        }
+
+        void append(long seq) {
+            putGap(seq - last);
+            last = seq;
+            count++;
+        }
+
+        private void putGap(long gap) {
+            if (length + 10 > data.length) data = Arrays.copyOf(data, data.length * 2);
+            while ((gap & ~0x7FL) != 0) {
+                data[length++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            data[length++] = (byte) gap;
+        }
+
+        // Decode into out starting at offset; returns the new offset
+        int decode(long[] out, int offset) {
+            long seq = first;
+            out[offset++] = seq;
+            int pos = 0;
+            while (pos < length) {
+                long gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    gap |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                seq += gap;
+                out[offset++] = seq;
+            }
+            return offset;
+        }
+
+        long[] decode() {
+            long[] out = new long[count];
+            decode(out, 0);
+            return out;
+        }
+
+        long bytes() { return length + 8; }
+    }
+
+    // One word's postings; all access holds the list's lock (size is also read without it)
+    private static final class Postings {
+        final List<Block> blocks = new ArrayList<>();
+        volatile int size;
+
+        synchronized void add(long seq) {
+            if (blocks.isEmpty()) {
+                blocks.add(new Block(new long[] { seq }, 0, 1));
+            } else {
+                Block tail = blocks.get(blocks.size() - 1);
+                if (seq > tail.last) {
+                    if (tail.count < BLOCK_SIZE) tail.append(seq);
+                    else blocks.add(new Block(new long[] { seq }, 0, 1));
+                } else {
+                    int b = blockFor(seq);
+                    long[] seqs = blocks.get(b).decode();
+                    int at = Arrays.binarySearch(seqs, seq);
+                    if (at >= 0) return;
+                    at = -at - 1;
+                    long[] grown = new long[seqs.length + 1];
+                    System.arraycopy(seqs, 0, grown, 0, at);
+                    grown[at] = seq;
+                    System.arraycopy(seqs, at, grown, at + 1, seqs.length - at);
+                    replace(b, grown);
+                }
+            }
+            size = size + 1;
+        }
+
+        synchronized boolean remove(long seq) {
+            if (blocks.isEmpty()) return false;
+            int b = blockFor(seq);
+            long[] seqs = blocks.get(b).decode();
+            int at = Arrays.binarySearch(seqs, seq);
+            if (at < 0) return false;
+            long[] shrunk = new long[seqs.length - 1];
+            System.arraycopy(seqs, 0, shrunk, 0, at);
+            System.arraycopy(seqs, at + 1, shrunk, at, seqs.length - at - 1);
+            if (shrunk.length == 0) blocks.remove(b);
+            else blocks.get(b).encode(shrunk, 0, shrunk.length);
+            size = size - 1;
+            return true;
+        }
+
+        synchronized long[] toArray() {
+            long[] out = new long[size];
+            int n = 0;
+            for (Block block : blocks) n = block.decode(out, n);
+            return out;
+        }
+
+        // The sorted candidates that are also in this list
+        synchronized long[] retain(long[] candidates) {
+            long[] out = new long[candidates.length];
+            long[] buffer = new long[BLOCK_SIZE * 2];
+            int n = 0, c = 0, b = 0;
+            while (c < candidates.length && b < blocks.size()) {
+                Block block = blocks.get(b);
+                if (block.last < candidates[c]) {
+                    b++;
+                    continue;
+                }
+                if (candidates[c] < block.first) {
+                    c++;
+                    continue;
+                }
+                int count = block.decode(buffer, 0);
+                int i = 0;
+                while (i < count && c < candidates.length && candidates[c] <= block.last) {
+                    if (buffer[i] < candidates[c]) i++;
+                    else if (buffer[i] > candidates[c]) c++;
+                    else {
+                        out[n++] = candidates[c++];
+                        i++;
+                    }
+                }
+                b++;
+            }
+            return Arrays.copyOf(out, n);
+        }
+
+        synchronized long bytes() {
+            long bytes = 0;
+            for (Block block : blocks) bytes += block.bytes();
+            return bytes;
+        }
+
+        // Last block whose first entry is <= seq (or the first block)
+        private int blockFor(long seq) {
+            int lo = 0, hi = blocks.size() - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (blocks.get(mid).first <= seq) lo = mid;
+                else hi = mid - 1;
+            }
+            return lo;
+        }
+
+        // Re-encode block b with seqs, splitting it if it grew past twice the block size
+        private void replace(int b, long[] seqs) {
+            if (seqs.length <= BLOCK_SIZE * 2) {
+                blocks.get(b).encode(seqs, 0, seqs.length);
+                return;
+            }
+            int half = seqs.length / 2;
+            blocks.get(b).encode(seqs, 0, half);
+            blocks.add(b + 1, new Block(seqs, half, seqs.length));
+        }
+    }
+
+    private final Map<String, Postings> postings = new ConcurrentHashMap<>();
+    private final Map<Long, Doc> docs = new ConcurrentHashMap<>();
+
+    // Index text under seq (each distinct word once)
+    public void add(MessageCategory category, long seq, String text) {
+        if (text == null || text.isEmpty()) return;
+        docs.put(seq, new Doc(category, text));
+        // compute() runs atomically per word, so a list is never dropped while being added to
+        for (String word : distinctWords(text)) {
+            postings.compute(word, (w, list) -> {
+                if (list == null) list = new Postings();
+                list.add(seq);
+                return list;
+            });
+        }
+    }
+
+    // Remove the entry added under seq with this text
+    public void remove(long seq, String text) {
+        if (text == null || text.isEmpty()) return;
+        docs.remove(seq);
+        for (String word : distinctWords(text)) {
+            postings.computeIfPresent(word, (w, list) -> {
+                list.remove(seq);
+                return list.size == 0 ? null : list;
+            });
+        }
+    }
+
+    public void removeAll(MessageCategory category) {
+        for (Map.Entry<Long, Doc> e : docs.entrySet()) {
+            if (e.getValue().category == category) remove(e.getKey(), e.getValue().text);
+        }
+    }
+
+    public void clear() {
+        postings.clear();
+        docs.clear();
+    }
+
+    // Messages containing every word in words, in sequence order
+    public List<Hit> all(String words) {
+        return hits(matchAll(distinctWords(words)));
+    }
+
+    // Messages containing at least one word in words, in sequence order
+    public List<Hit> any(String words) {
+        Set<String> terms = distinctWords(words);
+        long[] merged = new long[0];
+        for (String term : terms) {
+            Postings list = postings.get(term);
+            if (list != null) merged = union(merged, list.toArray());
+        }
+        return hits(merged);
+    }
+
+    // Messages containing the words of phrase next to each other, in that order
+    public List<Hit> phrase(String phrase) {
+        List<String> wanted = words(phrase);
+        List<Hit> matches = new ArrayList<>();
+        for (Hit hit : hits(matchAll(new LinkedHashSet<>(wanted)))) {
+            if (Collections.indexOfSubList(words(hit.text), wanted) >= 0) matches.add(hit);
+        }
+        return matches;
+    }
+
+    public int documentCount() { return docs.size(); }
+
+    public int termCount() { return postings.size(); }
+
+    // Encoded size of every posting list in bytes
+    public long postingBytes() {
+        long bytes = 0;
+        for (Postings list : postings.values()) bytes += list.bytes();
+        return bytes;
+    }
+
+    private long[] matchAll(Set<String> terms) {
+        if (terms.isEmpty()) return new long[0];
+        List<Postings> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            Postings list = postings.get(term);
+            if (list == null) return new long[0];
+            lists.add(list);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+
+        long[] candidates = lists.get(0).toArray();
+        for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+            candidates = lists.get(i).retain(candidates);
+        }
+        return candidates;
+    }
+
+    private List<Hit> hits(long[] seqs) {
+        List<Hit> hits = new ArrayList<>(seqs.length);
+        for (long seq : seqs) {
+            // A message deleted since its postings were read is skipped
+            Doc doc = docs.get(seq);
+            if (doc != null) hits.add(new Hit(seq, doc.category, doc.text));
+        }
+        return hits;
+    }
+
+    private static long[] union(long[] a, long[] b) {
+        long[] out = new long[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) out[n++] = a[i++];
+            else if (a[i] > b[j]) out[n++] = b[j++];
+            else {
+                out[n++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) out[n++] = a[i++];
+        while (j < b.length) out[n++] = b[j++];
+        return Arrays.copyOf(out, n);
+    }
+
+    // Lower-cased runs of letters or digits, in order
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) return words;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private static Set<String> distinctWords(String text) {
+        return new LinkedHashSet<>(words(text));
+    }
+}
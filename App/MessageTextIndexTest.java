@@ -0,0 +1,157 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageTextIndexTest {
+
+    private static final String[] VOCABULARY = {
+            "where", "are", "you", "late", "on", "time", "dinner", "tonight", "call", "me",
+            "ok", "see", "Thanks", "It's", "café", "meeting", "at", "the", "office", "2pm"
+    };
+
+    @BeforeEach
+    public void setup() {
+        Message.clearAllMemoryData();
+        try {
+            Files.deleteIfExists(Paths.get("stored_messages.json"));
+        } catch (Exception ignored) {}
+    }
+
+    private static Message message(int number, String text) {
+        Message m = new Message(number);
+        m.checkRecipientCell("+27838884567");
+        m.checkMessageLength(text);
+        m.createMessageHash();
+        return m;
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int words = 1 + random.nextInt(8);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) text.append(random.nextBoolean() ? " " : ", ");
+            text.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+        }
+        return text.append(random.nextBoolean() ? "?" : "!").toString();
+    }
+
+    // Texts of all three categories, scanned the slow way
+    private static List<String> scan(TreeMap<Long, String> live, java.util.function.Predicate<List<String>> match) {
+        List<String> found = new ArrayList<>();
+        for (String text : live.values()) {
+            if (match.test(MessageTextIndex.words(text))) found.add(text);
+        }
+        return found;
+    }
+
+    @Test
+    public void searchesMatchAScanAcrossSendsStoresDisregardsAndDeletes() {
+        Random random = new Random(19);
+        TreeMap<Long, String> live = new TreeMap<>();
+        List<Message> sent = new ArrayList<>();
+        long order = 0;
+
+        for (int i = 0; i < 2_000; i++) {
+            Message m = message(i, randomText(random));
+            int choice = random.nextInt(10);
+            String option = choice < 6 ? "send" : choice < 8 ? "store" : "disregard";
+            m.sendMessage(option);
+            live.put(order++, m.getMessageText());
+            if (option.equals("send")) sent.add(m);
+        }
+        Collections.shuffle(sent, random);
+        for (Message m : sent.subList(0, 400)) {
+            Message.deleteByHash(m.getMessageHash());
+            live.values().remove(m.getMessageText());
+        }
+
+        for (int q = 0; q < 200; q++) {
+            // "It's" is the two words "it" and "s"
+            String a = MessageTextIndex.words(VOCABULARY[random.nextInt(VOCABULARY.length)]).get(0);
+            String b = MessageTextIndex.words(VOCABULARY[random.nextInt(VOCABULARY.length)]).get(0);
+
+            assertEquals(sorted(scan(live, w -> w.contains(a) && w.contains(b))),
+                    sorted(Message.searchAllWords(a + " " + b)), a + " AND " + b);
+            assertEquals(sorted(scan(live, w -> w.contains(a) || w.contains(b))),
+                    sorted(Message.searchAnyWord(a + " " + b)), a + " OR " + b);
+            assertEquals(sorted(scan(live, w -> Collections.indexOfSubList(w, List.of(a, b)) >= 0)),
+                    sorted(Message.searchPhrase(a + " " + b)), "\"" + a + " " + b + "\"");
+        }
+    }
+
+    // live.values().remove drops the first equal text, so compare as multisets
+    private static List<String> sorted(List<String> texts) {
+        List<String> copy = new ArrayList<>(texts);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    @Test
+    public void wordsIgnoreCaseAndPunctuation() {
+        message(1, "Where are YOU? Dinner at 2pm, café!").sendMessage("send");
+        message(2, "you are late").sendMessage("store");
+
+        assertEquals(List.of("Where are YOU? Dinner at 2pm, café!"), Message.searchAllWords("CAFÉ you"));
+        assertEquals(2, Message.searchAnyWord("dinner late").size());
+        assertEquals(List.of("you are late"), Message.searchPhrase("You, are late."));
+        assertEquals(List.of(), Message.searchPhrase("are where"));
+        assertEquals(List.of(), Message.searchAllWords(""));
+        assertEquals(List.of(), Message.searchAllWords("you nowhere"));
+    }
+
+    @Test
+    public void outOfOrderAddsAndRemovesKeepPostingsSorted() {
+        MessageTextIndex index = new MessageTextIndex();
+        Random random = new Random(7);
+        TreeMap<Long, String> expected = new TreeMap<>();
+
+        for (int i = 0; i < 5_000; i++) {
+            long seq = 1 + random.nextInt(1_000_000);
+            if (expected.containsKey(seq)) continue;
+            String text = (seq % 3 == 0 ? "fizz " : "") + (seq % 5 == 0 ? "buzz " : "") + "every";
+            index.add(MessageCategory.SENT, seq, text);
+            expected.put(seq, text);
+        }
+        List<Long> keys = new ArrayList<>(expected.keySet());
+        Collections.shuffle(keys, random);
+        for (Long seq : keys.subList(0, 2_000)) {
+            index.remove(seq, expected.remove(seq));
+        }
+
+        List<Long> every = new ArrayList<>();
+        for (MessageTextIndex.Hit hit : index.all("every")) every.add(hit.getSequence());
+        assertEquals(new ArrayList<>(expected.keySet()), every);
+
+        List<Long> both = new ArrayList<>();
+        for (MessageTextIndex.Hit hit : index.all("buzz fizz")) both.add(hit.getSequence());
+        List<Long> fifteens = new ArrayList<>();
+        for (long seq : expected.keySet()) if (seq % 15 == 0) fifteens.add(seq);
+        assertEquals(fifteens, both);
+
+        for (Long seq : new ArrayList<>(expected.keySet())) index.remove(seq, expected.remove(seq));
+        assertEquals(0, index.termCount());
+        assertEquals(0, index.documentCount());
+    }
+
+    @Test
+    public void postingsAreAFractionOfTheText() {
+        long rawBytes = 0;
+        Random random = new Random(3);
+        for (int i = 0; i < 20_000; i++) {
+            Message m = message(i, randomText(random));
+            m.sendMessage("send");
+            rawBytes += m.getMessageText().length();
+        }
+        long postingBytes = Message.textIndex().postingBytes();
+        assertTrue(postingBytes * 4 < rawBytes, postingBytes + " posting bytes for " + rawBytes + " bytes of text");
+    }
+}
@@ -0,0 +1,274 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Time index over sent and stored messages, for "what was sent between
+ * these times" and for each recipient's conversation timeline.
+ *
+ * Messages are ordered by their timestamp and then by the sequence number
+ * Message stamped them with, so messages from the same millisecond keep
+ * the order they happened in. The range index keeps, per category, a skip
+ * list of one-minute buckets, each a skip list of the messages in that
+ * minute: a range query finds its first bucket in logarithmic time and then
+ * only reads what it returns (the first and last bucket are cut at the
+ * exact times), and a query for one category never reads the others. A
+ * query over every category merges them in time order. Each recipient also
+ * has a timeline of their own.
+ *
+ * Results come in pages of up to `limit` messages plus a continuation
+ * token, as in MessageReport: the token names the last message on the page
+ * and stays valid while messages are sent, stored or deleted. A bucket is
+ * removed once its last message is, and like the other indexes this is
+ * safe for concurrent use.
+ */
+public class MessageTimeIndex {
+
+    static final long BUCKET_MILLIS = 60_000;
+
+    // One page of results; nextToken is null on the last page
+    public static final class Page {
+        private final List<Message> messages;
+        private final String nextToken;
+
+        Page(List<Message> messages, String nextToken) {
+            this.messages = Collections.unmodifiableList(messages);
+            this.nextToken = nextToken;
+        }
+
+        public List<Message> getMessages() { return messages; }
+        public String getNextToken() { return nextToken; }
+        public boolean hasMore() { return nextToken != null; }
+    }
+
+    // Position of one message; also what a token decodes to (with no message)
+    private static final class Key implements Comparable<Key> {
+        final long time;
+        final long seq;
+        final MessageCategory category;
+        final Message message;
+
+        Key(long time, long seq, MessageCategory category, Message message) {
+            this.time = time;
+            this.seq = seq;
+            this.category = category;
+            this.message = message;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int c = Long.compare(time, other.time);
+            return c != 0 ? c : Long.compare(seq, other.seq);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && k.time == time && k.seq == seq;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(time) * 31 + Long.hashCode(seq);
+        }
+    }
+
+    // The messages in one minute. Once its last message is removed it is dead and takes no more,
+    // so an add that raced with the removal puts a fresh bucket in the map instead
+    private static final class Bucket {
+        final ConcurrentSkipListSet<Key> keys = new ConcurrentSkipListSet<>();
+        private boolean dead;
+
+        synchronized boolean add(Key key) {
+            if (dead) return false;
+            keys.add(key);
+            return true;
+        }
+
+        // True if this emptied the bucket
+        synchronized boolean remove(Key key) {
+            keys.remove(key);
+            if (!keys.isEmpty()) return false;
+            dead = true;
+            return true;
+        }
+    }
+
+    // Filled once here and never changed, so reads need no locking
+    private final Map<MessageCategory, ConcurrentSkipListMap<Long, Bucket>> buckets = new EnumMap<>(MessageCategory.class);
+    private final Map<String, ConcurrentSkipListSet<Key>> timelines = new ConcurrentHashMap<>();
+    private final Map<Long, Key> keys = new ConcurrentHashMap<>();
+
+    public MessageTimeIndex() {
+        for (MessageCategory category : MessageCategory.values()) buckets.put(category, new ConcurrentSkipListMap<>());
+    }
+
+    public void add(MessageCategory category, long seq, Message m) {
+        Key key = new Key(m.getTimestamp(), seq, category, m);
+        keys.put(seq, key);
+        ConcurrentSkipListMap<Long, Bucket> minutes = buckets.get(category);
+        long minute = bucket(key.time);
+        while (true) {
+            Bucket bucket = minutes.computeIfAbsent(minute, b -> new Bucket());
+            if (bucket.add(key)) break;
+            minutes.remove(minute, bucket);
+        }
+        if (m.getRecipient() != null) {
+            // compute() runs atomically per recipient, so a timeline is never dropped while being added to
+            timelines.compute(m.getRecipient(), (r, timeline) -> {
+                if (timeline == null) timeline = new ConcurrentSkipListSet<>();
+                timeline.add(key);
+                return timeline;
+            });
+        }
+    }
+
+    // Remove the message added under seq
+    public void remove(long seq) {
+        Key key = keys.remove(seq);
+        if (key == null) return;
+        ConcurrentSkipListMap<Long, Bucket> minutes = buckets.get(key.category);
+        long minute = bucket(key.time);
+        Bucket bucket = minutes.get(minute);
+        if (bucket != null && bucket.remove(key)) minutes.remove(minute, bucket);
+        if (key.message.getRecipient() != null) {
+            timelines.computeIfPresent(key.message.getRecipient(), (r, timeline) -> {
+                timeline.remove(key);
+                return timeline.isEmpty() ? null : timeline;
+            });
+        }
+    }
+
+    public void removeAll(MessageCategory category) {
+        for (Key key : keys.values()) {
+            if (key.category == category) remove(key.seq);
+        }
+    }
+
+    public void clear() {
+        for (ConcurrentSkipListMap<Long, Bucket> minutes : buckets.values()) minutes.clear();
+        timelines.clear();
+        keys.clear();
+    }
+
+    public int size() { return keys.size(); }
+
+    // One-minute buckets currently held, across every category
+    int bucketCount() {
+        int n = 0;
+        for (ConcurrentSkipListMap<Long, Bucket> minutes : buckets.values()) n += minutes.size();
+        return n;
+    }
+
+    // Messages from fromMillis (inclusive) to toMillis (exclusive), oldest first; a null category
+    // means sent and stored. Pass null as the token for the first page
+    public Page range(long fromMillis, long toMillis, MessageCategory category, String token, int limit) {
+        checkLimit(limit);
+        List<Message> page = new ArrayList<>();
+        if (fromMillis >= toMillis) return new Page(page, null);
+
+        Key start = start(fromMillis, token);
+        Key end = new Key(toMillis, Long.MIN_VALUE, null, null);
+        if (start.compareTo(end) >= 0) return new Page(page, null);
+
+        List<Scan> scans = new ArrayList<>();
+        for (MessageCategory c : MessageCategory.values()) {
+            if (category == null || category == c) scans.add(new Scan(buckets.get(c), start, end));
+        }
+        Key last = null;
+        while (true) {
+            // The earliest next message of any category scanned
+            Scan next = null;
+            for (Scan scan : scans) {
+                if (scan.head != null && (next == null || scan.head.compareTo(next.head) < 0)) next = scan;
+            }
+            if (next == null) return new Page(page, null);
+            if (page.size() == limit) return new Page(page, token(last));
+            last = next.head;
+            page.add(last.message);
+            next.advance();
+        }
+    }
+
+    // The messages of one category after start and before end, read a bucket at a time
+    private static final class Scan {
+        private final Iterator<Bucket> minutes;
+        private final Key start;
+        private final Key end;
+        private Iterator<Key> inMinute = Collections.emptyIterator();
+        Key head;
+
+        Scan(ConcurrentSkipListMap<Long, Bucket> buckets, Key start, Key end) {
+            this.minutes = buckets.subMap(bucket(start.time), true, bucket(end.time - 1), true).values().iterator();
+            this.start = start;
+            this.end = end;
+            advance();
+        }
+
+        void advance() {
+            while (!inMinute.hasNext() && minutes.hasNext()) {
+                inMinute = minutes.next().keys.subSet(start, false, end, false).iterator();
+            }
+            head = inMinute.hasNext() ? inMinute.next() : null;
+        }
+    }
+
+    // The same for the messages to one recipient, oldest first
+    public Page timeline(String recipient, long fromMillis, long toMillis, MessageCategory category,
+                         String token, int limit) {
+        checkLimit(limit);
+        List<Message> page = new ArrayList<>();
+        ConcurrentSkipListSet<Key> timeline = recipient == null ? null : timelines.get(recipient);
+        if (timeline == null || fromMillis >= toMillis) return new Page(page, null);
+
+        Key start = start(fromMillis, token);
+        Key end = new Key(toMillis, Long.MIN_VALUE, null, null);
+        if (start.compareTo(end) >= 0) return new Page(page, null);
+
+        Key last = null;
+        NavigableSet<Key> rest = timeline.subSet(start, false, end, false);
+        for (Key key : rest) {
+            if (category != null && key.category != category) continue;
+            if (page.size() == limit) return new Page(page, token(last));
+            page.add(key.message);
+            last = key;
+        }
+        return new Page(page, null);
+    }
+
+    // Just before the first message at fromMillis, or the message a token names if that is later
+    private static Key start(long fromMillis, String token) {
+        Key from = new Key(fromMillis, Long.MIN_VALUE, null, null);
+        if (token == null) return from;
+        Key after = parseToken(token);
+        return after.compareTo(from) > 0 ? after : from;
+    }
+
+    private static long bucket(long time) {
+        return Math.floorDiv(time, BUCKET_MILLIS);
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("Page limit must be positive.");
+    }
+
+    private static String token(Key key) {
+        return Long.toString(key.time, 36) + "." + Long.toString(key.seq, 36);
+    }
+
+    private static Key parseToken(String token) {
+        int dot = token.indexOf('.');
+        try {
+            if (dot < 0) throw new NumberFormatException();
+            return new Key(Long.parseLong(token.substring(0, dot), 36), Long.parseLong(token.substring(dot + 1), 36), null, null);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid timeline token: " + token);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageTimeIndexTest {
+
+    private static final long START = 1_718_000_000_000L;
+    private static final String[] CELLS = { "+27838884567", "+27609151472", "+27831110000" };
+
+    // A clock the test moves by hand
+    private static final class TestClock extends Clock {
+        long millis = START;
+
+        @Override public ZoneOffset getZone() { return ZoneOffset.UTC; }
+        @Override public Clock withZone(java.time.ZoneId zone) { return this; }
+        @Override public long millis() { return millis; }
+        @Override public Instant instant() { return Instant.ofEpochMilli(millis); }
+    }
+
+    private final TestClock clock = new TestClock();
+
+    @BeforeEach
+    public void setup() throws Exception {
+        Message.clearAllMemoryData();
+        Message.setClock(clock);
+        Files.deleteIfExists(Paths.get("stored_messages.json"));
+    }
+
+    @AfterEach
+    public void cleanup() throws Exception {
+        Message.setClock(Clock.systemUTC());
+        Message.setStorageFormat(MessageStore.Format.JSON);
+        Message.clearAllMemoryData();
+        Files.deleteIfExists(Paths.get("stored_messages.json"));
+    }
+
+    private static Message message(int number, String cell, String text) {
+        Message m = new Message(number);
+        m.checkRecipientCell(cell);
+        m.checkMessageLength(text);
+        m.createMessageHash();
+        return m;
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        List<String> texts = new ArrayList<>();
+        for (Message m : messages) texts.add(m.getMessageText());
+        return texts;
+    }
+
+    @Test
+    public void rangesAndTimelinesMatchAScanAndPageThroughEverythingOnce() {
+        Random random = new Random(22);
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++) {
+            // Several messages share a millisecond, and the gaps cross bucket boundaries
+            clock.millis += random.nextInt(4) == 0 ? 0 : random.nextInt(90_000);
+            Message m = message(i, CELLS[random.nextInt(CELLS.length)], "Message " + i);
+            m.sendMessage("send");
+            sent.add(m);
+        }
+        List<Message> deleted = new ArrayList<>(sent);
+        Collections.shuffle(deleted, random);
+        for (Message m : deleted.subList(0, 500)) {
+            Message.deleteByHash(m.getMessageHash());
+            sent.remove(m);
+        }
+
+        for (int q = 0; q < 100; q++) {
+            long from = START + random.nextInt((int) (clock.millis - START));
+            long to = from + random.nextInt(3_600_000);
+            List<Message> expected = new ArrayList<>();
+            for (Message m : sent) if (m.getTimestamp() >= from && m.getTimestamp() < to) expected.add(m);
+            assertEquals(texts(expected), texts(Message.getMessagesBetween(from, to)), from + ".." + to);
+
+            String cell = CELLS[q % CELLS.length];
+            expected.removeIf(m -> !m.getRecipient().equals(cell));
+            assertEquals(texts(expected), texts(Message.getMessagesSentTo(cell, from, to)));
+        }
+
+        // Page through one timeline while more messages are sent
+        List<Message> expected = new ArrayList<>();
+        for (Message m : sent) if (m.getRecipient().equals(CELLS[0])) expected.add(m);
+        List<Message> paged = new ArrayList<>();
+        String token = null;
+        do {
+            MessageTimeIndex.Page page = Message.timelinePage(CELLS[0], token, 37);
+            assertTrue(page.getMessages().size() <= 37);
+            paged.addAll(page.getMessages());
+            token = page.getNextToken();
+            if (token != null) {
+                Message late = message(9_000 + paged.size(), CELLS[0], "Late " + paged.size());
+                late.sendMessage("send");
+                expected.add(late);
+            }
+        } while (token != null);
+        assertEquals(texts(expected), texts(paged));
+    }
+
+    @Test
+    public void lastHourIncludesSentButNotStoredOrOlder() {
+        message(1, CELLS[0], "Two hours ago").sendMessage("send");
+        clock.millis += 3_600_000;
+        message(2, CELLS[0], "An hour ago").sendMessage("send");
+        clock.millis += 3_600_000;
+        message(3, CELLS[0], "Just now").sendMessage("send");
+        message(4, CELLS[0], "Stored now").sendMessage("store");
+        message(5, CELLS[1], "Someone else").sendMessage("send");
+
+        long now = clock.millis;
+        assertEquals(List.of("Just now"), texts(Message.getMessagesSentTo(CELLS[0], now - 3_600_000 + 1, now + 1)));
+        assertEquals(List.of("An hour ago", "Just now"), texts(Message.getMessagesSentTo(CELLS[0], now - 3_600_000, now + 1)));
+        assertEquals(List.of("Two hours ago", "An hour ago", "Just now", "Stored now"),
+                texts(Message.timelinePage(CELLS[0], null, 10).getMessages()));
+        assertEquals(List.of(), Message.getMessagesBetween(now + 1, now));
+        assertThrows(IllegalArgumentException.class, () -> Message.timelinePage(CELLS[0], "not a token", 10));
+    }
+
+    @Test
+    public void timesSurviveEveryStoreFormat() throws Exception {
+        Path seg = Paths.get(BinaryMessageStore.DEFAULT_SEGMENT), idx = Paths.get(BinaryMessageStore.DEFAULT_INDEX);
+        Path wal = Paths.get(WalMessageStore.DEFAULT_LOG), ckpt = Paths.get(WalMessageStore.DEFAULT_CHECKPOINT);
+        try {
+            for (MessageStore.Format format : MessageStore.Format.values()) {
+                Message.setStorageFormat(format);
+                Message.clearAllMemoryData();
+                for (Path p : List.of(Paths.get("stored_messages.json"), seg, idx, wal, ckpt)) Files.deleteIfExists(p);
+
+                clock.millis = START + format.ordinal() * 1_000;
+                message(1, CELLS[0], "First " + format).sendMessage("store");
+                clock.millis += 250;
+                message(2, CELLS[0], "Second " + format).sendMessage("store");
+                Message.loadStoredMessages();
+
+                List<Message> stored = Message.getStoredMessages();
+                assertEquals(2, stored.size(), format.toString());
+                assertEquals(clock.millis - 250, stored.get(0).getTimestamp(), format.toString());
+                assertEquals(clock.millis, stored.get(1).getTimestamp(), format.toString());
+                assertEquals(List.of("First " + format, "Second " + format),
+                        texts(Message.timelinePage(CELLS[0], null, 10).getMessages()));
+            }
+        } finally {
+            Message.setStorageFormat(MessageStore.Format.JSON);
+            Message.clearAllMemoryData();
+            for (Path p : List.of(seg, idx, wal, ckpt)) Files.deleteIfExists(p);
+        }
+    }
+
+    @Test
+    public void recordsWithoutATimeReadBackAsZero() {
+        Message old = JsonRecordCodec.decode("{\"messageID\":\"0838884567\",\"recipient\":\"+27838884567\","
+                + "\"messageText\":\"Old\",\"messageHash\":\"08:0:OD\"}");
+        assertEquals(0, old.getTimestamp());
+        assertFalse(JsonRecordCodec.encode(old).contains("timestamp"));
+
+        Message now = message(1, CELLS[0], "Now");
+        now.sendMessage("send");
+        assertEquals(START, JsonRecordCodec.decode(JsonRecordCodec.encode(now)).getTimestamp());
+    }
+
+    @Test
+    public void snapshotsKeepTimesAndRebuildTheIndex() throws Exception {
+        Path file = Paths.get("message_time_test.snap");
+        try {
+            for (int i = 0; i < 50; i++) {
+                clock.millis += 30_000;
+                message(i, CELLS[i % CELLS.length], "Message " + i).sendMessage(i % 5 == 0 ? "store" : "send");
+            }
+            List<Message> before = new ArrayList<>(Message.getMessagesBetween(START, clock.millis + 1));
+            Message.writeSnapshot(file);
+            Message.clearAllMemoryData();
+            assertTrue(Message.restoreSnapshot(file));
+
+            List<Message> after = Message.getMessagesBetween(START, clock.millis + 1);
+            assertEquals(texts(before), texts(after));
+            for (int i = 0; i < before.size(); i++) {
+                assertEquals(before.get(i).getTimestamp(), after.get(i).getTimestamp());
+            }
+            List<Message> timeline = Message.timelinePage(CELLS[0], null, 100).getMessages();
+            List<Message> sorted = new ArrayList<>(timeline);
+            sorted.sort(Comparator.comparingLong(Message::getTimestamp));
+            assertEquals(sorted, timeline);
+            assertEquals(17, timeline.size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void mergesCategoriesInOrderAndDropsEmptyBuckets() {
+        MessageTimeIndex index = new MessageTimeIndex();
+        List<String> all = new ArrayList<>();
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            // Sent and stored messages interleave, several to a minute and some in the same millisecond
+            long time = START + (i / 2) * 25_000L;
+            MessageCategory category = i % 3 == 0 ? MessageCategory.STORED : MessageCategory.SENT;
+            index.add(category, i, Message.fromStored(null, CELLS[0], "Message " + i, null, time));
+            all.add("Message " + i);
+            if (category == MessageCategory.SENT) sent.add("Message " + i);
+        }
+
+        List<Message> paged = new ArrayList<>();
+        String token = null;
+        do {
+            MessageTimeIndex.Page page = index.range(START, START + 3_600_000, null, token, 7);
+            paged.addAll(page.getMessages());
+            token = page.getNextToken();
+        } while (token != null);
+        assertEquals(all, texts(paged));
+        assertEquals(sent, texts(index.range(START, START + 3_600_000, MessageCategory.SENT, null, 100).getMessages()));
+
+        int buckets = index.bucketCount();
+        index.removeAll(MessageCategory.STORED);
+        assertTrue(index.bucketCount() < buckets);
+        for (int i = 0; i < 40; i++) index.remove(i);
+        assertEquals(0, index.size());
+        assertEquals(0, index.bucketCount());
+    }
+}
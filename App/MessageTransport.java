@@ -0,0 +1,25 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where sent messages are handed off to reach the recipient (an SMS
+ * gateway, a push service, ...). MessageDelivery calls it from its worker
+ * threads, so an implementation must be safe for concurrent use; it may
+ * block for as long as the downstream takes. StubGateway is the local
+ * stand-in used until a real gateway is plugged in.
+ *
+ * With batching on, MessageDelivery hands over several messages to the same
+ * recipient in one deliverBatch call. A transport whose downstream accepts
+ * batches should override it, so the per-call cost is paid once per batch;
+ * the default just delivers them one by one.
+ */
+public interface MessageTransport {
+
+    // Deliver one message; throw to have it retried
+    void deliver(Message m) throws IOException;
+
+    // Deliver messages to one recipient, in the order given; throw to have the whole batch retried
+    default void deliverBatch(String recipient, List<Message> batch) throws IOException {
+        for (Message m : batch) deliver(m);
+    }
+}
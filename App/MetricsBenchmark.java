@@ -0,0 +1,66 @@
+import java.util.Locale;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Overhead of MessageMetrics: the same send, search and login loops with
+ * metrics on and off, alternating so warm-up and GC fall on both sides.
+ * Prints the time per operation each way and the metrics dump at the end.
+ *
+ * Usage: java MetricsBenchmark [messages] [rounds]
+ */
+public class MetricsBenchmark {
+
+    private static final String USER = "kyl_1";
+    private static final String PASSWORD = "Ch&&sec@ke99!";
+
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Login login = new Login(USER, PASSWORD);
+        String[] ids = new String[messages];
+        int[] next = { 0 };
+
+        String[] names = { "send", "searchByMessageID", "searchWords", "authenticate" };
+        IntToLongFunction[] ops = {
+                i -> {
+                    Message m = Message.fromStored(String.valueOf(1000000000L + next[0]), "+2771" + (1_000_000 + i % 1000),
+                            "Message " + i, null);
+                    ids[i] = m.getMessageID();
+                    next[0]++;
+                    return m.sendMessage("send").length();
+                },
+                i -> Message.searchByMessageID(ids[i]).length(),
+                i -> Message.searchAllWords("Message " + i).size(),
+                i -> login.authenticate(USER, PASSWORD) ? 1 : 0
+        };
+        // Logins hash the password, so they get fewer iterations
+        int[] counts = { messages, messages, messages, Math.max(1, messages / 1000) };
+
+        double[][] nanos = new double[2][names.length];
+        long sink = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int on = 0; on < 2; on++) {
+                MessageMetrics.setEnabled(on == 1);
+                Message.clearAllMemoryData();
+                for (int op = 0; op < names.length; op++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < counts[op]; i++) sink += ops[op].applyAsLong(i);
+                    long elapsed = System.nanoTime() - start;
+                    // The first round is warm-up
+                    if (round > 0) nanos[on][op] += (double) elapsed / counts[op] / (rounds - 1);
+                }
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%-20s %12s %12s %10s%n", "operation", "off ns/op", "on ns/op", "overhead");
+        for (int op = 0; op < names.length; op++) {
+            System.out.printf(Locale.ROOT, "%-20s %12.1f %12.1f %9.1f%%%n", names[op], nanos[0][op], nanos[1][op],
+                    (nanos[1][op] / nanos[0][op] - 1) * 100);
+        }
+        System.out.println();
+        System.out.print(MessageMetrics.dump());
+        System.out.println("(sink " + sink + ")");
+        Message.clearAllMemoryData();
+    }
+}
@@ -0,0 +1,83 @@
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted PBKDF2-HMAC-SHA256 password hashes, stored as
+ *
+ *   pbkdf2-sha256$<iterations>$<base64 salt>$<base64 hash>
+ *
+ * The iteration count is the cost: it defaults to
+ * -Dquickchat.password.iterations (310,000 if unset) and is recorded in each
+ * hash, so hashes made at an older cost still verify and needsRehash tells
+ * the caller when to upgrade them.
+ */
+public final class PasswordHasher {
+
+    public static final int DEFAULT_ITERATIONS = Integer.getInteger("quickchat.password.iterations", 310_000);
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+
+    public PasswordHasher() {
+        this(DEFAULT_ITERATIONS);
+    }
+
+    public PasswordHasher(int iterations) {
+        if (iterations < 1) throw new IllegalArgumentException("Iterations must be at least 1.");
+        this.iterations = iterations;
+    }
+
+    public int getIterations() { return iterations; }
+
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + "$" + iterations + "$" + base64.encodeToString(salt)
+                + "$" + base64.encodeToString(pbkdf2(password, salt, iterations, HASH_BITS));
+    }
+
+    // Constant-time check of a password against an encoded hash; false if the hash is malformed
+    public static boolean verify(String password, String encoded) {
+        if (password == null || encoded == null) return false;
+        String[] parts = encoded.split("\\$");
+        if (parts.length != 4 || !parts[0].equals(PREFIX)) return false;
+
+        try {
+            int cost = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            if (cost < 1 || expected.length == 0) return false;
+            return MessageDigest.isEqual(expected, pbkdf2(password, salt, cost, expected.length * 8));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // True if the hash was made at a different cost than this hasher's
+    public boolean needsRehash(String encoded) {
+        if (encoded == null) return true;
+        String[] parts = encoded.split("\\$");
+        return parts.length != 4 || !parts[0].equals(PREFIX) || !parts[1].equals(String.valueOf(iterations));
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations, int bits) {
+        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, bits);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available.", e);
+        }
+    }
+}
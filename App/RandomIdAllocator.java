@@ -0,0 +1,14 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Uniformly random 10-digit IDs. Each thread draws from its own
+ * ThreadLocalRandom, so there is no shared generator, but IDs can repeat
+ * (expect a repeat after roughly 100,000 IDs).
+ */
+public class RandomIdAllocator implements MessageIdAllocator {
+
+    @Override
+    public long nextId() {
+        return ThreadLocalRandom.current().nextLong(MIN_ID, MAX_ID + 1);
+    }
+}
@@ -0,0 +1,225 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Digit trie over recipient numbers, for every sent or stored message to a
+ * country code or number prefix and for counts grouped by prefix.
+ *
+ * Recipients are E.164-style ("+27609151472"); the leading "+" is dropped
+ * and each digit is one level, so a number has at most 15 nodes. Every node
+ * keeps how many sent and stored messages are below it, which makes a
+ * prefix count one walk down the prefix, and lets listings and grouped
+ * counts skip empty branches, so they cost the prefix length plus what they
+ * return. The messages themselves hang off the node that ends their number,
+ * keyed by the sequence Message stamped them with.
+ *
+ * Only SENT and STORED are tracked. Recipients that are not digits after an
+ * optional "+" (only possible from a damaged stored file) are left out.
+ * Nodes are never removed, so a count of zero can be read but is skipped.
+ * Like the other indexes it is safe for concurrent use; a reader racing a
+ * writer may see the message before or after the count moves.
+ */
+public class RecipientTrie {
+
+    private static final class Node {
+        private static final AtomicIntegerFieldUpdater<Node> SENT =
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "sent");
+        private static final AtomicIntegerFieldUpdater<Node> STORED =
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "stored");
+
+        // Messages below this node (including those ending here)
+        volatile int sent, stored;
+        volatile AtomicReferenceArray<Node> children;
+
+        // Messages to exactly this number, created on first use
+        volatile ConcurrentSkipListMap<Long, Message> sentHere, storedHere;
+
+        Node child(int digit) {
+            AtomicReferenceArray<Node> kids = children;
+            return kids == null ? null : kids.get(digit);
+        }
+
+        Node childOrCreate(int digit) {
+            AtomicReferenceArray<Node> kids = children;
+            if (kids == null) {
+                synchronized (this) {
+                    if (children == null) children = new AtomicReferenceArray<>(10);
+                    kids = children;
+                }
+            }
+            Node child = kids.get(digit);
+            if (child == null) {
+                kids.compareAndSet(digit, null, new Node());
+                child = kids.get(digit);
+            }
+            return child;
+        }
+
+        ConcurrentSkipListMap<Long, Message> here(MessageCategory category, boolean create) {
+            ConcurrentSkipListMap<Long, Message> map = category == MessageCategory.SENT ? sentHere : storedHere;
+            if (map != null || !create) return map;
+            synchronized (this) {
+                if (category == MessageCategory.SENT) {
+                    if (sentHere == null) sentHere = new ConcurrentSkipListMap<>();
+                    return sentHere;
+                }
+                if (storedHere == null) storedHere = new ConcurrentSkipListMap<>();
+                return storedHere;
+            }
+        }
+
+        int count(MessageCategory category) {
+            return category == MessageCategory.SENT ? sent : stored;
+        }
+
+        void adjust(MessageCategory category, int delta) {
+            if (category == MessageCategory.SENT) SENT.addAndGet(this, delta);
+            else STORED.addAndGet(this, delta);
+        }
+    }
+
+    private final Node root = new Node();
+
+    public void add(MessageCategory category, String recipient, long seq, Message m) {
+        if (!tracked(category) || !isNumber(recipient)) return;
+        Node node = root;
+        for (int i = start(recipient); i < recipient.length(); i++) {
+            node = node.childOrCreate(recipient.charAt(i) - '0');
+        }
+        if (node.here(category, true).putIfAbsent(seq, m) != null) return;
+
+        // Counts move only once the message is in place, so a count never runs ahead of a listing
+        node = root;
+        root.adjust(category, 1);
+        for (int i = start(recipient); i < recipient.length(); i++) {
+            node = node.child(recipient.charAt(i) - '0');
+            node.adjust(category, 1);
+        }
+    }
+
+    public void remove(MessageCategory category, String recipient, long seq) {
+        if (!tracked(category) || !isNumber(recipient)) return;
+        Node node = find(recipient);
+        if (node == null) return;
+        ConcurrentSkipListMap<Long, Message> here = node.here(category, false);
+        if (here == null || here.remove(seq) == null) return;
+
+        node = root;
+        root.adjust(category, -1);
+        for (int i = start(recipient); i < recipient.length(); i++) {
+            node = node.child(recipient.charAt(i) - '0');
+            node.adjust(category, -1);
+        }
+    }
+
+    // Messages to exactly this recipient, in the order they were stamped
+    public List<Message> exact(String recipient, MessageCategory category) {
+        List<Message> out = new ArrayList<>();
+        if (!tracked(category) || !isNumber(recipient)) return out;
+        Node node = find(recipient);
+        ConcurrentSkipListMap<Long, Message> here = node == null ? null : node.here(category, false);
+        if (here != null) out.addAll(here.values());
+        return out;
+    }
+
+    // Messages to every number starting with prefix ("" or "+" for all), by number then stamp order
+    public List<Message> withPrefix(String prefix, MessageCategory category) {
+        List<Message> out = new ArrayList<>();
+        if (!tracked(category) || !isPrefix(prefix)) return out;
+        Node node = find(prefix);
+        if (node != null) collect(node, category, out);
+        return out;
+    }
+
+    // How many messages go to numbers starting with prefix
+    public int count(String prefix, MessageCategory category) {
+        if (!tracked(category) || !isPrefix(prefix)) return 0;
+        Node node = find(prefix);
+        return node == null ? 0 : node.count(category);
+    }
+
+    // Counts grouped by the first digits numbers after prefix, e.g. ("+27", 2) gives "+2760" -> n,
+    // "+2772" -> m, ...; numbers shorter than that are grouped under themselves. Empty groups are left out
+    public Map<String, Integer> countsByPrefix(String prefix, int digits, MessageCategory category) {
+        Map<String, Integer> out = new LinkedHashMap<>();
+        if (!tracked(category) || !isPrefix(prefix) || digits < 0) return out;
+        Node node = find(prefix);
+        if (node == null || node.count(category) == 0) return out;
+        StringBuilder path = new StringBuilder("+").append(prefix, start(prefix), prefix.length());
+        group(node, category, digits, path, out);
+        return out;
+    }
+
+    public void clear() {
+        root.children = null;
+        root.sentHere = null;
+        root.storedHere = null;
+        root.sent = 0;
+        root.stored = 0;
+    }
+
+    private Node find(String key) {
+        Node node = root;
+        for (int i = start(key); i < key.length() && node != null; i++) {
+            node = node.child(key.charAt(i) - '0');
+        }
+        return node;
+    }
+
+    private static void collect(Node node, MessageCategory category, List<Message> out) {
+        ConcurrentSkipListMap<Long, Message> here = node.here(category, false);
+        if (here != null) out.addAll(here.values());
+        AtomicReferenceArray<Node> kids = node.children;
+        if (kids == null) return;
+        for (int d = 0; d < 10; d++) {
+            Node child = kids.get(d);
+            if (child != null && child.count(category) > 0) collect(child, category, out);
+        }
+    }
+
+    private static void group(Node node, MessageCategory category, int digits,
+                              StringBuilder path, Map<String, Integer> out) {
+        AtomicReferenceArray<Node> kids = node.children;
+        if (digits == 0 || kids == null) {
+            out.put(path.toString(), node.count(category));
+            return;
+        }
+        // Numbers that end here are shorter than the grouping
+        ConcurrentSkipListMap<Long, Message> here = node.here(category, false);
+        if (here != null && !here.isEmpty()) out.put(path.toString(), here.size());
+        for (int d = 0; d < 10; d++) {
+            Node child = kids.get(d);
+            if (child == null || child.count(category) == 0) continue;
+            path.append((char) ('0' + d));
+            group(child, category, digits - 1, path, out);
+            path.setLength(path.length() - 1);
+        }
+    }
+
+    private static boolean tracked(MessageCategory category) {
+        return category == MessageCategory.SENT || category == MessageCategory.STORED;
+    }
+
+    private static int start(String key) {
+        return !key.isEmpty() && key.charAt(0) == '+' ? 1 : 0;
+    }
+
+    // "+" then at least one digit (or digits alone)
+    private static boolean isNumber(String key) {
+        return key != null && key.length() > start(key) && isPrefix(key);
+    }
+
+    private static boolean isPrefix(String key) {
+        if (key == null) return false;
+        for (int i = start(key); i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+}
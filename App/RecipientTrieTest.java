@@ -0,0 +1,126 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecipientTrieTest {
+
+    private static final String[] NUMBERS = {
+            "+27609151472", "+27609151473", "+2760915", "+27838884567", "+27831110000",
+            "+447700900123", "+4477009001", "+12025550123", "+1202555"
+    };
+
+    @BeforeEach
+    public void setup() {
+        Message.clearAllMemoryData();
+        try {
+            Files.deleteIfExists(Paths.get("stored_messages.json"));
+        } catch (Exception ignored) {}
+    }
+
+    private static Message message(int number, String cell, String text) {
+        Message m = new Message(number);
+        m.checkRecipientCell(cell);
+        m.checkMessageLength(text);
+        m.createMessageHash();
+        return m;
+    }
+
+    // The slow way: every sent then every stored message whose recipient starts with prefix
+    private static List<String> scan(String prefix) {
+        List<String> found = new ArrayList<>();
+        for (Message m : Message.getAllMessages()) {
+            if (m.getRecipient().startsWith(prefix)) found.add(m.getMessageText());
+        }
+        for (Message m : Message.getStoredMessages()) {
+            if (m.getRecipient().startsWith(prefix)) found.add(m.getMessageText());
+        }
+        return found;
+    }
+
+    private static Map<String, Integer> scanGroups(String prefix, int digits) {
+        Map<String, Integer> groups = new TreeMap<>();
+        List<Message> all = new ArrayList<>(Message.getAllMessages());
+        all.addAll(Message.getStoredMessages());
+        for (Message m : all) {
+            String r = m.getRecipient();
+            if (!r.startsWith(prefix)) continue;
+            String key = r.substring(0, Math.min(r.length(), prefix.length() + digits));
+            groups.merge(key, 1, Integer::sum);
+        }
+        return groups;
+    }
+
+    private static List<String> sorted(List<String> texts) {
+        List<String> copy = new ArrayList<>(texts);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    @Test
+    public void prefixSearchesAndCountsMatchAScan() {
+        Random random = new Random(20);
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++) {
+            Message m = message(i, NUMBERS[random.nextInt(NUMBERS.length)], "Message " + i);
+            if (random.nextInt(4) == 0) {
+                m.sendMessage("store");
+            } else {
+                m.sendMessage("send");
+                sent.add(m);
+            }
+        }
+        Collections.shuffle(sent, random);
+        for (Message m : sent.subList(0, 500)) Message.deleteByHash(m.getMessageHash());
+
+        String[] prefixes = { "+", "+2", "+27", "+276", "+2760915", "+27609151472", "+44", "+1202555", "+9", "+2783" };
+        for (String prefix : prefixes) {
+            List<String> expected = scan(prefix);
+            assertEquals(sorted(expected), sorted(Message.searchByRecipientPrefix(prefix)), prefix);
+            assertEquals(expected.size(), Message.countByRecipientPrefix(prefix), prefix);
+            for (int digits = 0; digits <= 4; digits++) {
+                assertEquals(scanGroups(prefix, digits), Message.countsByRecipientPrefix(prefix, digits),
+                        prefix + " by " + digits);
+            }
+        }
+    }
+
+    @Test
+    public void searchByRecipientOnlyIncludesThatRecipientsStoredMessages() {
+        message(1, "+27838884567", "Sent to me").sendMessage("send");
+        message(2, "+27838884567", "Stored for me").sendMessage("store");
+        message(3, "+27834557896", "Stored for someone else").sendMessage("store");
+
+        assertEquals(List.of("Sent to me", "Stored for me"), Message.searchByRecipient("+27838884567"));
+        assertEquals(List.of("Stored for someone else"), Message.searchByRecipient("+27834557896"));
+    }
+
+    @Test
+    public void reloadingStoredMessagesReplacesTheirEntries() {
+        message(1, "+27838884567", "Stored once").sendMessage("store");
+        Message.flushStoredMessages();
+        assertEquals(1, Message.countByRecipientPrefix("+27"));
+
+        Message.loadStoredMessages();
+        assertEquals(1, Message.countByRecipientPrefix("+27"));
+        assertEquals(List.of("Stored once"), Message.searchByRecipientPrefix("+2783"));
+    }
+
+    @Test
+    public void badPrefixesFindNothing() {
+        message(1, "+27838884567", "Hello").sendMessage("send");
+        assertEquals(List.of(), Message.searchByRecipientPrefix("+27a"));
+        assertEquals(0, Message.countByRecipientPrefix(null));
+        assertEquals(1, Message.countByRecipientPrefix("27"));
+        assertEquals(Map.of("+27838884567", 1), Message.countsByRecipientPrefix("+27838884567", 3));
+    }
+}
@@ -12,53 +12,60 @@
 
 public class Register {
     protected String regUsername;
-    protected String regPassword;
     private String regCell;
     private String firstName;
     private String lastName;
 
+    // Accounts and their login state; pass a shared directory to serve many users
+    protected final UserDirectory directory;
+
+    public Register() {
+        this(new UserDirectory());
+    }
+
+    public Register(UserDirectory directory) {
+        this.directory = directory;
+    }
+
+    public UserDirectory getDirectory() {
+        return directory;
+    }
+
     // --- Check Username ---
     public boolean checkUserName(String username) {
-        return username.contains("_") && username.length() <= 5;
+        return Validator.isValidUsername(username);
     }
 
     // --- Check Password ---
     public boolean checkPasswordComplexity(String password) {
-        return password.length() >= 8 &&
-               password.matches(".*[A-Z].*") &&  // at least one capital letter
-               password.matches(".*[0-9].*") &&  // at least one number
-               password.matches(".*[^a-zA-Z0-9].*"); // at least one special char
+        // One scan for a capital letter, a number and a special char
+        return Validator.isValidPassword(password);
     }
 
     // --- Check Cellphone ---
     public boolean checkCellPhoneNumber(String cell) {
-        return cell.matches("\\+[0-9]{1,3}[0-9]{7,10}");
-    } // Regex pattern logic adapted with assistance from ChatGPT (OpenAI, 2025)
+        return Validator.isValidRegisterCell(cell);
+    } // Pattern \+[0-9]{1,3}[0-9]{7,10} adapted with assistance from ChatGPT (OpenAI, 2025)
 
     // --- Register User ---
     public String registerUser(String username, String password, String cell, String fName, String lName) {
-        if (!checkUserName(username)) {
-            return "Username is not correctly formatted, please ensure that your username contains an underscore and is no more than five characters in length.";
-        }
-        if (!checkPasswordComplexity(password)) {
-            return "Password is not correctly formatted, please ensure that the password contains at least eight characters, a capital letter, a number, and a special character.";
-        }
-        if (!checkCellPhoneNumber(cell)) {
-            return "Cell phone number incorrectly formatted or does not contain international code.";
+        // Same checks and messages as checkUserName, checkPasswordComplexity and checkCellPhoneNumber
+        String result = directory.registerUser(username, password, cell, fName, lName);
+        if (!result.equals(UserDirectory.REGISTERED)) {
+            return result;
         }
 
         this.regUsername = username;
-        this.regPassword = password;
         this.regCell = cell;
         this.firstName = fName;
         this.lastName = lName;
 
-        return "User successfully registered!";
+        return result;
     }
 
     // --- Login User ---
     public boolean loginUser(String username, String password) {
-        return username.equals(regUsername) && password.equals(regPassword);
+        return directory.checkCredentials(username, password);
     }
 
     // --- Return Login Status ---
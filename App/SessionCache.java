@@ -0,0 +1,87 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short-lived record of recently verified logins, so a repeat check of the
+ * same username and password skips the slow hash. Only a keyed SHA-256 of
+ * the credentials is kept (the key is random per cache), entries expire
+ * after the time-to-live, and a failed attempt drops the user's entry.
+ */
+public class SessionCache {
+
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+    public static final int DEFAULT_MAX_SESSIONS = 100_000;
+
+    private static final class Session {
+        final byte[] digest;
+        final long expiresAt;
+
+        Session(byte[] digest, long expiresAt) {
+            this.digest = digest;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final byte[] key = new byte[32];
+    private final long ttlNanos;
+    private final int maxSessions;
+
+    public SessionCache() {
+        this(DEFAULT_TTL_MILLIS, DEFAULT_MAX_SESSIONS);
+    }
+
+    // A ttl of 0 disables the cache
+    public SessionCache(long ttlMillis, int maxSessions) {
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.maxSessions = maxSessions;
+        new SecureRandom().nextBytes(key);
+    }
+
+    // True if these credentials were verified within the time-to-live
+    public boolean isVerified(String username, String password) {
+        if (ttlNanos <= 0 || username == null || password == null) return false;
+        Session session = sessions.get(username);
+        if (session == null) return false;
+        if (System.nanoTime() - session.expiresAt >= 0) {
+            sessions.remove(username, session);
+            return false;
+        }
+        return MessageDigest.isEqual(session.digest, digest(username, password));
+    }
+
+    public void put(String username, String password) {
+        if (ttlNanos <= 0 || username == null || password == null) return;
+        if (sessions.size() >= maxSessions) evictExpired();
+        if (sessions.size() >= maxSessions) return;
+        sessions.put(username, new Session(digest(username, password), System.nanoTime() + ttlNanos));
+    }
+
+    public void invalidate(String username) {
+        if (username != null) sessions.remove(username);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void evictExpired() {
+        long now = System.nanoTime();
+        sessions.values().removeIf(s -> now - s.expiresAt >= 0);
+    }
+
+    private byte[] digest(String username, String password) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(key);
+            sha.update(username.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            return sha.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+}
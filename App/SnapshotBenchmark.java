@@ -0,0 +1,62 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Startup time from a state snapshot compared with replaying the same
+ * messages from JSON lines (load the file, then send each record again).
+ *
+ * Usage: java SnapshotBenchmark [messages] [rounds]
+ */
+public class SnapshotBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path dir = Files.createTempDirectory("snapshot-bench");
+        Path json = dir.resolve("replay.json");
+        Path snapshot = dir.resolve(MessageSnapshot.DEFAULT_FILE);
+        try {
+            Message.clearAllMemoryData();
+            try (JsonMessageStore store = new JsonMessageStore(json, GroupCommitWriter.Durability.NONE,
+                    GroupCommitWriter.DEFAULT_BATCH_RECORDS, 0)) {
+                for (int i = 0; i < messages; i++) {
+                    Message m = Message.fromStored(String.valueOf(1000000000L + i), "+2760915147" + (i % 10),
+                            "Where are you? You are late! I have asked you to be on time. #" + i,
+                            "10:" + i + ":W" + (char) ('0' + i % 10));
+                    store.append(m);
+                    m.sendMessage("send");
+                }
+            }
+
+            long start = System.nanoTime();
+            long bytes = Message.writeSnapshot(snapshot);
+            System.out.printf("snapshot of %,d messages: %,d bytes in %,d ms (JSON %,d bytes)%n",
+                    messages, bytes, (System.nanoTime() - start) / 1_000_000, Files.size(json));
+
+            JsonMessageStore replay = new JsonMessageStore(json, GroupCommitWriter.Durability.NONE, 1, 0);
+            for (int round = 1; round <= rounds; round++) {
+                Message.clearAllMemoryData();
+                start = System.nanoTime();
+                for (Message m : replay.loadAll()) m.sendMessage("send");
+                long replayNanos = System.nanoTime() - start;
+                int replayed = Message.returnTotalMessages();
+
+                Message.clearAllMemoryData();
+                start = System.nanoTime();
+                Message.restoreSnapshot(snapshot);
+                long restoreNanos = System.nanoTime() - start;
+
+                System.out.printf("round %d: JSON replay %,d messages in %,d ms | snapshot restore %,d in %,d ms%n",
+                        round, replayed, replayNanos / 1_000_000, Message.returnTotalMessages(),
+                        restoreNanos / 1_000_000);
+            }
+        } finally {
+            Message.clearAllMemoryData();
+            Files.deleteIfExists(json);
+            Files.deleteIfExists(snapshot);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
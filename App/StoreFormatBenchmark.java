@@ -0,0 +1,56 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * File size and cold-load time of the JSON and binary stored-message
+ * formats for the same records.
+ *
+ * Usage: java StoreFormatBenchmark [records] [rounds]
+ */
+public class StoreFormatBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path dir = Files.createTempDirectory("format-bench");
+        Path json = dir.resolve("stored_messages.json");
+        Path seg = dir.resolve("stored_messages.seg");
+        Path idx = dir.resolve("stored_messages.idx");
+        try {
+            try (JsonMessageStore store = new JsonMessageStore(json, GroupCommitWriter.Durability.NONE,
+                    GroupCommitWriter.DEFAULT_BATCH_RECORDS, 0)) {
+                for (int i = 0; i < records; i++) {
+                    store.append(Message.fromStored(String.valueOf(1000000000L + i), "+27609151472",
+                            "Where are you? You are late! I have asked you to be on time. #" + i,
+                            "10:" + (i % 1000) + ":W" + (char) ('0' + i % 10)));
+                }
+            }
+            BinaryMessageStore.convertFromJson(json, seg, idx);
+
+            System.out.printf("JSON   %,14d bytes%n", Files.size(json));
+            System.out.printf("BINARY %,14d bytes (+ %,d index)%n", Files.size(seg), Files.size(idx));
+
+            JsonMessageStore jsonStore = new JsonMessageStore(json, GroupCommitWriter.Durability.NONE, 1, 0);
+            BinaryMessageStore binaryStore = new BinaryMessageStore(seg, idx, GroupCommitWriter.Durability.NONE, 1, 0);
+            for (int round = 1; round <= rounds; round++) {
+                long start = System.nanoTime();
+                int jsonCount = jsonStore.loadAll().size();
+                long jsonNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                int binaryCount = binaryStore.loadAll().size();
+                long binaryNanos = System.nanoTime() - start;
+
+                System.out.printf("round %d: JSON %,d records in %,d ms | BINARY %,d records in %,d ms%n",
+                        round, jsonCount, jsonNanos / 1_000_000, binaryCount, binaryNanos / 1_000_000);
+            }
+        } finally {
+            Files.deleteIfExists(json);
+            Files.deleteIfExists(seg);
+            Files.deleteIfExists(idx);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
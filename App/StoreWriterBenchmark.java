@@ -0,0 +1,63 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Records-per-second for storing messages: the old open/write/close
+ * FileWriter per record against GroupCommitWriter under each durability
+ * policy.
+ *
+ * Usage: java StoreWriterBenchmark [records] [fsyncRecords]
+ * fsyncRecords caps the FSYNC_RECORD run, which is much slower.
+ */
+public class StoreWriterBenchmark {
+
+    private static final String RECORD =
+            "{\"messageID\":\"9611845214\",\"recipient\":\"+27609151472\","
+            + "\"messageText\":\"Where are you? You are late! I have asked you to be on time.\","
+            + "\"messageHash\":\"96:1:WE\"}";
+
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int fsyncRecords = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+
+        Path dir = Files.createTempDirectory("store-bench");
+        try {
+            report("FileWriter per record", records, runFileWriter(dir.resolve("legacy.json"), records));
+            for (GroupCommitWriter.Durability d : GroupCommitWriter.Durability.values()) {
+                int n = d == GroupCommitWriter.Durability.FSYNC_RECORD ? Math.min(records, fsyncRecords) : records;
+                report("GroupCommitWriter " + d, n, runGroupCommit(dir.resolve(d + ".json"), d, n));
+            }
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path p : (Iterable<Path>) files::iterator) Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static long runFileWriter(Path file, int records) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            try (FileWriter writer = new FileWriter(file.toFile(), true)) {
+                writer.write(RECORD + System.lineSeparator());
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runGroupCommit(Path file, GroupCommitWriter.Durability durability, int records)
+            throws IOException {
+        long start = System.nanoTime();
+        try (GroupCommitWriter writer = new GroupCommitWriter(file, durability)) {
+            for (int i = 0; i < records; i++) writer.appendLine(RECORD);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, int records, long nanos) {
+        double perSecond = records / (nanos / 1_000_000_000.0);
+        System.out.printf("%-32s %10d records %12.0f records/s%n", name, records, perSecond);
+    }
+}
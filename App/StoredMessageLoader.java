@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Streaming loader for line-based store files such as stored_messages.json.
+ *
+ * The file is read with a FileChannel in fixed-size chunks. Each chunk is
+ * cut at its last newline (the remainder is carried into the next chunk)
+ * and parsed on a fork-join pool while the next chunk is being read. Only a
+ * few chunks are in flight at once, so the raw file never has to fit on the
+ * heap, and results are handed to the sink in file order.
+ */
+public final class StoredMessageLoader {
+
+    public static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+
+    // Parses one line, given as buf[from, to) without its line break; null skips the line
+    @FunctionalInterface
+    public interface RecordParser<T> {
+        T parse(byte[] buf, int from, int to);
+    }
+
+    private StoredMessageLoader() {}
+
+    public static <T> List<T> load(Path path, RecordParser<T> parser) throws IOException {
+        List<T> results = new ArrayList<>();
+        load(path, parser, results::add, DEFAULT_CHUNK_BYTES, ForkJoinPool.commonPool());
+        return results;
+    }
+
+    public static <T> void load(Path path, RecordParser<T> parser, Consumer<? super T> sink,
+                                int chunkBytes, ForkJoinPool pool) throws IOException {
+        load(path, parser, sink, chunkBytes, pool, Long.MAX_VALUE);
+    }
+
+    // Same, reading only the first limitBytes of the file
+    public static <T> void load(Path path, RecordParser<T> parser, Consumer<? super T> sink,
+                                int chunkBytes, ForkJoinPool pool, long limitBytes) throws IOException {
+        if (chunkBytes <= 0) throw new IllegalArgumentException("Chunk size must be positive.");
+
+        int maxInFlight = pool.getParallelism() + 1;
+        ArrayDeque<ForkJoinTask<List<T>>> inFlight = new ArrayDeque<>();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            byte[] chunk = new byte[chunkBytes];
+            int filled = 0;
+            long remaining = limitBytes;
+
+            while (true) {
+                if (filled == chunk.length) {
+                    // A single line longer than the chunk: grow until it fits
+                    chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                }
+
+                if (remaining <= 0) break;
+                int read = channel.read(ByteBuffer.wrap(chunk, filled, (int) Math.min(chunk.length - filled, remaining)));
+                if (read < 0) break;
+                filled += read;
+                remaining -= read;
+
+                int cut = lastNewline(chunk, filled);
+                if (cut < 0) continue;
+
+                byte[] next = new byte[Math.max(chunkBytes, filled - cut - 1)];
+                int carried = filled - cut - 1;
+                System.arraycopy(chunk, cut + 1, next, 0, carried);
+
+                submit(pool, inFlight, maxInFlight, chunk, cut + 1, parser, sink);
+                chunk = next;
+                filled = carried;
+            }
+
+            if (filled > 0) submit(pool, inFlight, maxInFlight, chunk, filled, parser, sink);
+        } finally {
+            // Hand over whatever was parsed, in order, even if reading failed part way
+            while (!inFlight.isEmpty()) drain(inFlight.poll(), sink);
+        }
+    }
+
+    private static <T> void submit(ForkJoinPool pool, ArrayDeque<ForkJoinTask<List<T>>> inFlight,
+                                   int maxInFlight, byte[] chunk, int length,
+                                   RecordParser<T> parser, Consumer<? super T> sink) {
+        while (inFlight.size() >= maxInFlight) drain(inFlight.poll(), sink);
+        inFlight.add(pool.submit(() -> parseChunk(chunk, length, parser)));
+    }
+
+    private static <T> void drain(ForkJoinTask<List<T>> task, Consumer<? super T> sink) {
+        for (T record : task.join()) sink.accept(record);
+    }
+
+    private static <T> List<T> parseChunk(byte[] buf, int length, RecordParser<T> parser) {
+        List<T> records = new ArrayList<>();
+        int lineStart = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i < length && buf[i] != '\n') continue;
+
+            // Trim spaces and the '\r' of CRLF files
+            int from = lineStart;
+            int to = i;
+            while (from < to && (buf[from] & 0xFF) <= ' ') from++;
+            while (to > from && (buf[to - 1] & 0xFF) <= ' ') to--;
+
+            if (from < to) {
+                T record = parser.parse(buf, from, to);
+                if (record != null) records.add(record);
+            }
+            lineStart = i + 1;
+        }
+        return records;
+    }
+
+    private static int lastNewline(byte[] buf, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buf[i] == '\n') return i;
+        }
+        return -1;
+    }
+}
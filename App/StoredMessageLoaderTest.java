@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StoredMessageLoaderTest {
+
+    private static final StoredMessageLoader.RecordParser<String> AS_STRING =
+            (buf, from, to) -> new String(buf, from, to - from, StandardCharsets.UTF_8);
+
+    private static List<String> load(Path file, int chunkBytes) throws Exception {
+        List<String> lines = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            StoredMessageLoader.load(file, AS_STRING, lines::add, chunkBytes, pool);
+        } finally {
+            pool.shutdown();
+        }
+        return lines;
+    }
+
+    @Test
+    public void keepsFileOrderAcrossManySmallChunks() throws Exception {
+        Path file = Files.createTempFile("loader", ".json");
+        try {
+            List<String> expected = new ArrayList<>();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 5000; i++) {
+                String line = "{\"messageText\":\"line " + i + " é\"}";
+                expected.add(line);
+                sb.append(line).append(i % 2 == 0 ? "\n" : "\r\n");
+                if (i % 100 == 0) sb.append("\n   \n");
+            }
+            Files.writeString(file, sb.toString());
+
+            assertEquals(expected, load(file, 64));
+            assertEquals(expected, load(file, 1 << 20));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void handlesLinesLongerThanChunkAndNoTrailingNewline() throws Exception {
+        Path file = Files.createTempFile("loader", ".json");
+        try {
+            String longLine = "y".repeat(1000);
+            Files.writeString(file, "first\n" + longLine + "\nlast");
+
+            assertEquals(List.of("first", longLine, "last"), load(file, 16));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void nullFromParserSkipsLine() throws Exception {
+        Path file = Files.createTempFile("loader", ".json");
+        try {
+            Files.writeString(file, "keep\nskip\nkeep\n");
+            List<String> lines = StoredMessageLoader.load(file, (buf, from, to) -> {
+                String s = AS_STRING.parse(buf, from, to);
+                return s.equals("skip") ? null : s;
+            });
+            assertEquals(List.of("keep", "keep"), lines);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local MessageTransport that delivers nowhere. It can wait a fixed time per
+ * call, to stand in for a slow gateway (a batch is one call, so it also
+ * stands in for a fixed round trip), fail the next few calls, and keep the
+ * messages it was given so tests can check what arrived and in which order.
+ * By default it only counts, so a long-running app does not hold on to
+ * every message.
+ */
+public class StubGateway implements MessageTransport {
+
+    private final long latencyNanos;
+    private final boolean record;
+    private final List<Message> delivered = new ArrayList<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder count = new LongAdder();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    public StubGateway() {
+        this(0, false);
+    }
+
+    public StubGateway(long latencyMillis, boolean record) {
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        this.record = record;
+    }
+
+    @Override
+    public void deliver(Message m) throws IOException {
+        deliverBatch(m.getRecipient(), List.of(m));
+    }
+
+    @Override
+    public void deliverBatch(String recipient, List<Message> batch) throws IOException {
+        calls.increment();
+        pause();
+        if (failures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            throw new IOException("Gateway unavailable.");
+        }
+        count.add(batch.size());
+        if (record) {
+            synchronized (delivered) {
+                delivered.addAll(batch);
+            }
+        }
+    }
+
+    // Make the next n calls throw
+    public void failNext(int n) {
+        failures.set(n);
+    }
+
+    // Messages delivered so far, in the order they arrived (empty unless recording)
+    public List<Message> delivered() {
+        synchronized (delivered) {
+            return new ArrayList<>(delivered);
+        }
+    }
+
+    // Messages delivered successfully
+    public long count() { return count.sum(); }
+
+    // Every call (a batch is one call), including failed ones
+    public long calls() { return calls.sum(); }
+
+    // Sleep for the configured latency
+    void pause() {
+        if (latencyNanos <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(latencyNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
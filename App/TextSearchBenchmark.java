@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Size of the word index against the text it covers, and AND / OR / phrase
+ * search time against scanning every text.
+ *
+ * Usage: java TextSearchBenchmark [messages] [queries]
+ */
+public class TextSearchBenchmark {
+
+    private static final String[] WORDS = {
+            "where", "are", "you", "late", "on", "time", "dinner", "tonight", "call", "me", "ok", "see",
+            "thanks", "meeting", "at", "the", "office", "tomorrow", "running", "traffic", "home", "soon",
+            "lunch", "friday", "weekend", "please", "reply", "asap", "car", "keys", "bring", "milk"
+    };
+
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        Message.clearAllMemoryData();
+        Random random = new Random(42);
+        long rawBytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            StringBuilder text = new StringBuilder();
+            int words = 3 + random.nextInt(12);
+            for (int w = 0; w < words; w++) text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            text.append('#').append(i);
+            Message m = Message.fromStored(String.valueOf(1000000000L + i), "+27609151472", text.toString(), null);
+            m.sendMessage("send");
+            rawBytes += text.length();
+        }
+        System.out.printf("sent %,d messages in %,d ms%n", messages, (System.nanoTime() - start) / 1_000_000);
+
+        MessageTextIndex index = Message.textIndex();
+        long postingBytes = index.postingBytes();
+        System.out.printf("text %,d bytes | postings %,d bytes (%.1f%%) over %,d words%n",
+                rawBytes, postingBytes, 100.0 * postingBytes / rawBytes, index.termCount());
+
+        List<String[]> pairs = new ArrayList<>();
+        for (int q = 0; q < queries; q++) {
+            pairs.add(new String[] { WORDS[random.nextInt(WORDS.length)], WORDS[random.nextInt(WORDS.length)] });
+        }
+
+        time("AND   ", pairs, p -> Message.searchAllWords(p[0] + " " + p[1]).size());
+        time("OR    ", pairs, p -> Message.searchAnyWord(p[0] + " " + p[1]).size());
+        time("PHRASE", pairs, p -> Message.searchPhrase(p[0] + " " + p[1]).size());
+        time("scan  ", pairs.subList(0, Math.max(1, pairs.size() / 20)), p -> {
+            int found = 0;
+            for (String text : Message.getSentMessageTexts()) {
+                List<String> words = MessageTextIndex.words(text);
+                if (words.contains(p[0]) && words.contains(p[1])) found++;
+            }
+            return found;
+        });
+    }
+
+    private static void time(String label, List<String[]> pairs, java.util.function.ToIntFunction<String[]> query) {
+        long hits = 0;
+        long start = System.nanoTime();
+        for (String[] pair : pairs) hits += query.applyAsInt(pair);
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%s %,10.0f us/query (%,d queries, %,d hits)%n",
+                label, nanos / 1_000.0 / pairs.size(), pairs.size(), hits);
+    }
+}
@@ -0,0 +1,84 @@
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Random;
+
+/**
+ * Time-range and per-recipient "last hour" queries through the time index
+ * against scanning every sent message's timestamp.
+ *
+ * Messages are sent a few seconds apart (a simulated clock) to a pool of
+ * recipients, so the store spans weeks; each query asks for one hour.
+ *
+ * Usage: java TimeRangeBenchmark [messages] [queries]
+ */
+public class TimeRangeBenchmark {
+
+    private static final long HOUR = 3_600_000L;
+    private static final int RECIPIENTS = 1000;
+
+    // Advanced by hand between sends
+    private static final class SimulatedClock extends Clock {
+        long millis = 1_718_000_000_000L;
+
+        @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+        @Override public Clock withZone(ZoneId zone) { return this; }
+        @Override public long millis() { return millis; }
+        @Override public Instant instant() { return Instant.ofEpochMilli(millis); }
+    }
+
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+
+        Message.clearAllMemoryData();
+        SimulatedClock clock = new SimulatedClock();
+        Message.setClock(clock);
+        long first = clock.millis;
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            clock.millis += random.nextInt(5_000);
+            Message m = Message.fromStored(String.valueOf(1000000000L + i), cell(random.nextInt(RECIPIENTS)),
+                    "Message " + i, null);
+            m.sendMessage("send");
+        }
+        long last = clock.millis;
+        Message.setClock(Clock.systemUTC());
+        System.out.printf("sent %,d messages over %,d hours in %,d ms%n",
+                messages, (last - first) / HOUR, (System.nanoTime() - start) / 1_000_000);
+
+        long[] from = new long[queries];
+        String[] cells = new String[queries];
+        for (int q = 0; q < queries; q++) {
+            from[q] = first + (long) (random.nextDouble() * (last - first - HOUR));
+            cells[q] = cell(random.nextInt(RECIPIENTS));
+        }
+
+        time("range index   ", queries, q -> Message.getMessagesBetween(from[q], from[q] + HOUR).size());
+        time("recipient hour", queries, q -> Message.getMessagesSentTo(cells[q], from[q], from[q] + HOUR).size());
+        int scans = Math.max(1, queries / 50);
+        time("range scan    ", scans, q -> {
+            int found = 0;
+            for (Message m : Message.getAllMessages()) {
+                if (m.getTimestamp() >= from[q] && m.getTimestamp() < from[q] + HOUR) found++;
+            }
+            return found;
+        });
+        Message.clearAllMemoryData();
+    }
+
+    private static String cell(int i) {
+        return "+2771" + (1_000_000 + i);
+    }
+
+    private static void time(String label, int queries, java.util.function.IntUnaryOperator query) {
+        long hits = 0;
+        long start = System.nanoTime();
+        for (int q = 0; q < queries; q++) hits += query.applyAsInt(q);
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%s %,10.1f us/query (%,d queries, %,d hits)%n",
+                label, nanos / 1_000.0 / queries, queries, hits);
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 10-digit IDs that never repeat, yet still look random.
+ *
+ * A shared counter hands each thread a block of BLOCK_SIZE sequence
+ * numbers with one getAndAdd; inside its block a thread counts on its own
+ * with no shared state at all. Each sequence number is passed through a
+ * keyed Feistel permutation over [0, domain) (with cycle walking to stay
+ * inside the domain), so distinct sequence numbers always give distinct
+ * IDs. The allocator fails once all 9,000,000,000 IDs have been used.
+ */
+public class UniqueIdAllocator implements MessageIdAllocator {
+
+    public static final int BLOCK_SIZE = 4096;
+    private static final int ROUNDS = 4;
+
+    private final long domain;
+    private final int halfBits;
+    private final long halfMask;
+    private final long[] roundKeys = new long[ROUNDS];
+    private final AtomicLong nextBlock = new AtomicLong();
+
+    // Per thread: { next sequence number, end of the thread's current block }
+    private final ThreadLocal<long[]> block = ThreadLocal.withInitial(() -> new long[] { 0, 0 });
+
+    public UniqueIdAllocator(long seed) {
+        this(seed, MAX_ID - MIN_ID + 1);
+    }
+
+    // Smaller domains are for tests: IDs are then MIN_ID + [0, domain)
+    UniqueIdAllocator(long seed, long domain) {
+        if (domain < 2) throw new IllegalArgumentException("Domain must hold at least two IDs.");
+        this.domain = domain;
+        int bits = 64 - Long.numberOfLeadingZeros(domain - 1);
+        this.halfBits = (bits + 1) / 2;
+        this.halfMask = (1L << halfBits) - 1;
+
+        long s = seed;
+        for (int i = 0; i < ROUNDS; i++) {
+            s += 0x9E3779B97F4A7C15L;
+            roundKeys[i] = mix(s);
+        }
+    }
+
+    @Override
+    public long nextId() {
+        long[] local = block.get();
+        if (local[0] == local[1]) {
+            long start = nextBlock.getAndAdd(BLOCK_SIZE);
+            if (start >= domain) throw new IllegalStateException("All message IDs have been used.");
+            local[0] = start;
+            local[1] = Math.min(start + BLOCK_SIZE, domain);
+        }
+        return MIN_ID + permute(local[0]++);
+    }
+
+    // Bijection on [0, domain): Feistel rounds over 2 * halfBits bits, repeated until inside the domain
+    long permute(long index) {
+        long x = index;
+        do {
+            long left = x >>> halfBits;
+            long right = x & halfMask;
+            for (int round = 0; round < ROUNDS; round++) {
+                long next = left ^ (mix(right ^ roundKeys[round]) & halfMask);
+                left = right;
+                right = next;
+            }
+            x = (left << halfBits) | right;
+        } while (x >= domain);
+        return x;
+    }
+
+    // SplitMix64 finaliser
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,235 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Every registered account, keyed by username in a ConcurrentHashMap, so a
+ * lookup is O(1) and logins never wait on registrations running in other
+ * threads. Failed attempts are throttled per username and per source by a
+ * LoginThrottle: MAX_FAILED_ATTEMPTS failures lock the user until a token
+ * refills, and a successful login only resets the count if the user is not
+ * locked at that moment.
+ *
+ * Passwords are stored as PasswordHasher hashes. authenticateAsync runs the
+ * hash on a bounded verification pool instead of the caller's thread, and a
+ * SessionCache lets a repeat login with the same credentials skip the hash.
+ */
+public class UserDirectory implements AutoCloseable {
+
+    public static final int MAX_FAILED_ATTEMPTS = LoginThrottle.DEFAULT_USER_FAILURES;
+    public static final int DEFAULT_VERIFY_QUEUE = 1024;
+
+    public static final String REGISTERED = "User successfully registered!";
+    public static final String USERNAME_TAKEN = "Username is already taken, please choose a different username.";
+
+    public static final class Account {
+        private final String username;
+        private volatile String passwordHash;
+        private final String cell;
+        private final String firstName;
+        private final String lastName;
+
+        Account(String username, String passwordHash, String cell, String firstName, String lastName) {
+            this.username = username;
+            this.passwordHash = passwordHash;
+            this.cell = cell;
+            this.firstName = firstName;
+            this.lastName = lastName;
+        }
+
+        public String getUsername() { return username; }
+        public String getPasswordHash() { return passwordHash; }
+        public String getCell() { return cell; }
+        public String getFirstName() { return firstName; }
+        public String getLastName() { return lastName; }
+    }
+
+    private final ConcurrentHashMap<String, Account> accounts;
+    private final PasswordHasher hasher;
+    private final SessionCache sessions;
+    private final LoginThrottle throttle;
+    private final int verifyThreads;
+    private final int verifyQueue;
+
+    // Created on the first authenticateAsync
+    private volatile ThreadPoolExecutor verifyPool;
+
+    // Checked against for unknown usernames, so they cost as much as known ones; made on first use
+    private volatile String dummyHash;
+
+    public UserDirectory() {
+        this(16);
+    }
+
+    // Size the table up front when millions of accounts are expected
+    public UserDirectory(int expectedUsers) {
+        this(expectedUsers, new PasswordHasher(), new SessionCache(),
+                Runtime.getRuntime().availableProcessors(), DEFAULT_VERIFY_QUEUE);
+    }
+
+    public UserDirectory(int expectedUsers, PasswordHasher hasher, SessionCache sessions,
+                         int verifyThreads, int verifyQueue) {
+        this(expectedUsers, hasher, sessions, new LoginThrottle(), verifyThreads, verifyQueue);
+    }
+
+    public UserDirectory(int expectedUsers, PasswordHasher hasher, SessionCache sessions, LoginThrottle throttle,
+                         int verifyThreads, int verifyQueue) {
+        if (verifyThreads < 1 || verifyQueue < 1) throw new IllegalArgumentException("Pool sizes must be positive.");
+        this.accounts = new ConcurrentHashMap<>(expectedUsers);
+        this.hasher = hasher;
+        this.sessions = sessions;
+        this.throttle = throttle;
+        this.verifyThreads = verifyThreads;
+        this.verifyQueue = verifyQueue;
+    }
+
+    // Validate and add an account; the first registration of a username wins
+    public String registerUser(String username, String password, String cell, String firstName, String lastName) {
+        Validator.Registration check = Validator.checkRegistration(username, password, cell);
+        if (check != Validator.Registration.OK) return check.error();
+        if (accounts.containsKey(username)) return USERNAME_TAKEN;
+
+        Account account = new Account(username, hasher.hash(password), cell, firstName, lastName);
+        return accounts.putIfAbsent(username, account) == null ? REGISTERED : USERNAME_TAKEN;
+    }
+
+    // Add an account without validation (Login's pre-set credentials) unless the username exists
+    void addAccount(String username, String password) {
+        if (accounts.containsKey(username)) return;
+        accounts.putIfAbsent(username, new Account(username, hasher.hash(password == null ? "" : password), null, null, null));
+    }
+
+    // Check credentials and record the attempt; a locked user always fails.
+    // The hash runs on the calling thread.
+    public boolean authenticate(String username, String password) {
+        return authenticate(username, password, null);
+    }
+
+    // Same, also throttling the source the attempt came from (may be null)
+    public boolean authenticate(String username, String password, String source) {
+        if (username == null || throttle.isBlocked(username, source)) return false;
+        Account account = accounts.get(username);
+        return recordAttempt(username, source, account != null ? matches(account, password) : missing(password));
+    }
+
+    /**
+     * Same as authenticate, but a check that needs the hash runs on the
+     * verification pool (for unknown users too, against a dummy hash, so
+     * they take as long as known ones). Completes with false for unknown or
+     * locked users, and exceptionally with RejectedExecutionException when the pool's
+     * queue is full.
+     */
+    public CompletableFuture<Boolean> authenticateAsync(String username, String password) {
+        return authenticateAsync(username, password, null);
+    }
+
+    public CompletableFuture<Boolean> authenticateAsync(String username, String password, String source) {
+        if (username == null || throttle.isBlocked(username, source)) return CompletableFuture.completedFuture(false);
+        Account account = accounts.get(username);
+        if (account != null && sessions.isVerified(username, password)) {
+            return CompletableFuture.completedFuture(recordAttempt(username, source, true));
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(() -> recordAttempt(username, source,
+                    account != null ? matches(account, password) : missing(password)), verifyPool());
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Check credentials without counting attempts
+    public boolean checkCredentials(String username, String password) {
+        if (username == null) return false;
+        Account account = accounts.get(username);
+        return account != null ? matches(account, password) : missing(password);
+    }
+
+    public boolean isLocked(String username) {
+        return username != null && throttle.isBlocked(username, null);
+    }
+
+    // Failed attempts currently counted against the user (they refill over time)
+    public int getFailedAttempts(String username) {
+        return throttle.getFailures(username);
+    }
+
+    public void unlock(String username) {
+        throttle.reset(username);
+    }
+
+    public LoginThrottle getThrottle() {
+        return throttle;
+    }
+
+    public Account getAccount(String username) {
+        return username == null ? null : accounts.get(username);
+    }
+
+    public boolean contains(String username) {
+        return username != null && accounts.containsKey(username);
+    }
+
+    public int size() {
+        return accounts.size();
+    }
+
+    @Override
+    public void close() {
+        ThreadPoolExecutor pool = verifyPool;
+        if (pool != null) pool.shutdown();
+        throttle.close();
+    }
+
+    private boolean matches(Account account, String password) {
+        if (password == null) return false;
+        if (sessions.isVerified(account.username, password)) return true;
+
+        String hash = account.passwordHash;
+        if (!PasswordHasher.verify(password, hash)) return false;
+
+        // Upgrade hashes made at an older cost while the password is at hand
+        if (hasher.needsRehash(hash)) account.passwordHash = hasher.hash(password);
+        sessions.put(account.username, password);
+        return true;
+    }
+
+    // Run the same hash check as a known user would get, then fail
+    private boolean missing(String password) {
+        String hash = dummyHash;
+        if (hash == null) dummyHash = hash = hasher.hash("quickchat-no-such-user");
+        PasswordHasher.verify(password == null ? "" : password, hash);
+        return false;
+    }
+
+    private boolean recordAttempt(String username, String source, boolean success) {
+        if (success) {
+            if (throttle.recordSuccess(username)) return true;
+        } else {
+            throttle.recordFailure(username, source);
+        }
+        sessions.invalidate(username);
+        return false;
+    }
+
+    private ThreadPoolExecutor verifyPool() {
+        ThreadPoolExecutor pool = verifyPool;
+        if (pool != null) return pool;
+        synchronized (this) {
+            if (verifyPool == null) {
+                AtomicInteger threadNumber = new AtomicInteger();
+                verifyPool = new ThreadPoolExecutor(verifyThreads, verifyThreads, 0, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(verifyQueue), r -> {
+                            Thread t = new Thread(r, "quickchat-verify-" + threadNumber.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        });
+            }
+            return verifyPool;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserDirectoryTest {
+
+    private static final String PASSWORD = "Ch&&sec@ke99!";
+
+    // Cheap hashes keep the tests fast; the cost does not change the directory's behaviour
+    private static UserDirectory directory(int expectedUsers) {
+        return new UserDirectory(expectedUsers, new PasswordHasher(1000), new SessionCache(), 4, 1024);
+    }
+
+    // Usernames must contain "_" and be at most five characters
+    private static String name(int i) {
+        return "_" + Integer.toString(i, 36);
+    }
+
+    @Test
+    public void registersAndLocksPerUser() {
+        UserDirectory directory = directory(16);
+        assertEquals(UserDirectory.REGISTERED, directory.registerUser("kyl_1", PASSWORD, "+27838968976", "Kyle", "Smith"));
+        assertEquals(UserDirectory.REGISTERED, directory.registerUser("amy_2", PASSWORD, "+27838968977", "Amy", "Jones"));
+        assertEquals(UserDirectory.USERNAME_TAKEN, directory.registerUser("kyl_1", PASSWORD, "+27838968976", "K", "S"));
+        assertEquals(Validator.PASSWORD_ERROR, directory.registerUser("bob_3", "weak", "+27838968976", "B", "C"));
+        assertEquals(2, directory.size());
+
+        assertFalse(directory.authenticate("kyl_1", "wrong"));
+        assertFalse(directory.authenticate("kyl_1", "wrong"));
+        assertTrue(directory.authenticate("kyl_1", PASSWORD));
+        assertEquals(0, directory.getFailedAttempts("kyl_1"));
+
+        for (int i = 0; i < 3; i++) assertFalse(directory.authenticate("kyl_1", "wrong"));
+        assertTrue(directory.isLocked("kyl_1"));
+        assertFalse(directory.authenticate("kyl_1", PASSWORD));
+
+        // Another user's state is untouched
+        assertFalse(directory.isLocked("amy_2"));
+        assertTrue(directory.authenticate("amy_2", PASSWORD));
+
+        directory.unlock("kyl_1");
+        assertTrue(directory.authenticate("kyl_1", PASSWORD));
+        assertFalse(directory.authenticate("nobody", PASSWORD));
+        assertFalse(directory.authenticate(null, PASSWORD));
+    }
+
+    @Test
+    public void loginSharesTheDirectory() {
+        UserDirectory directory = directory(16);
+        Login first = new Login(directory, "", "");
+        assertEquals("User successfully registered!", first.registerUser("kyl_1", PASSWORD, "+27838968976", "Kyle", "Smith"));
+
+        Login second = new Login(directory, "", "");
+        assertEquals("User successfully registered!", second.registerUser("amy_2", PASSWORD, "+27838968977", "Amy", "Jones"));
+
+        assertTrue(second.authenticate("kyl_1", PASSWORD));
+        for (int i = 0; i < 3; i++) second.authenticate("kyl_1", "wrong");
+        assertTrue(first.isLocked());
+        assertFalse(second.isLocked());
+        assertEquals("Welcome Amy Jones, it is great to see you again.", second.returnLoginStatus(true));
+    }
+
+    @Test
+    public void duplicateRegistrationRaceHasOneWinner() throws Exception {
+        UserDirectory directory = directory(16);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger winners = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                if (directory.registerUser("kyl_1", PASSWORD, "+27838968976", "K", "S").equals(UserDirectory.REGISTERED)) {
+                    winners.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) f.get();
+        pool.shutdown();
+        assertEquals(1, winners.get());
+    }
+
+    @Test
+    public void concurrentFailuresLockExactlyOnce() throws Exception {
+        UserDirectory directory = directory(16);
+        directory.registerUser("kyl_1", PASSWORD, "+27838968976", "K", "S");
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            boolean right = i % 2 == 0;
+            futures.add(pool.submit(() -> directory.authenticate("kyl_1", right ? PASSWORD : "wrong")));
+        }
+        for (Future<Boolean> f : futures) f.get();
+        pool.shutdown();
+
+        // Successes reset the count, but once three failures land in a row the lock sticks
+        if (directory.isLocked("kyl_1")) {
+            assertFalse(directory.authenticate("kyl_1", PASSWORD));
+            assertEquals(UserDirectory.MAX_FAILED_ATTEMPTS, directory.getFailedAttempts("kyl_1"));
+        }
+    }
+
+    @Test
+    public void parallelRegistrationDoesNotBlockLogins() throws Exception {
+        int users = 200_000;
+        int threads = 8;
+        UserDirectory directory = new UserDirectory(users, new PasswordHasher(1), new SessionCache(), 4, 1024);
+        for (int i = 0; i < 1000; i++) directory.registerUser(name(i), PASSWORD, "+27838968976", "F", "L");
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 2);
+        AtomicLong logins = new AtomicLong();
+        AtomicInteger failedLogins = new AtomicInteger();
+        CountDownLatch registered = new CountDownLatch(threads);
+
+        for (int t = 0; t < 2; t++) {
+            pool.submit(() -> {
+                int i = 0;
+                while (registered.getCount() > 0) {
+                    if (!directory.authenticate(name(i++ % 1000), PASSWORD)) failedLogins.incrementAndGet();
+                    logins.incrementAndGet();
+                }
+            });
+        }
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            pool.submit(() -> {
+                for (int i = 1000 + thread; i < users; i += threads) {
+                    assertEquals(UserDirectory.REGISTERED, directory.registerUser(name(i), PASSWORD, "+27838968976", "F", "L"));
+                }
+                registered.countDown();
+            });
+        }
+        assertTrue(registered.await(60, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(users, directory.size());
+        assertEquals(0, failedLogins.get());
+        assertTrue(logins.get() > 0);
+        for (int i = 0; i < users; i += 997) assertTrue(directory.checkCredentials(name(i), PASSWORD));
+    }
+
+    @Test
+    public void passwordsAreStoredHashed() {
+        UserDirectory directory = directory(16);
+        directory.registerUser("kyl_1", PASSWORD, "+27838968976", "K", "S");
+        String hash = directory.getAccount("kyl_1").getPasswordHash();
+        assertTrue(hash.startsWith("pbkdf2-sha256$1000$"));
+        assertFalse(hash.contains(PASSWORD));
+        assertTrue(PasswordHasher.verify(PASSWORD, hash));
+        assertFalse(PasswordHasher.verify("Ch&&sec@ke99?", hash));
+        assertFalse(PasswordHasher.verify(PASSWORD, "pbkdf2-sha256$x$y"));
+
+        // Two registrations of the same password get different salts
+        directory.registerUser("amy_2", PASSWORD, "+27838968977", "A", "J");
+        assertNotEquals(hash, directory.getAccount("amy_2").getPasswordHash());
+    }
+
+    @Test
+    public void olderCostIsUpgradedOnLogin() {
+        UserDirectory cheap = directory(16);
+        cheap.registerUser("kyl_1", PASSWORD, "+27838968976", "K", "S");
+        String oldHash = cheap.getAccount("kyl_1").getPasswordHash();
+
+        PasswordHasher stronger = new PasswordHasher(2000);
+        assertTrue(stronger.needsRehash(oldHash));
+        assertFalse(stronger.needsRehash(stronger.hash(PASSWORD)));
+        assertTrue(PasswordHasher.verify(PASSWORD, oldHash));
+    }
+
+    @Test
+    public void unknownUsersTakeAsLongAsKnownOnes() throws Exception {
+        UserDirectory directory = new UserDirectory(16, new PasswordHasher(100_000), new SessionCache(), 1, 16);
+        directory.registerUser("kyl_1", PASSWORD, "+27838968976", "K", "S");
+        long known = Long.MAX_VALUE, unknown = Long.MAX_VALUE, unknownAsync = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            assertFalse(directory.checkCredentials("kyl_1", "Wrong&&pass99"));
+            known = Math.min(known, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            assertFalse(directory.authenticate("amy_" + i, PASSWORD));
+            unknown = Math.min(unknown, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            assertFalse(directory.authenticateAsync("bob_" + i, PASSWORD).get(10, TimeUnit.SECONDS));
+            unknownAsync = Math.min(unknownAsync, System.nanoTime() - start);
+        }
+        // Same order of cost: the unknown user is checked against a dummy hash
+        assertTrue(unknown * 3 > known, unknown + " vs " + known);
+        assertTrue(unknownAsync * 3 > known, unknownAsync + " vs " + known);
+    }
+
+    @Test
+    public void asyncVerificationAndSessionCache() throws Exception {
+        SessionCache sessions = new SessionCache();
+        UserDirectory directory = new UserDirectory(16, new PasswordHasher(1000), sessions, 2, 16);
+        directory.registerUser("kyl_1", PASSWORD, "+27838968976", "K", "S");
+
+        assertFalse(directory.authenticateAsync("nobody", PASSWORD).get(10, TimeUnit.SECONDS));
+        assertTrue(directory.authenticateAsync("kyl_1", PASSWORD).get(10, TimeUnit.SECONDS));
+        assertTrue(sessions.isVerified("kyl_1", PASSWORD));
+        assertFalse(sessions.isVerified("kyl_1", "wrong"));
+
+        // A verified session answers on the calling thread
+        CompletableFuture<Boolean> cached = directory.authenticateAsync("kyl_1", PASSWORD);
+        assertTrue(cached.isDone());
+        assertTrue(cached.get());
+
+        // A wrong password counts as a failure and drops the session
+        assertFalse(directory.authenticateAsync("kyl_1", "wrong").get(10, TimeUnit.SECONDS));
+        assertEquals(1, directory.getFailedAttempts("kyl_1"));
+        assertEquals(0, sessions.size());
+
+        for (int i = 0; i < 3; i++) directory.authenticateAsync("kyl_1", "wrong").get(10, TimeUnit.SECONDS);
+        assertTrue(directory.isLocked("kyl_1"));
+        assertFalse(directory.authenticateAsync("kyl_1", PASSWORD).get(10, TimeUnit.SECONDS));
+        directory.close();
+    }
+
+    @Test
+    public void sessionsExpire() throws Exception {
+        SessionCache sessions = new SessionCache(20, 10);
+        sessions.put("kyl_1", PASSWORD);
+        assertTrue(sessions.isVerified("kyl_1", PASSWORD));
+        Thread.sleep(40);
+        assertFalse(sessions.isVerified("kyl_1", PASSWORD));
+        assertEquals(0, sessions.size());
+    }
+
+    @Test
+    public void fullVerificationQueueIsRejected() throws Exception {
+        UserDirectory directory = new UserDirectory(16, new PasswordHasher(200_000), new SessionCache(0, 0), 1, 1);
+        directory.registerUser("kyl_1", PASSWORD, "+27838968976", "K", "S");
+
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) futures.add(directory.authenticateAsync("kyl_1", PASSWORD));
+
+        int rejected = 0;
+        for (CompletableFuture<Boolean> f : futures) {
+            try {
+                assertTrue(f.get(60, TimeUnit.SECONDS));
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+                rejected++;
+            }
+        }
+        assertTrue(rejected > 0);
+        directory.close();
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Validations per second for a registration plus a recipient check: the
+ * old String.matches rules against the single-scan Validator, both one call
+ * at a time and through the batch API.
+ *
+ * Usage: java ValidationBenchmark [inputs] [rounds]
+ */
+public class ValidationBenchmark {
+
+    public static void main(String[] args) {
+        int inputs = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // Mostly valid input with every fourth field broken, like a real bulk import
+        String[] usernames = new String[inputs];
+        String[] passwords = new String[inputs];
+        String[] cells = new String[inputs];
+        for (int i = 0; i < inputs; i++) {
+            usernames[i] = i % 4 == 1 ? "user" + i : "u_" + (i % 100);
+            passwords[i] = i % 4 == 2 ? "password" + i : "Secret#" + i;
+            cells[i] = i % 4 == 3 ? "0" + (721000000 + i) : "+27" + (721000000 + i);
+        }
+        Validator.Registration[] registrations = new Validator.Registration[inputs];
+        boolean[] recipients = new boolean[inputs];
+
+        long sink = 0;
+        for (int round = 1; round <= rounds; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < inputs; i++) {
+                if (legacyRegistration(usernames[i], passwords[i], cells[i])) sink++;
+                if (cells[i].matches("\\+[0-9]{7,12}")) sink++;
+            }
+            long legacy = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < inputs; i++) {
+                if (Validator.checkRegistration(usernames[i], passwords[i], cells[i]) == Validator.Registration.OK) sink++;
+                if (Validator.isValidRecipientCell(cells[i])) sink++;
+            }
+            long single = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            sink += Validator.checkRegistrations(usernames, passwords, cells, registrations);
+            sink += Validator.checkRecipientCells(cells, recipients);
+            long batch = System.nanoTime() - start;
+
+            System.out.printf("round %d: String.matches %,12.0f | Validator %,12.0f | Validator batch %,12.0f inputs/s%n",
+                    round, inputs / (legacy / 1e9), inputs / (single / 1e9), inputs / (batch / 1e9));
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    // The Register rules Validator replaced, kept here as the baseline
+    private static boolean legacyRegistration(String username, String password, String cell) {
+        return username.contains("_") && username.length() <= 5
+                && password.length() >= 8
+                && password.matches(".*[A-Z].*")
+                && password.matches(".*[0-9].*")
+                && password.matches(".*[^a-zA-Z0-9].*")
+                && cell.matches("\\+[0-9]{1,3}[0-9]{7,10}");
+    }
+}
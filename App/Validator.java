@@ -0,0 +1,136 @@
+/**
+ * Validation rules shared by Register and Message, written as single
+ * character scans instead of String.matches so nothing is compiled or
+ * allocated per call. Each rule accepts exactly what the regex it replaced
+ * accepted:
+ *
+ *   username        contains "_" and is at most 5 characters
+ *   password        8+ characters with an A-Z, a 0-9 and a character outside
+ *                   a-zA-Z0-9 (".*X.*" never matched across a line break, so
+ *                   a password containing one is rejected)
+ *   register cell   \+[0-9]{1,3}[0-9]{7,10}, i.e. "+" and 8 to 13 digits
+ *   recipient cell  \+[0-9]{7,12}, i.e. "+" and 7 to 12 digits
+ *   message         not null and at most 250 characters
+ *
+ * The batch methods fill caller-supplied arrays so a bulk run allocates
+ * nothing per input.
+ */
+public final class Validator {
+
+    public static final int MAX_USERNAME_LENGTH = 5;
+    public static final int MIN_PASSWORD_LENGTH = 8;
+    public static final int MAX_MESSAGE_LENGTH = 250;
+
+    // Error strings returned by Register.registerUser and Message.checkRecipientCell
+    public static final String USERNAME_ERROR = "Username is not correctly formatted, please ensure that your username contains an underscore and is no more than five characters in length.";
+    public static final String PASSWORD_ERROR = "Password is not correctly formatted, please ensure that the password contains at least eight characters, a capital letter, a number, and a special character.";
+    public static final String CELL_ERROR = "Cell phone number incorrectly formatted or does not contain international code.";
+    public static final String RECIPIENT_ERROR = "Failure: Cell phone number is incorrectly formatted or does not contain an international code. Please correct the number and try again.";
+
+    // First failing rule of a registration, in the order registerUser checks them
+    public enum Registration {
+        OK(null), BAD_USERNAME(USERNAME_ERROR), BAD_PASSWORD(PASSWORD_ERROR), BAD_CELL(CELL_ERROR);
+
+        private final String error;
+
+        Registration(String error) { this.error = error; }
+
+        // The registerUser error string, or null for OK
+        public String error() { return error; }
+    }
+
+    private Validator() {}
+
+    public static boolean isValidUsername(String username) {
+        if (username == null || username.length() > MAX_USERNAME_LENGTH) return false;
+        return username.indexOf('_') >= 0;
+    }
+
+    public static boolean isValidPassword(String password) {
+        if (password == null || password.length() < MIN_PASSWORD_LENGTH) return false;
+
+        boolean upper = false, digit = false, special = false;
+        for (int i = 0; i < password.length(); i++) {
+            char c = password.charAt(i);
+            if (c >= 'A' && c <= 'Z') upper = true;
+            else if (c >= '0' && c <= '9') digit = true;
+            else if (c >= 'a' && c <= 'z') continue;
+            else if (isLineTerminator(c)) return false;
+            else special = true;
+        }
+        return upper && digit && special;
+    }
+
+    public static boolean isValidRegisterCell(String cell) {
+        return isPlusDigits(cell, 8, 13);
+    }
+
+    public static boolean isValidRecipientCell(String cell) {
+        return isPlusDigits(cell, 7, 12);
+    }
+
+    // Characters over the limit, 0 if the message fits, -1 for null
+    public static int messageExcess(String message) {
+        if (message == null) return -1;
+        return Math.max(0, message.length() - MAX_MESSAGE_LENGTH);
+    }
+
+    public static Registration checkRegistration(String username, String password, String cell) {
+        if (!isValidUsername(username)) return Registration.BAD_USERNAME;
+        if (!isValidPassword(password)) return Registration.BAD_PASSWORD;
+        if (!isValidRegisterCell(cell)) return Registration.BAD_CELL;
+        return Registration.OK;
+    }
+
+    // --- Batch API: results go into out[0..n), the return value is the number that passed ---
+
+    public static int checkRegistrations(String[] usernames, String[] passwords, String[] cells, Registration[] out) {
+        int n = usernames.length;
+        if (passwords.length != n || cells.length != n || out.length < n) {
+            throw new IllegalArgumentException("Input and output arrays must have matching lengths.");
+        }
+        int passed = 0;
+        for (int i = 0; i < n; i++) {
+            out[i] = checkRegistration(usernames[i], passwords[i], cells[i]);
+            if (out[i] == Registration.OK) passed++;
+        }
+        return passed;
+    }
+
+    public static int checkRecipientCells(String[] cells, boolean[] out) {
+        if (out.length < cells.length) throw new IllegalArgumentException("Output array is too small.");
+        int passed = 0;
+        for (int i = 0; i < cells.length; i++) {
+            out[i] = isValidRecipientCell(cells[i]);
+            if (out[i]) passed++;
+        }
+        return passed;
+    }
+
+    public static int checkMessageLengths(String[] messages, int[] excessOut) {
+        if (excessOut.length < messages.length) throw new IllegalArgumentException("Output array is too small.");
+        int passed = 0;
+        for (int i = 0; i < messages.length; i++) {
+            excessOut[i] = messageExcess(messages[i]);
+            if (excessOut[i] == 0) passed++;
+        }
+        return passed;
+    }
+
+    // "+" followed by min..max ASCII digits and nothing else
+    private static boolean isPlusDigits(String s, int minDigits, int maxDigits) {
+        if (s == null) return false;
+        int length = s.length();
+        if (length < minDigits + 1 || length > maxDigits + 1 || s.charAt(0) != '+') return false;
+        for (int i = 1; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    // The characters "." does not match without DOTALL
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -0,0 +1,87 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ValidatorTest {
+
+    private static final String ALPHABET = "aZ9_+!\n 0A é";
+
+    private static String randomString(Random random, int maxLength) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        return sb.toString();
+    }
+
+    private static String randomCell(Random random) {
+        StringBuilder sb = new StringBuilder(random.nextInt(10) == 0 ? "" : "+");
+        int digits = random.nextInt(16);
+        for (int i = 0; i < digits; i++) sb.append(random.nextInt(20) == 0 ? 'x' : (char) ('0' + random.nextInt(10)));
+        return sb.toString();
+    }
+
+    @Test
+    public void agreesWithTheRegexRules() {
+        Random random = new Random(11);
+        for (int i = 0; i < 50_000; i++) {
+            String password = randomString(random, 12);
+            boolean regex = password.length() >= 8
+                    && password.matches(".*[A-Z].*")
+                    && password.matches(".*[0-9].*")
+                    && password.matches(".*[^a-zA-Z0-9].*");
+            assertEquals(regex, Validator.isValidPassword(password), password);
+
+            String username = randomString(random, 7);
+            assertEquals(username.contains("_") && username.length() <= 5, Validator.isValidUsername(username));
+
+            String cell = randomCell(random);
+            assertEquals(cell.matches("\\+[0-9]{1,3}[0-9]{7,10}"), Validator.isValidRegisterCell(cell), cell);
+            assertEquals(cell.matches("\\+[0-9]{7,12}"), Validator.isValidRecipientCell(cell), cell);
+        }
+    }
+
+    @Test
+    public void registerAndMessageKeepTheirErrorStrings() {
+        Register register = new Register();
+        assertEquals("Username is not correctly formatted, please ensure that your username contains an underscore and is no more than five characters in length.",
+                register.registerUser("kyle!!!!!!!", "Ch&&sec@ke99!", "+27838968976", "A", "B"));
+        assertEquals("Password is not correctly formatted, please ensure that the password contains at least eight characters, a capital letter, a number, and a special character.",
+                register.registerUser("kyl_1", "password", "+27838968976", "A", "B"));
+        assertEquals("Cell phone number incorrectly formatted or does not contain international code.",
+                register.registerUser("kyl_1", "Ch&&sec@ke99!", "08966553", "A", "B"));
+        assertEquals("User successfully registered!",
+                register.registerUser("kyl_1", "Ch&&sec@ke99!", "+27838968976", "A", "B"));
+
+        Message m = new Message(1);
+        assertEquals("Failure: Cell phone number is incorrectly formatted or does not contain an international code. Please correct the number and try again.",
+                m.checkRecipientCell("08575975889"));
+        assertEquals("Failure: Message exceeds 250 characters by 5, please reduce size.", m.checkMessageLength("x".repeat(255)));
+        assertEquals("Failure: Message is null.", m.checkMessageLength(null));
+        assertEquals("Success: Message ready to send.", m.checkMessageLength("x".repeat(250)));
+    }
+
+    @Test
+    public void batchApiFillsResults() {
+        Validator.Registration[] out = new Validator.Registration[3];
+        int passed = Validator.checkRegistrations(
+                new String[] { "kyl_1", "kyle", "kyl_1" },
+                new String[] { "Ch&&sec@ke99!", "Ch&&sec@ke99!", "Ch&&sec@ke99!" },
+                new String[] { "+27838968976", "+27838968976", "0838968976" }, out);
+        assertEquals(1, passed);
+        assertArrayEquals(new Validator.Registration[] {
+                Validator.Registration.OK, Validator.Registration.BAD_USERNAME, Validator.Registration.BAD_CELL }, out);
+        assertEquals(Validator.CELL_ERROR, out[2].error());
+
+        boolean[] cells = new boolean[3];
+        assertEquals(2, Validator.checkRecipientCells(new String[] { "+27718693002", "+2771", "+1234567" }, cells));
+        assertArrayEquals(new boolean[] { true, false, true }, cells);
+
+        int[] excess = new int[3];
+        assertEquals(1, Validator.checkMessageLengths(new String[] { "hi", null, "y".repeat(260) }, excess));
+        assertArrayEquals(new int[] { 0, -1, 10 }, excess);
+
+        assertThrows(IllegalArgumentException.class, () -> Validator.checkRecipientCells(new String[2], new boolean[1]));
+    }
+}
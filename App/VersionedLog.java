@@ -0,0 +1,288 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Append-only log of values with O(1) immutable views, for the Message
+ * getters that used to copy a whole list on every call.
+ *
+ * Entries live in fixed chunks of CHUNK slots that are written once and
+ * never moved, so every view shares them. Appends claim a slot from a
+ * counter without locking; published is the length of the prefix whose
+ * slots are all written, and whoever fills the gap at its end moves it on.
+ * Removal does not move anything either: it marks the entry with the next
+ * removal version. A view is just the storage, its published length and
+ * the removal version when it was taken, and shows the entries below that
+ * length that were not removed by then. Nothing done to the log afterwards
+ * changes what a view shows.
+ *
+ * Once removed entries outnumber live ones the live entries are copied to
+ * fresh storage. Appends wait for that only while the last few slots are
+ * copied; views keep the storage they were taken from.
+ */
+final class VersionedLog<T> {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int MASK = CHUNK - 1;
+
+    // Removed entries needed before compaction is worth it
+    private static final long COMPACT_MIN = 4_096;
+
+    // Set on tail once storage is being replaced; no more slots are handed out
+    private static final long FROZEN = Long.MIN_VALUE;
+
+    static final class Entry<T> {
+        final long key;
+        final T value;
+        volatile long removedAt; // 0 while live
+
+        private Entry(long key, T value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Storage<T> {
+        volatile AtomicReferenceArray<Entry<T>>[] chunks = newDirectory(16);
+        final AtomicLong tail = new AtomicLong();      // slots handed out (plus FROZEN)
+        final AtomicLong published = new AtomicLong(); // every slot below this is written
+        final AtomicLong removed = new AtomicLong();
+
+        // Next free slot, or -1 once frozen
+        long claim() {
+            while (true) {
+                long t = tail.get();
+                if ((t & FROZEN) != 0) return -1;
+                if (tail.compareAndSet(t, t + 1)) return t;
+            }
+        }
+
+        // Hand out no more slots; returns how many were
+        long freeze() {
+            return tail.getAndUpdate(t -> t | FROZEN) & ~FROZEN;
+        }
+
+        long claimed() {
+            return tail.get() & ~FROZEN;
+        }
+
+        void set(long slot, Entry<T> e) {
+            chunk(slot).set((int) (slot & MASK), e);
+            // Move published past every written slot, including ones written earlier by others
+            long p;
+            while ((p = published.get()) < claimed() && get(p) != null) {
+                published.compareAndSet(p, p + 1);
+            }
+        }
+
+        Entry<T> get(long slot) {
+            AtomicReferenceArray<Entry<T>>[] dir = chunks;
+            int c = (int) (slot >>> CHUNK_BITS);
+            AtomicReferenceArray<Entry<T>> chunk = c < dir.length ? dir[c] : null;
+            return chunk == null ? null : chunk.get((int) (slot & MASK));
+        }
+
+        private AtomicReferenceArray<Entry<T>> chunk(long slot) {
+            int c = (int) (slot >>> CHUNK_BITS);
+            AtomicReferenceArray<Entry<T>>[] dir = chunks;
+            if (c < dir.length && dir[c] != null) return dir[c];
+            synchronized (this) {
+                dir = chunks;
+                if (c >= dir.length) dir = Arrays.copyOf(dir, Math.max(c + 1, dir.length * 2));
+                if (dir[c] == null) dir[c] = new AtomicReferenceArray<>(CHUNK);
+                chunks = dir; // volatile write publishes the new chunk
+                return dir[c];
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> AtomicReferenceArray<Entry<T>>[] newDirectory(int size) {
+            return (AtomicReferenceArray<Entry<T>>[]) new AtomicReferenceArray<?>[size];
+        }
+    }
+
+    private volatile Storage<T> storage = new Storage<>();
+
+    // Removals so far; written only while holding this
+    private volatile long version;
+
+    public Entry<T> append(long key, T value) {
+        Entry<T> e = new Entry<>(key, value);
+        while (true) {
+            Storage<T> s = storage;
+            long slot = s.claim();
+            if (slot >= 0) {
+                s.set(slot, e);
+                return e;
+            }
+            // Storage is being replaced; the new one is installed shortly
+            Thread.onSpinWait();
+        }
+    }
+
+    // Mark e removed; false if it already was
+    public synchronized boolean remove(Entry<T> e) {
+        if (e == null || e.removedAt != 0) return false;
+        // Counted before the version moves, so a view that sees no removals can trust its length
+        Storage<T> s = storage;
+        long removed = s.removed.incrementAndGet();
+        e.removedAt = version + 1;
+        version = version + 1; // after the mark, so a view that sees this version sees the mark
+        if (removed >= COMPACT_MIN && removed * 2 > s.claimed()) compact(s);
+        return true;
+    }
+
+    // The live entry under key, by scanning (for callers that did not keep the entry)
+    public Entry<T> find(long key) {
+        Storage<T> s = storage;
+        long end = s.claimed();
+        for (long i = 0; i < end; i++) {
+            Entry<T> e = s.get(i);
+            if (e != null && e.key == key && e.removedAt == 0) return e;
+        }
+        return null;
+    }
+
+    // Each live value whose key is at most maxKey, with its key, in append order. Unlike a
+    // view this also sees entries written behind a slot that is still being filled
+    public void forEach(long maxKey, ObjLongConsumer<? super T> action) {
+        Storage<T> s = storage;
+        long end = s.claimed();
+        for (long i = 0; i < end; i++) {
+            Entry<T> e = s.get(i);
+            if (e != null && e.key <= maxKey && e.removedAt == 0) action.accept(e.value, e.key);
+        }
+    }
+
+    // Drop everything; existing views keep what they had
+    public synchronized void clear() {
+        storage = new Storage<>();
+    }
+
+    // Immutable view of the live values as they are now, each passed through map
+    public <R> View<T, R> view(Function<? super T, ? extends R> map) {
+        Storage<T> s = storage;
+        long length = s.published.get();
+        long v = version;
+        View<T, R> view = new View<>(s, length, v, map);
+        // Removals after a clear are counted against the new storage, hence the second check
+        if (s.removed.get() == 0 && storage == s) view.size = (int) length;
+        return view;
+    }
+
+    // Copy live entries to fresh storage. Most are copied before appends are stopped,
+    // the rest once every slot handed out has been written
+    private void compact(Storage<T> old) {
+        Storage<T> fresh = new Storage<>();
+        long copied = copyLive(old, fresh, 0, old.published.get());
+        long end = old.freeze();
+        while (old.published.get() < end) Thread.onSpinWait();
+        copyLive(old, fresh, copied, end);
+        storage = fresh;
+    }
+
+    private static <T> long copyLive(Storage<T> from, Storage<T> to, long start, long end) {
+        for (long i = start; i < end; i++) {
+            Entry<T> e = from.get(i);
+            if (e.removedAt == 0) to.set(to.claim(), e);
+        }
+        return end;
+    }
+
+    /**
+     * The live values of a log at one moment. Taking one costs nothing and
+     * iterating it allocates nothing beyond the iterator. If nothing in the
+     * storage had been removed, size() and get(i) are direct; otherwise the
+     * first size() counts the live entries and the first get(i) builds a
+     * position table.
+     */
+    static final class View<T, R> extends AbstractList<R> implements RandomAccess {
+        private final Storage<T> storage;
+        private final long length;
+        private final long version;
+        private final Function<? super T, ? extends R> map;
+        private volatile int size = -1;
+        private volatile int[] positions;
+
+        private View(Storage<T> storage, long length, long version, Function<? super T, ? extends R> map) {
+            this.storage = storage;
+            this.length = length;
+            this.version = version;
+            this.map = map;
+        }
+
+        private boolean visible(Entry<T> e) {
+            long removedAt = e.removedAt;
+            return removedAt == 0 || removedAt > version;
+        }
+
+        @Override
+        public int size() {
+            int n = size;
+            if (n < 0) {
+                n = 0;
+                for (long i = 0; i < length; i++) {
+                    if (visible(storage.get(i))) n++;
+                }
+                size = n;
+            }
+            return n;
+        }
+
+        @Override
+        public R get(int index) {
+            int n = size();
+            if (index < 0 || index >= n) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + n);
+            if (n == length) return map.apply(storage.get(index).value);
+            int[] at = positions;
+            if (at == null) {
+                at = new int[n];
+                int k = 0;
+                for (int i = 0; i < length; i++) {
+                    if (visible(storage.get(i))) at[k++] = i;
+                }
+                positions = at;
+            }
+            return map.apply(storage.get(at[index]).value);
+        }
+
+        @Override
+        public Iterator<R> iterator() {
+            return new Iterator<R>() {
+                private long next = advance(0);
+
+                private long advance(long from) {
+                    while (from < length && !visible(storage.get(from))) from++;
+                    return from;
+                }
+
+                @Override
+                public boolean hasNext() { return next < length; }
+
+                @Override
+                public R next() {
+                    if (next >= length) throw new NoSuchElementException();
+                    Entry<T> e = storage.get(next);
+                    next = advance(next + 1);
+                    return map.apply(e.value);
+                }
+            };
+        }
+
+        @Override
+        public void forEach(Consumer<? super R> action) {
+            for (long i = 0; i < length; i++) {
+                Entry<T> e = storage.get(i);
+                if (visible(e)) action.accept(map.apply(e.value));
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VersionedLogTest {
+
+    @BeforeEach
+    public void setup() {
+        Message.clearAllMemoryData();
+        try {
+            Files.deleteIfExists(Paths.get("stored_messages.json"));
+        } catch (Exception ignored) {}
+    }
+
+    private static Message message(int number, String text) {
+        Message m = new Message(number);
+        m.checkRecipientCell("+27838884567");
+        m.checkMessageLength(text);
+        m.createMessageHash();
+        return m;
+    }
+
+    @Test
+    public void gettersDoNotSeeLaterSendsStoresOrDeletes() {
+        Message first = message(1, "First");
+        first.sendMessage("send");
+        message(2, "Second").sendMessage("send");
+        message(3, "Kept").sendMessage("store");
+        message(4, "Ignored").sendMessage("disregard");
+
+        List<String> texts = Message.getSentMessageTexts();
+        List<String> hashes = Message.getMessageHashes();
+        List<Message> all = Message.getAllMessages();
+        List<String> stored = Message.getStoredMessagesArray();
+        List<String> disregarded = Message.getDisregardedMessages();
+
+        Message.deleteByHash(first.getMessageHash());
+        message(5, "Third").sendMessage("send");
+        message(6, "Kept too").sendMessage("store");
+        message(7, "Ignored too").sendMessage("disregard");
+
+        assertEquals(List.of("First", "Second"), texts);
+        assertEquals(2, hashes.size());
+        assertEquals(first.getMessageHash(), hashes.get(0));
+        assertSame(first, all.get(0));
+        assertEquals(List.of("Kept"), stored);
+        assertEquals(List.of("Ignored"), disregarded);
+
+        assertEquals(List.of("Second", "Third"), Message.getSentMessageTexts());
+        assertEquals(List.of("Kept", "Kept too"), Message.getStoredMessagesArray());
+
+        Message.clearAllMemoryData();
+        assertEquals(List.of("First", "Second"), texts);
+        assertEquals(List.of(), Message.getSentMessageTexts());
+    }
+
+    @Test
+    public void viewsAreReadOnly() {
+        message(1, "Hello").sendMessage("send");
+        assertThrows(UnsupportedOperationException.class, () -> Message.getSentMessageTexts().add("x"));
+        assertThrows(UnsupportedOperationException.class, () -> Message.getAllMessages().remove(0));
+    }
+
+    @Test
+    public void viewsSurviveCompaction() {
+        VersionedLog<Integer> log = new VersionedLog<>();
+        List<VersionedLog.Entry<Integer>> entries = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) entries.add(log.append(i, i));
+        List<Integer> before = log.view(i -> i);
+
+        // Removing all but the odd numbers compacts the log more than once
+        List<Integer> odd = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            if (i % 2 == 0) assertTrue(log.remove(entries.get(i)));
+            else odd.add(i);
+        }
+        assertFalse(log.remove(entries.get(0)));
+        for (int i = 1; i < 19_000; i += 2) log.remove(entries.get(i));
+
+        assertEquals(20_000, before.size());
+        assertEquals(Integer.valueOf(12_345), before.get(12_345));
+        assertEquals(odd.subList(9_500, odd.size()), log.view(i -> i));
+        assertEquals(Integer.valueOf(19_999), log.find(19_999).value);
+        assertNull(log.find(0));
+    }
+
+    @Test
+    public void concurrentAppendsAreAllPublishedOnce() throws Exception {
+        VersionedLog<Integer> log = new VersionedLog<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int base = t * 50_000;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    VersionedLog.Entry<Integer> e = log.append(base + i, base + i);
+                    if (i % 3 == 0) log.remove(e);
+                }
+            });
+            threads[t].start();
+        }
+        // Views taken mid-way must stay the same when read again
+        List<Integer> midway = log.view(i -> i);
+        List<Integer> copy = new ArrayList<>(midway);
+        for (Thread thread : threads) thread.join();
+        assertEquals(copy, midway);
+
+        Set<Integer> seen = new HashSet<>();
+        for (int value : log.view(i -> i)) assertTrue(seen.add(value), "twice: " + value);
+        for (int t = 0; t < threads.length; t++) {
+            for (int i = 0; i < 50_000; i++) {
+                assertEquals(i % 3 != 0, seen.contains(t * 50_000 + i), "value " + (t * 50_000 + i));
+            }
+        }
+    }
+}
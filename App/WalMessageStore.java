@@ -0,0 +1,344 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log for stored messages.
+ *
+ * Log file (stored_messages.wal): an 8-byte header ("QCWL" + version)
+ * followed by records of
+ *
+ *   int     payload length
+ *   int     CRC32C of the length and the payload
+ *   bytes   payload: the message's JsonRecordCodec line in UTF-8
+ *
+ * Checkpoint file (stored_messages.ckpt): "QCCP" + version, the log offset
+ * up to which every record has been verified and forced to disk, the record
+ * count at that offset, and a CRC32C of those fields. It is rewritten by
+ * rename every checkpointRecords appends and on close.
+ *
+ * Opening the log (for append or load) recovers it: records are verified
+ * only from the checkpoint on, and the log is cut at the first record that
+ * is incomplete or fails its CRC, so a crash in the middle of an append
+ * loses that record and nothing else. Restart time depends on the records
+ * written since the last checkpoint, not on the size of the log.
+ */
+public class WalMessageStore implements MessageStore {
+
+    public static final String DEFAULT_LOG = "stored_messages.wal";
+    public static final String DEFAULT_CHECKPOINT = "stored_messages.ckpt";
+    public static final int DEFAULT_CHECKPOINT_RECORDS = 4096;
+
+    private static final int LOG_MAGIC = 0x5143574C;        // "QCWL"
+    private static final int CHECKPOINT_MAGIC = 0x51434350; // "QCCP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int CHECKPOINT_BYTES = 28;
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+
+    // What the last recovery found
+    public static final class Recovery {
+        long checkpointOffset, logEnd, recordCount, recordsReplayed, bytesTruncated;
+
+        public long getCheckpointOffset() { return checkpointOffset; }
+        public long getLogEnd() { return logEnd; }
+        public long getRecordCount() { return recordCount; }
+        public long getRecordsReplayed() { return recordsReplayed; }
+        public long getBytesTruncated() { return bytesTruncated; }
+    }
+
+    private final Path log;
+    private final Path checkpoint;
+    private final GroupCommitWriter.Durability durability;
+    private final int batchRecords;
+    private final long flushIntervalMillis;
+    private final int checkpointRecords;
+
+    // Opened on the first append; the log is recovered once per open
+    private GroupCommitWriter writer;
+    private boolean recovered = false;
+    private Recovery lastRecovery;
+    private long logEnd;
+    private long recordCount;
+    private long sinceCheckpoint;
+
+    public WalMessageStore(Path log, Path checkpoint, GroupCommitWriter.Durability durability,
+                           int batchRecords, long flushIntervalMillis) {
+        this(log, checkpoint, durability, batchRecords, flushIntervalMillis, DEFAULT_CHECKPOINT_RECORDS);
+    }
+
+    public WalMessageStore(Path log, Path checkpoint, GroupCommitWriter.Durability durability,
+                           int batchRecords, long flushIntervalMillis, int checkpointRecords) {
+        if (checkpointRecords < 1) throw new IllegalArgumentException("Checkpoint interval must be positive.");
+        this.log = log;
+        this.checkpoint = checkpoint;
+        this.durability = durability;
+        this.batchRecords = batchRecords;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.checkpointRecords = checkpointRecords;
+    }
+
+    // Open the log, first copying the JSON file into it if there is no log yet
+    public static WalMessageStore openConverting(Path log, Path checkpoint, Path json,
+                                                 GroupCommitWriter.Durability durability,
+                                                 int batchRecords, long flushIntervalMillis) throws IOException {
+        if (!Files.exists(log) && Files.exists(json)) {
+            Path tmpLog = log.resolveSibling(log.getFileName() + ".tmp");
+            Path tmpCheckpoint = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+            Files.deleteIfExists(tmpLog);
+            Files.deleteIfExists(tmpCheckpoint);
+
+            IOException[] failure = { null };
+            try (WalMessageStore out = new WalMessageStore(tmpLog, tmpCheckpoint,
+                    GroupCommitWriter.Durability.NONE, GroupCommitWriter.DEFAULT_BATCH_RECORDS, 0, Integer.MAX_VALUE)) {
+                out.openForAppend();
+                StoredMessageLoader.load(json, JsonRecordCodec::decode, m -> {
+                    if (failure[0] != null) return;
+                    try {
+                        out.append(m);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }, StoredMessageLoader.DEFAULT_CHUNK_BYTES, ForkJoinPool.commonPool());
+                if (failure[0] != null) throw failure[0];
+            }
+            // Log first: a log without its checkpoint is simply verified in full
+            Files.move(tmpLog, log, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tmpCheckpoint, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return new WalMessageStore(log, checkpoint, durability, batchRecords, flushIntervalMillis);
+    }
+
+    public Path getLog() { return log; }
+    public Path getCheckpoint() { return checkpoint; }
+
+    // What recovery found when the log was last opened, or null if it has not been opened
+    public synchronized Recovery getLastRecovery() { return lastRecovery; }
+
+    // --- Writing ---
+
+    @Override
+    public synchronized void append(Message m) throws IOException {
+        if (writer == null) openForAppend();
+
+        byte[] payload = JsonRecordCodec.encode(m).getBytes(StandardCharsets.UTF_8);
+        if (payload.length > MAX_RECORD_BYTES) throw new IOException("Record is larger than " + MAX_RECORD_BYTES + " bytes.");
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+        record.putInt(payload.length).putInt(crc(payload.length, payload, 0, payload.length)).put(payload);
+        writer.append(record.array());
+        logEnd += record.capacity();
+        recordCount++;
+
+        if (++sinceCheckpoint >= checkpointRecords) checkpoint();
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (writer != null) writer.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer == null) return;
+        try {
+            if (sinceCheckpoint > 0) checkpoint();
+        } finally {
+            writer.close();
+            writer = null;
+            recovered = false;
+        }
+    }
+
+    // Force the log and record that everything up to here is good
+    private void checkpoint() throws IOException {
+        writer.sync();
+        writeCheckpoint(checkpoint, logEnd, recordCount);
+        sinceCheckpoint = 0;
+    }
+
+    private void openForAppend() throws IOException {
+        recover(true);
+        writer = new GroupCommitWriter(log, durability,
+                GroupCommitWriter.DEFAULT_BUFFER_BYTES, batchRecords, flushIntervalMillis);
+    }
+
+    // --- Recovery ---
+
+    // Verify the log from the last checkpoint and cut off a torn or corrupt tail
+    private void recover(boolean create) throws IOException {
+        if (recovered) return;
+        if (!create && !Files.exists(log)) return;
+
+        Recovery result = new Recovery();
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < HEADER_BYTES) {
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(LOG_MAGIC).putInt(VERSION).flip();
+                while (header.hasRemaining()) channel.write(header, header.position());
+                Files.deleteIfExists(checkpoint);
+            } else {
+                checkHeader(channel);
+            }
+
+            // A checkpoint past the end of the log belongs to some other log: verify everything
+            long size = channel.size();
+            long[] saved = readCheckpoint(checkpoint);
+            long count = 0;
+            result.checkpointOffset = HEADER_BYTES;
+            if (saved != null && saved[0] >= HEADER_BYTES && saved[0] <= size) {
+                result.checkpointOffset = saved[0];
+                count = saved[1];
+            }
+
+            RecordReader reader = new RecordReader(channel, result.checkpointOffset, size);
+            while (reader.next()) result.recordsReplayed++;
+
+            logEnd = reader.position();
+            recordCount = count + result.recordsReplayed;
+            result.bytesTruncated = size - logEnd;
+            if (result.bytesTruncated > 0) channel.truncate(logEnd);
+            channel.force(true);
+        }
+        writeCheckpoint(checkpoint, logEnd, recordCount);
+
+        result.logEnd = logEnd;
+        result.recordCount = recordCount;
+        lastRecovery = result;
+        sinceCheckpoint = 0;
+        recovered = true;
+    }
+
+    // --- Reading ---
+
+    @Override
+    public List<Message> loadAll() throws IOException {
+        List<Message> messages = new ArrayList<>();
+        long end;
+        synchronized (this) {
+            flush();
+            recover(false);
+            if (!recovered) return messages;
+            end = logEnd;
+        }
+
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+            checkHeader(channel);
+            RecordReader reader = new RecordReader(channel, HEADER_BYTES, end);
+            while (reader.next()) {
+                Message m = JsonRecordCodec.decode(reader.payload, 0, reader.length);
+                if (m != null) messages.add(m);
+            }
+            // Recovery verified everything after the checkpoint, so this is damage before it
+            if (reader.position() != end) {
+                throw new IOException(log + " has a corrupt record at offset " + reader.position() + ".");
+            }
+        }
+        return messages;
+    }
+
+    // Sequential reader that stops at the first incomplete or corrupt record
+    private static final class RecordReader {
+        private final DataInputStream in;
+        private final long end;
+        private long position;
+        byte[] payload = new byte[256];
+        int length;
+
+        // Reads through the channel without owning it
+        RecordReader(FileChannel channel, long from, long end) throws IOException {
+            channel.position(from);
+            InputStream stream = Channels.newInputStream(channel);
+            this.in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+            this.position = from;
+            this.end = end;
+        }
+
+        long position() { return position; }
+
+        boolean next() throws IOException {
+            if (end - position < RECORD_HEADER_BYTES) return false;
+            try {
+                int len = in.readInt();
+                int crc = in.readInt();
+                if (len < 1 || len > MAX_RECORD_BYTES || end - position - RECORD_HEADER_BYTES < len) return false;
+                if (payload.length < len) payload = new byte[Math.max(len, payload.length * 2)];
+                in.readFully(payload, 0, len);
+                if (crc(len, payload, 0, len) != crc) return false;
+                length = len;
+                position += RECORD_HEADER_BYTES + len;
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+    }
+
+    // --- File helpers ---
+
+    private static int crc(int length, byte[] payload, int from, int to) {
+        CRC32C crc = new CRC32C();
+        crc.update(ByteBuffer.allocate(4).putInt(length).array());
+        crc.update(payload, from, to - from);
+        return (int) crc.getValue();
+    }
+
+    private static void checkHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) break;
+        }
+        if (header.position() < HEADER_BYTES || header.getInt(0) != LOG_MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a version " + VERSION + " message log file.");
+        }
+    }
+
+    // Write the checkpoint to a temporary file and rename it over the old one
+    private static void writeCheckpoint(Path checkpoint, long offset, long count) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(CHECKPOINT_BYTES);
+        buf.putInt(CHECKPOINT_MAGIC).putInt(VERSION).putLong(offset).putLong(count);
+        CRC32C crc = new CRC32C();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue()).flip();
+
+        Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) channel.write(buf);
+            channel.force(true);
+        }
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // {offset, record count}, or null if there is no valid checkpoint
+    private static long[] readCheckpoint(Path checkpoint) throws IOException {
+        if (!Files.exists(checkpoint)) return null;
+        byte[] bytes = Files.readAllBytes(checkpoint);
+        if (bytes.length != CHECKPOINT_BYTES) return null;
+
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, 0, CHECKPOINT_BYTES - 4);
+        if (buf.getInt(0) != CHECKPOINT_MAGIC || buf.getInt(4) != VERSION
+                || buf.getInt(CHECKPOINT_BYTES - 4) != (int) crc.getValue()) {
+            return null;
+        }
+        return new long[] { buf.getLong(8), buf.getLong(16) };
+    }
+}
@@ -0,0 +1,202 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WalMessageStoreTest {
+
+    private static WalMessageStore open(Path dir, int checkpointRecords) {
+        return new WalMessageStore(dir.resolve("s.wal"), dir.resolve("s.ckpt"),
+                GroupCommitWriter.Durability.NONE, 16, 0, checkpointRecords);
+    }
+
+    private static List<Message> sample(int n) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            messages.add(Message.fromStored(String.valueOf(1_000_000_000L + i), "+2783000" + (1000 + i % 50),
+                    "Message " + i + " é😀 " + "x".repeat(i % 40), "10:" + i + ":M" + (i % 10)));
+        }
+        return messages;
+    }
+
+    // Log offset just past each record: 8-byte header, then [length][crc][payload]
+    private static long[] recordEnds(List<Message> messages) {
+        long[] ends = new long[messages.size()];
+        long pos = 8;
+        for (int i = 0; i < messages.size(); i++) {
+            pos += 8 + JsonRecordCodec.encode(messages.get(i)).getBytes(StandardCharsets.UTF_8).length;
+            ends[i] = pos;
+        }
+        return ends;
+    }
+
+    private static void assertPrefix(List<Message> expected, int count, List<Message> actual) {
+        assertEquals(count, actual.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected.get(i).getMessageID(), actual.get(i).getMessageID());
+            assertEquals(expected.get(i).getMessageText(), actual.get(i).getMessageText());
+        }
+    }
+
+    private static void deleteAll(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) Files.deleteIfExists(p);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    private static void copyStore(Path from, Path to) throws IOException {
+        Files.copy(from.resolve("s.wal"), to.resolve("s.wal"), StandardCopyOption.REPLACE_EXISTING);
+        if (Files.exists(from.resolve("s.ckpt"))) {
+            Files.copy(from.resolve("s.ckpt"), to.resolve("s.ckpt"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(to.resolve("s.ckpt"));
+        }
+    }
+
+    @Test
+    public void roundTripAndRecoveryStartsAtCheckpoint() throws Exception {
+        Path dir = Files.createTempDirectory("wal");
+        List<Message> messages = sample(1000);
+        try {
+            try (WalMessageStore store = open(dir, 100)) {
+                for (Message m : messages) store.append(m);
+                assertPrefix(messages, 1000, store.loadAll());
+            }
+
+            // A clean close checkpoints the end: nothing to replay
+            WalMessageStore reopened = open(dir, 100);
+            assertPrefix(messages, 1000, reopened.loadAll());
+            assertEquals(0, reopened.getLastRecovery().getRecordsReplayed());
+            assertEquals(1000, reopened.getLastRecovery().getRecordCount());
+
+            // Crash without close: only records after the last checkpoint are replayed
+            for (Message m : sample(1050).subList(1000, 1050)) reopened.append(m);
+            reopened.flush();
+            WalMessageStore afterCrash = open(dir, 100);
+            assertEquals(1050, afterCrash.loadAll().size());
+            assertEquals(50, afterCrash.getLastRecovery().getRecordsReplayed());
+            assertEquals(0, afterCrash.getLastRecovery().getBytesTruncated());
+            reopened.close();
+            afterCrash.close();
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void crashAtRandomOffsetsKeepsEveryWholeRecord() throws Exception {
+        Path source = Files.createTempDirectory("wal");
+        Path crash = Files.createTempDirectory("wal-crash");
+        List<Message> messages = sample(300);
+        long[] ends = recordEnds(messages);
+        Random random = new Random(17);
+        try {
+            // Leave a checkpoint part way through, as a crash after a flush would
+            WalMessageStore writer = open(source, 64);
+            for (Message m : messages) writer.append(m);
+            writer.flush();
+            long size = Files.size(source.resolve("s.wal"));
+            assertEquals(ends[ends.length - 1], size);
+
+            for (int trial = 0; trial < 300; trial++) {
+                copyStore(source, crash);
+                long cut = random.nextInt((int) size + 1);
+                try (FileChannel log = FileChannel.open(crash.resolve("s.wal"), StandardOpenOption.WRITE)) {
+                    log.truncate(cut);
+                    // Half the time the torn write left garbage behind
+                    if (random.nextBoolean() && cut >= 8) {
+                        byte[] junk = new byte[1 + random.nextInt(64)];
+                        random.nextBytes(junk);
+                        log.write(ByteBuffer.wrap(junk), cut);
+                    }
+                }
+
+                int whole = 0;
+                while (whole < ends.length && ends[whole] <= cut) whole++;
+
+                try (WalMessageStore store = open(crash, 64)) {
+                    assertPrefix(messages, whole, store.loadAll());
+                    // The log is usable again straight away
+                    store.append(messages.get(0));
+                    assertEquals(whole + 1, store.loadAll().size());
+                }
+                try (WalMessageStore again = open(crash, 64)) {
+                    assertEquals(whole + 1, again.loadAll().size());
+                }
+            }
+            writer.close();
+        } finally {
+            deleteAll(source);
+            deleteAll(crash);
+        }
+    }
+
+    @Test
+    public void corruptionAfterCheckpointIsCutAndBeforeIsReported() throws Exception {
+        Path dir = Files.createTempDirectory("wal");
+        List<Message> messages = sample(180);
+        long[] ends = recordEnds(messages);
+        try {
+            WalMessageStore writer = open(dir, 100);
+            for (Message m : messages) writer.append(m);
+            writer.flush();
+
+            // Flip a byte inside record 150 (after the checkpoint at record 100)
+            Path log = dir.resolve("s.wal");
+            flip(log, ends[149] + 12);
+            try (WalMessageStore store = open(dir, 100)) {
+                assertPrefix(messages, 150, store.loadAll());
+                assertEquals(50, store.getLastRecovery().getRecordsReplayed());
+                assertEquals(ends[179] - ends[149], store.getLastRecovery().getBytesTruncated());
+            }
+
+            // Damage inside the checkpointed part is not silently dropped
+            flip(log, ends[10] + 12);
+            WalMessageStore damaged = open(dir, 100);
+            assertThrows(IOException.class, damaged::loadAll);
+            writer.close();
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    private static void flip(Path file, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, offset);
+            b.put(0, (byte) (b.get(0) ^ 0x20)).rewind();
+            channel.write(b, offset);
+        }
+    }
+
+    @Test
+    public void convertsTheJsonFileOnFirstOpen() throws Exception {
+        Path dir = Files.createTempDirectory("wal");
+        Path json = dir.resolve("stored.json");
+        List<Message> messages = sample(50);
+        StringBuilder lines = new StringBuilder();
+        for (Message m : messages) lines.append(JsonRecordCodec.encode(m)).append('\n');
+        Files.writeString(json, lines.toString(), StandardCharsets.UTF_8);
+        try {
+            try (WalMessageStore store = WalMessageStore.openConverting(dir.resolve("s.wal"), dir.resolve("s.ckpt"),
+                    json, GroupCommitWriter.Durability.NONE, 16, 0)) {
+                assertPrefix(messages, 50, store.loadAll());
+                assertEquals(0, store.getLastRecovery().getRecordsReplayed());
+            }
+        } finally {
+            deleteAll(dir);
+        }
+    }
+}